@@ -24,6 +24,11 @@ package lc.kra.eclipse.wordfileeditor;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.AUTOMATIC_WORDFILE_PROPERTY;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.CUSTOM_WORDFILES_PREFERENCE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.DEFAULT_WORDFILE_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LARGE_FILE_LINES_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LARGE_FILE_SIZE_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LONG_LINE_LENGTH_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.MATCHING_BRACKETS_COLOR_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.MATCHING_BRACKETS_PREFERENCE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.UNDEFINED_WORDFILE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.getPreference;
 
@@ -32,11 +37,15 @@ import java.net.URL;
 import java.util.Enumeration;
 
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.jface.preference.PreferenceConverter;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.resource.ImageRegistry;
+import org.eclipse.swt.graphics.RGB;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
+import lc.kra.eclipse.wordfileeditor.editor.parse.WordfileDamagerRepairer;
+import lc.kra.eclipse.wordfileeditor.editor.parse.WordfileScannerCache;
 import lc.kra.eclipse.wordfileeditor.wordfile.CustomWordfile;
 
 /**
@@ -87,6 +96,7 @@ public class WordfileEditorActivator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		WordfileScannerCache.clear();
 		plugin = null;
 		super.stop(context);
 	}
@@ -119,5 +129,10 @@ public class WordfileEditorActivator extends AbstractUIPlugin {
 		store.setDefault(AUTOMATIC_WORDFILE_PROPERTY,Boolean.TRUE.toString());
 		store.setDefault(DEFAULT_WORDFILE_PREFERENCE,UNDEFINED_WORDFILE);
 		store.setDefault(CUSTOM_WORDFILES_PREFERENCE,new String());
+		store.setDefault(LARGE_FILE_SIZE_PREFERENCE,20); //megabytes
+		store.setDefault(LARGE_FILE_LINES_PREFERENCE,500000);
+		store.setDefault(LONG_LINE_LENGTH_PREFERENCE,WordfileDamagerRepairer.DEFAULT_LONG_LINE_LENGTH); //characters
+		store.setDefault(MATCHING_BRACKETS_PREFERENCE,true);
+		PreferenceConverter.setDefault(store,MATCHING_BRACKETS_COLOR_PREFERENCE,new RGB(192,192,192));
 	}
 }
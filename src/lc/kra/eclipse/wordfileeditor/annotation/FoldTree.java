@@ -0,0 +1,584 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.TypedRegion;
+
+import lc.kra.eclipse.wordfileeditor.utilities.AhoCorasickMatcher;
+
+/**
+ * the FoldTree holds the fold and unfold strings found in a document, as a list of events opening and closing folds. The events
+ * are kept across document changes: events after a change are shifted, while only the text from the nearest unaffected event in
+ * front of the change is scanned again, until the scan reaches an event behind the change with the same folds open as before.
+ * All fold and unfold strings are matched in a single forward pass, the open folds are kept on a stack. Inside a fold only the
+ * unfold string matching its fold string closes it, while an unfold string starting at the same position as a fold string takes
+ * precedence. Fold strings are only matched in code and comment fold strings only in comments, regions ignored (e.g. strings)
+ * are skipped. Ignore strings in code take precedence over fold strings they overlap with and a fold string in code closes all
+ * folds left open in comments. The events of a tree are never modified once published, so the tree may be scanned by another thread
+ * @author Kristian Kraljic
+ */
+public class FoldTree {
+	/**
+	 * the types of regions of a {@link Partitioning}
+	 */
+	public static final String CODE = "CODE", COMMENT = "COMMENT", IGNORED = "IGNORED";
+	
+	/**
+	 * the type of events invalidated by a document change
+	 */
+	private static final int INVALID = Integer.MIN_VALUE;
+	/**
+	 * the number of separate document changes kept, before they are applied to the events
+	 */
+	private static final int MAXIMUM_CHANGES = 64;
+	
+	/**
+	 * the matcher for all fold strings (followed by all unfold strings and all ignore strings)
+	 */
+	private final AhoCorasickMatcher matcher;
+	/**
+	 * the number of fold strings and the number of fold strings in code (followed by the comment fold strings)
+	 */
+	private final int foldCount, codeFoldCount;
+	
+	/**
+	 * the current events of the tree
+	 */
+	private Events events = new Events(0);
+	/**
+	 * the document changes not applied to the events yet (offset, removed and inserted characters). The events are shifted
+	 * lazily by the next scan or query, adjacent changes (e.g. while typing) are merged into one
+	 */
+	private List<int[]> changes = new ArrayList<int[]>();
+	/**
+	 * the region of the document changed since the last scan or -1 if the tree is up to date, initially the whole document
+	 */
+	private int dirtyStart = 0, dirtyEnd = Integer.MAX_VALUE;
+	/**
+	 * the version of the tree, increased with every (upcoming) document change
+	 */
+	private int version;
+	/**
+	 * the modification stamp of the document the events were last updated for or unknown
+	 */
+	private long stamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	
+	/**
+	 * creates a new fold tree for an empty document
+	 * @param foldStrings the strings a fold begins
+	 * @param unfoldStrings the strings a fold ends (one for each fold string)
+	 */
+	public FoldTree(String[] foldStrings,String[] unfoldStrings) { this(foldStrings,unfoldStrings,new String[0],new String[0],new String[0]); }
+	/**
+	 * creates a new fold tree for an empty document
+	 * @param foldStrings the strings a fold begins
+	 * @param unfoldStrings the strings a fold ends (one for each fold string)
+	 * @param commentFoldStrings the strings a fold in a comment begins
+	 * @param commentUnfoldStrings the strings a fold in a comment ends (one for each comment fold string)
+	 * @param ignoreStrings the strings in code which never begin or end a fold
+	 */
+	public FoldTree(String[] foldStrings,String[] unfoldStrings,String[] commentFoldStrings,String[] commentUnfoldStrings,String[] ignoreStrings) {
+		codeFoldCount = foldStrings.length;
+		foldCount = codeFoldCount+commentFoldStrings.length;
+		String[] patterns = new String[foldCount*2+ignoreStrings.length];
+		System.arraycopy(foldStrings,0,patterns,0,codeFoldCount);
+		System.arraycopy(commentFoldStrings,0,patterns,codeFoldCount,commentFoldStrings.length);
+		System.arraycopy(unfoldStrings,0,patterns,foldCount,codeFoldCount);
+		System.arraycopy(commentUnfoldStrings,0,patterns,foldCount+codeFoldCount,commentUnfoldStrings.length);
+		System.arraycopy(ignoreStrings,0,patterns,foldCount*2,ignoreStrings.length);
+		matcher = new AhoCorasickMatcher(patterns);
+	}
+	
+	/**
+	 * invalidates scans running while the document is about to be changed
+	 */
+	public synchronized void invalidate() { version++; }
+	
+	/**
+	 * updates the tree for a document change: the events behind the change are shifted, events overlapping the change are invalidated
+	 * and the changed region is marked to be scanned again. The change is only recorded, the events are shifted by the next scan
+	 * or query, so updating the tree does not depend on the number of events
+	 * @param offset the offset of the change
+	 * @param removed the number of characters removed
+	 * @param inserted the number of characters inserted
+	 */
+	public synchronized void update(int offset,int removed,int inserted) {
+		version++;
+		//an event overlapping the change ends less than the longest pattern behind its start (in front of the end of the change)
+		int end = offset+removed, delta = inserted-removed, extend = offset+inserted+Math.max(matcher.getMaximumLength()-1,0);
+		int[] last = !changes.isEmpty()?changes.get(changes.size()-1):null;
+		if(last!=null&&offset<=last[0]+last[2]&&end>=last[0]) { //merge the change with the last change it touches
+			int start = Math.min(last[0],offset), stop = Math.max(last[0]+last[2],end);
+			changes.set(changes.size()-1,new int[]{start,stop-(last[2]-last[1])-start,stop-start-removed+inserted});
+		} else {
+			if(changes.size()==MAXIMUM_CHANGES)
+				getEvents();
+			changes.add(new int[]{offset,removed,inserted});
+		}
+		
+		if(dirtyStart!=-1) {
+			dirtyStart = Math.min(dirtyStart,offset);
+			if(dirtyEnd!=Integer.MAX_VALUE)
+				dirtyEnd = Math.max(dirtyEnd>=end?dirtyEnd+delta:Math.min(dirtyEnd,offset),extend);
+		} else {
+			dirtyStart = offset;
+			dirtyEnd = extend;
+		}
+	}
+	
+	/**
+	 * marks a region of the document to be scanned again, e.g. because the partitioning of the region changed
+	 * @param offset the offset of the region
+	 * @param length the length of the region
+	 */
+	public void rescan(int offset,int length) { update(offset,length,length); }
+	/**
+	 * updates the tree for a document change like {@link #update(int, int, int)} and records the modification stamp of the document
+	 * after the change, so that a scan of an older snapshot of the document is rejected
+	 * @param stamp the modification stamp of the document after the change
+	 */
+	public synchronized void update(int offset,int removed,int inserted,long stamp) {
+		update(offset,removed,inserted);
+		this.stamp = stamp;
+	}
+	
+	/**
+	 * scans the changed region of the document again, treating the whole document as code
+	 * @see #scan(CharSequence, Partitioning, IProgressMonitor)
+	 */
+	public boolean scan(CharSequence content) { return scan(content,null,null,IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP); }
+	/**
+	 * scans the changed region of the document again, must not be called concurrently with another scan
+	 * @param content the current content of the document
+	 * @param partitioning the partitioning of the document into code, comments and ignored regions or null if the document is code only
+	 * @param monitor the progress monitor to check for cancellation or null
+	 * @param stamp the modification stamp of the content or unknown
+	 * @return true if the tree is up to date, false if the document was changed while scanning, the content is older or newer than
+	 *  the tree or the scan was canceled
+	 */
+	public boolean scan(CharSequence content,Partitioning partitioning,IProgressMonitor monitor,long stamp) {
+		Events events; List<int[]> changes; int dirtyStart, dirtyEnd, version;
+		synchronized(this) {
+			if(stamp!=IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP&&this.stamp!=IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP&&stamp!=this.stamp)
+				return false; //the events were shifted for another version of the document
+			if(this.dirtyStart==-1)
+				return true;
+			events = this.events;
+			changes = new ArrayList<int[]>(this.changes);
+			dirtyStart = this.dirtyStart;
+			dirtyEnd = this.dirtyEnd;
+			version = this.version;
+		}
+		try { events = scan(content,partitioning,monitor,shift(events,changes),dirtyStart,dirtyEnd); }
+		catch(IndexOutOfBoundsException e) { return false; } //the document was changed while scanning
+		catch(OperationCanceledException e) { return false; }
+		synchronized(this) {
+			if(this.version!=version)
+				return false;
+			this.events = events;
+			this.changes.clear();
+			this.dirtyStart = -1;
+			if(stamp!=IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP)
+				this.stamp = stamp; //the tree is up to date for the scanned content
+			return true;
+		}
+	}
+	
+	/**
+	 * returns the positions of all closed folds covering more than one line, because code folding makes no sense for single lines
+	 * @param document the document to determine the lines of the folds in
+	 * @return a list of positions sorted by offset
+	 * @throws BadLocationException if the document does not match the tree
+	 */
+	public List<Position> getFolds(IDocument document) throws BadLocationException {
+		Events events;
+		synchronized(this) { events = getEvents(); }
+		List<Position> folds = new ArrayList<Position>();
+		for(int index=0;index<events.count;index++)
+			if(events.types[index]>=0&&events.partners[index]!=-1) {
+				int offset = events.offsets[index], close = events.partners[index], end = events.offsets[close]+events.lengths[close];
+				if(document.getLineOfOffset(offset)!=document.getLineOfOffset(end-1))
+					folds.add(new Position(offset,end-offset));
+			}
+		return folds;
+	}
+	
+	/**
+	 * returns the innermost closed fold enclosing a region and larger than the region (an empty region at the end of a fold is
+	 * not enclosed by the fold). The folds are nested and sorted by their
+	 * offset, so the enclosing folds are the ancestors of the last event in front of the region and can be found in O(log n)
+	 * plus the nesting depth. Folds changed since the last scan are not found
+	 * @param offset the offset of the region
+	 * @param length the length of the region
+	 * @return the position of the fold including the fold and unfold string or null if no fold encloses the region
+	 */
+	public Position getEnclosingFold(int offset,int length) {
+		Events events;
+		synchronized(this) { events = getEvents(); }
+		int index = events.indexBefore(offset+1), open = index;
+		if(index!=-1&&events.types[index]<0) //the fold closed by the event ends behind the offset, if the region starts in the unfold string
+			open = events.types[index]!=INVALID?events.partners[index]:events.parents[index];
+		for(;open!=-1;open=events.parents[open]) {
+			int close = events.partners[open];
+			if(events.types[open]<0||close==-1||events.types[close]==INVALID)
+				continue; //the fold was not closed or was changed since the last scan
+			int start = events.offsets[open], end = events.offsets[close]+events.lengths[close];
+			if(start<=offset&&end>=offset+length&&end>offset&&end-start>length)
+				return new Position(start,end-start);
+		}
+		return null;
+	}
+	
+	/**
+	 * returns the unfold string closing the fold opened by a fold string containing an offset or the fold string opening the
+	 * fold closed by an unfold string containing the offset, in O(log n) (e.g. to find matching brackets). Folds changed since
+	 * the last scan are not found
+	 * @param offset the offset
+	 * @return the position of the partner of the fold or unfold string containing the offset or null if no closed fold begins
+	 *  or ends at the offset
+	 */
+	public Position getPartner(int offset) {
+		Events events;
+		synchronized(this) { events = getEvents(); }
+		int index = events.indexBefore(offset+1);
+		if(index==-1||events.types[index]==INVALID||offset>=events.offsets[index]+events.lengths[index])
+			return null;
+		int partner = events.partners[index];
+		if(partner==-1||events.types[partner]==INVALID)
+			return null;
+		return new Position(events.offsets[partner],events.lengths[partner]);
+	}
+	
+	/**
+	 * checks if the tree was scanned since the last change of a document
+	 * @param stamp the current modification stamp of the document or unknown
+	 * @return true if no region has to be scanned again and the tree was updated for the given modification stamp
+	 */
+	public synchronized boolean isCurrent(long stamp) {
+		return dirtyStart==-1&&(stamp==IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP||stamp==this.stamp);
+	}
+	
+	/**
+	 * @return true if all folds found are closed by an unfold string
+	 */
+	public synchronized boolean isClosed() {
+		Events events = getEvents();
+		for(int index=0;index<events.count;index++)
+			if(events.types[index]>=0&&events.partners[index]==-1)
+				return false;
+		return true;
+	}
+	
+	/**
+	 * applies the document changes recorded since the events were shifted last. Must be called holding the lock of the tree
+	 * @return the current events
+	 */
+	private Events getEvents() {
+		if(!changes.isEmpty()) {
+			events = shift(events,changes);
+			changes.clear();
+		}
+		return events;
+	}
+	/**
+	 * shifts the events behind document changes and invalidates the events overlapping them
+	 * @param old the events
+	 * @param changes the changes (offset, removed and inserted characters) in the order they were made
+	 * @return the new events or the events if there are no changes
+	 */
+	private static Events shift(Events old,List<int[]> changes) {
+		if(changes.isEmpty())
+			return old;
+		Events events = old.copy(old.count);
+		for(int index=0;index<events.count;index++)
+			for(int[] change:changes) {
+				int offset = change[0], end = offset+change[1], start = events.offsets[index];
+				if(start>=end)
+					events.offsets[index] = start+change[2]-change[1];
+				else if(start+events.lengths[index]>offset) { //the event overlaps the change
+					events.types[index] = INVALID;
+					events.offsets[index] = Math.min(start,offset);
+				}
+			}
+		return events;
+	}
+	
+	/**
+	 * scans the changed region of a document
+	 * @param content the current content of the document
+	 * @param partitioning the partitioning of the document or null
+	 * @param monitor the progress monitor or null
+	 * @param old the events of the document before the change (shifted)
+	 * @param dirtyStart the start of the changed region
+	 * @param dirtyEnd the end of the changed region
+	 * @return the new events of the document
+	 */
+	private Events scan(CharSequence content,Partitioning partitioning,IProgressMonitor monitor,Events old,int dirtyStart,int dirtyEnd) {
+		//restart from the last event, which can not be affected by the change (not even by a longer match starting in front of it)
+		int restart = old.indexBefore(dirtyStart-matcher.getMaximumLength()+1);
+		Events events = old.copy(restart+1);
+		List<Integer> stack = new ArrayList<Integer>(); //the event indices of the open folds
+		int position = 0;
+		if(restart!=-1) {
+			position = old.offsets[restart]+old.lengths[restart];
+			for(int open=old.types[restart]>=0?restart:old.parents[restart];open!=-1;open=old.parents[open]) {
+				stack.add(0,open);
+				events.partners[open] = -1;
+			}
+		}
+		
+		//matches are found at their end, so they are collected by their start until no longer match may start at the same position
+		TreeMap<Integer,int[]> starts = new TreeMap<Integer,int[]>();
+		int state = AhoCorasickMatcher.INITIAL_STATE, cursor = restart+1, regionEnd = 0;
+		boolean comment = false;
+		for(int offset=position,length=content.length();offset<=length;offset++) {
+			if(offset<length) {
+				if((offset&0xFFFF)==0&&monitor!=null&&monitor.isCanceled())
+					throw new OperationCanceledException();
+				if(offset>=regionEnd) { //matches never span regions
+					ITypedRegion region = partitioning!=null?partitioning.getRegion(offset):new TypedRegion(0,length,CODE);
+					if((regionEnd=region.getOffset()+region.getLength())<=offset)
+						throw new IndexOutOfBoundsException(); //the partitioning does not match the content anymore
+					state = AhoCorasickMatcher.INITIAL_STATE;
+					comment = COMMENT.equals(region.getType());
+					if(IGNORED.equals(region.getType())||comment&&foldCount==codeFoldCount) {
+						offset = regionEnd-1;
+						continue;
+					}
+				}
+				state = matcher.next(state,content.charAt(offset));
+				for(int pattern:matcher.getMatches(state))
+					if(isComment(pattern)==comment)
+						addStart(starts,offset-matcher.getLength(pattern)+1,pattern);
+			}
+			//process all matches which can not be preceded by another match starting at the same position anymore
+			while(!starts.isEmpty()&&(offset==length||starts.firstKey()<=offset-matcher.getMaximumLength()+1)) {
+				Map.Entry<Integer,int[]> start = starts.pollFirstEntry();
+				if(start.getKey()<position)
+					continue; //the match overlaps a previous fold, unfold or ignore string
+				int[] patterns = start.getValue();
+				if(patterns[patterns.length-1]>=foldCount*2) { //skip the longest ignore string
+					for(int pattern:patterns)
+						if(pattern>=foldCount*2)
+							position = Math.max(position,start.getKey()+matcher.getLength(pattern));
+					continue;
+				}
+				if(!isComment(patterns[0]))
+					while(!stack.isEmpty()&&events.types[stack.get(stack.size()-1)]>=codeFoldCount)
+						stack.remove(stack.size()-1); //close no folds left open in comments
+				int event = -1, top = !stack.isEmpty()?stack.get(stack.size()-1):-1;
+				if(top!=-1&&contains(patterns,foldCount+events.types[top])) { //close the current fold
+					stack.remove(stack.size()-1);
+					event = events.add(start.getKey(),matcher.getLength(foldCount+events.types[top]),-events.types[top]-1,top,events.parents[top]);
+					events.partners[top] = event;
+				} else for(int pattern:patterns)
+					if(pattern<foldCount) { //open a new fold (for the first fold string matching)
+						event = events.add(start.getKey(),matcher.getLength(pattern),pattern,-1,top);
+						stack.add(event);
+						break;
+					}
+				if(event==-1)
+					continue;
+				position = start.getKey()+events.lengths[event];
+				
+				//behind the change, check if the event and the open folds are the same as before the change
+				if(start.getKey()>=dirtyEnd) {
+					while(cursor<old.count&&old.offsets[cursor]<start.getKey())
+						cursor++;
+					for(int index=cursor;index<old.count&&old.offsets[index]==start.getKey();index++)
+						if(old.types[index]==events.types[event]&&old.lengths[index]==events.lengths[event]) {
+							Map<Integer,Integer> mapping = match(events,stack,old,index,restart);
+							if(mapping!=null)
+								return splice(events,old,index,mapping);
+						}
+				}
+			}
+		}
+		return events;
+	}
+	
+	/**
+	 * @return true if a pattern is a comment fold or unfold string
+	 */
+	private boolean isComment(int pattern) { return pattern<foldCount*2&&pattern%foldCount>=codeFoldCount; }
+	
+	/**
+	 * compares the open folds after a new event with the open folds after an old event
+	 * @return a mapping of the old event indices of the open folds to the new event indices or null if different folds are open
+	 */
+	private static Map<Integer,Integer> match(Events events,List<Integer> stack,Events old,int event,int restart) {
+		Map<Integer,Integer> mapping = new HashMap<Integer,Integer>();
+		mapping.put(event,events.count-1);
+		int open = old.types[event]>=0?event:old.parents[event];
+		for(int index=stack.size()-1;index>=0;index--,open=old.parents[open]) {
+			int current = stack.get(index);
+			if(open==-1||old.types[open]!=events.types[current]||old.offsets[open]!=events.offsets[current]||(current<=restart&&current!=open))
+				return null;
+			mapping.put(open,current);
+		}
+		return open==-1?mapping:null;
+	}
+	
+	/**
+	 * appends the old events behind a synchronized event to the new events
+	 * @param events the new events, ending with the synchronized event
+	 * @param old the old events
+	 * @param event the index of the synchronized event in the old events
+	 * @param mapping the mapping of the old event indices of the open folds to the new event indices
+	 * @return the new events
+	 */
+	private static Events splice(Events events,Events old,int event,Map<Integer,Integer> mapping) {
+		int shift = events.count-event-1;
+		for(Map.Entry<Integer,Integer> open:mapping.entrySet())
+			if(events.types[open.getValue()]>=0)
+				events.partners[open.getValue()] = remap(old.partners[open.getKey()],event,shift,mapping);
+		for(int index=event+1;index<old.count;index++)
+			events.add(old.offsets[index],old.lengths[index],old.types[index],
+				remap(old.partners[index],event,shift,mapping),remap(old.parents[index],event,shift,mapping));
+		return events;
+	}
+	private static int remap(int index,int event,int shift,Map<Integer,Integer> mapping) {
+		if(index==-1)
+			 return -1;
+		else if(index>event)
+			 return index+shift;
+		else return mapping.get(index);
+	}
+	
+	/**
+	 * adds a pattern to the patterns matched at a start position, sorted by index
+	 */
+	private static void addStart(TreeMap<Integer,int[]> starts,int start,int pattern) {
+		int[] patterns = starts.get(start);
+		if(patterns==null)
+			 patterns = new int[]{pattern};
+		else {
+			patterns = Arrays.copyOf(patterns,patterns.length+1);
+			patterns[patterns.length-1] = pattern;
+			Arrays.sort(patterns);
+		}
+		starts.put(start,patterns);
+	}
+	private static boolean contains(int[] patterns,int pattern) {
+		for(int index:patterns)
+			if(index==pattern)
+				return true;
+		return false;
+	}
+	
+	/**
+	 * the partitioning of a document into regions of code, comments and regions ignored (e.g. strings)
+	 * @author Kristian Kraljic
+	 */
+	public interface Partitioning {
+		/**
+		 * returns the region containing an offset
+		 * @param offset the offset
+		 * @return the region of the type {@link FoldTree#CODE}, {@link FoldTree#COMMENT} or {@link FoldTree#IGNORED}
+		 * @throws IndexOutOfBoundsException if the document was changed
+		 */
+		public ITypedRegion getRegion(int offset);
+	}
+	
+	/**
+	 * the events opening and closing folds, sorted by offset
+	 * @author Kristian Kraljic
+	 */
+	private static class Events {
+		/**
+		 * the offset and length of the fold or unfold string of each event
+		 */
+		int[] offsets,lengths;
+		/**
+		 * the type of each event, the fold index for events opening a fold, -(fold index+1) for events closing a fold
+		 */
+		int[] types;
+		/**
+		 * the index of the event closing / opening the same fold (-1 if the fold was not closed) and the index of the event opening the enclosing fold (or -1)
+		 */
+		int[] partners,parents;
+		/**
+		 * the number of events
+		 */
+		int count;
+		
+		public Events(int capacity) {
+			offsets = new int[capacity]; lengths = new int[capacity]; types = new int[capacity];
+			partners = new int[capacity]; parents = new int[capacity];
+		}
+		
+		/**
+		 * @return a copy of the first events
+		 */
+		public Events copy(int count) {
+			Events events = new Events(Math.max(count,16));
+			System.arraycopy(offsets,0,events.offsets,0,count); System.arraycopy(lengths,0,events.lengths,0,count);
+			System.arraycopy(types,0,events.types,0,count); System.arraycopy(partners,0,events.partners,0,count);
+			System.arraycopy(parents,0,events.parents,0,count);
+			events.count = count;
+			return events;
+		}
+		
+		/**
+		 * adds an event
+		 * @return the index of the event
+		 */
+		public int add(int offset,int length,int type,int partner,int parent) {
+			if(count==offsets.length) {
+				int capacity = Math.max(16,count*2);
+				offsets = Arrays.copyOf(offsets,capacity); lengths = Arrays.copyOf(lengths,capacity); types = Arrays.copyOf(types,capacity);
+				partners = Arrays.copyOf(partners,capacity); parents = Arrays.copyOf(parents,capacity);
+			}
+			offsets[count] = offset; lengths[count] = length; types[count] = type;
+			partners[count] = partner; parents[count] = parent;
+			return count++;
+		}
+		
+		/**
+		 * @return the index of the last event starting before an offset or -1
+		 */
+		public int indexBefore(int offset) {
+			int low = 0, high = count-1;
+			while(low<=high) {
+				int middle = (low+high)>>>1;
+				if(offsets[middle]<offset)
+					 low = middle+1;
+				else high = middle-1;
+			}
+			return high;
+		}
+	}
+}
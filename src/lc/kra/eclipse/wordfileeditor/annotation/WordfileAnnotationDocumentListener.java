@@ -23,30 +23,79 @@ package lc.kra.eclipse.wordfileeditor.annotation;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
-import org.eclipse.core.resources.WorkspaceJob;
-import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IDocumentPartitioner;
+import org.eclipse.jface.text.IDocumentPartitioningListener;
+import org.eclipse.jface.text.IDocumentPartitioningListenerExtension;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITypedRegion;
 import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.TypedRegion;
 import org.eclipse.jface.text.source.Annotation;
-import org.eclipse.jface.text.source.AnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelExtension;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IEditorPart;
 
+import lc.kra.eclipse.wordfileeditor.editor.WordfileDocument;
+
 /**
  * this class can be registered to an editor, checks for changes of the document and then calls the provider classes to get a new set of annotations. The new set of annotations is then replacing old annotations in the editor
  * @author Kristian Kraljic
  */
-public class WordfileAnnotationDocumentListener implements IDocumentListener {
+public class WordfileAnnotationDocumentListener implements IDocumentListener,IDocumentPartitioningListener,IDocumentPartitioningListenerExtension {
+	/**
+	 * the bounds of the delay in ms between the last change of a document and the update of its annotations
+	 */
+	private static final long MINIMUM_DELAY = 50, MAXIMUM_DELAY = 2000;
+	/**
+	 * the factor the time needed to scan a document is multiplied with, to get the delay of the next update
+	 */
+	private static final int COST_FACTOR = 4;
+	/**
+	 * the interval in ms the annotations are updated at least, while a document is changed continuously
+	 */
+	private static final long REFRESH_INTERVAL = 3000;
+	/**
+	 * the weight of the latest sample in the moving averages of the scan times and the typing interval
+	 */
+	private static final double SMOOTHING = 0.3;
+	/**
+	 * the bounded pool running the providers not depending on each other concurrently
+	 */
+	private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(Math.max(2,Math.min(4,Runtime.getRuntime().availableProcessors())),new ThreadFactory() {
+		@Override public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable,"WordfileEditor Annotation Provider");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
 	/**
 	 * the editor this annotation document listener should be installed to
 	 */
@@ -57,14 +106,34 @@ public class WordfileAnnotationDocumentListener implements IDocumentListener {
 	 */
 	private List<WordfileAnnotationProvider> providers = new ArrayList<WordfileAnnotationProvider>();
 	/**
-	 * a list of the currently set annotations for one annotation provider.
+	 * the currently set annotations (with their group) for one annotation provider.
 	 */
-	private HashMap<WordfileAnnotationProvider,Set<Annotation>> annotations = new HashMap<WordfileAnnotationProvider,Set<Annotation>>();
+	private HashMap<WordfileAnnotationProvider,Map<Annotation,Object>> annotations = new HashMap<WordfileAnnotationProvider,Map<Annotation,Object>>();
 	
 	/**
 	 * the job used to update the markers in the file (started with some dalay)
 	 */
 	private Map<IDocument,AnnotationJob> annotationJobs; 
+	/**
+	 * the first and last line of each document changed since its annotations were last updated (-1 if no line changed, all lines
+	 * of a document without entry are changed) and of the region about to be replaced by a document change
+	 */
+	private Map<IDocument,int[]> dirtyLines = new HashMap<IDocument,int[]>();
+	private int firstLine,lastLine,oldLineCount;
+	/**
+	 * the partitions of the last snapshot of each document and the characters of each document changed since (start, end and the
+	 * change of the length of the document, start -1 if no character changed, all characters of a document without entry are changed)
+	 */
+	private Map<IDocument,ITypedRegion[]> partitionings = new HashMap<IDocument,ITypedRegion[]>();
+	private Map<IDocument,int[]> dirtyRegions = new HashMap<IDocument,int[]>();
+	/**
+	 * the region whose partitioning changed while a document is changed
+	 */
+	private IRegion partitioningChange;
+	/**
+	 * true while a document is changed
+	 */
+	private boolean changing;
 	
 	/**
 	 * creates a new WordfileAnnotationDocumentListener for one editor (the listener will NOT be added to the editor automatically!) 
@@ -76,28 +145,327 @@ public class WordfileAnnotationDocumentListener implements IDocumentListener {
 	}
 	
 	/**
-	 * the updateAnnotations method can be called to replace the annotations with newly fetched annotations from the annotation providers
+	 * the updateAnnotations method can be called to update the annotations with newly fetched annotations from the annotation providers.
+	 * The new annotations are compared to the current ones: annotations of the same group starting at the same offset are kept (and
+	 * resized if their length changed), so they keep their identity and state (e.g. a collapsed fold), only the remaining annotations
+	 * are removed and added
 	 * @param document the document with the actual content
 	 */
-	public void updateAnnotations(IDocument document) {
-		//iterate all providers and ask for a list of annotations
-		for(WordfileAnnotationProvider provider:providers) {
-			Map<Annotation,Position> annotations = new HashMap<Annotation,Position>();
-			Map<Object,List<Position>> groups = provider.getAnnotationGroups(document);
-			if(groups==null) return;
-			//create new annotations
-			for(Entry<Object,List<Position>> group:groups.entrySet())
-				for(Position position:group.getValue())
-					annotations.put(provider.createAnnotation(group.getKey()),position);
-			//delete the old annotations and set the new annotations
-			try {
-				((AnnotationModel)provider.getAnnotationModel()).replaceAnnotations(this.annotations.get(provider).toArray(new Annotation[0]),annotations);
-				this.annotations.put(provider,annotations.keySet());
-			} catch(Exception e) { }
-		}
-	}
-	/**
-	 * the updateAnnotationsDelayed calls the @see updateAnnotations method after a short delay of 750ms when no change was made in the document in that period
+	public void updateAnnotations(IDocument document) { updateAnnotations(document,new NullProgressMonitor()); }
+	/**
+	 * updates the annotations like {@link #updateAnnotations(IDocument)}, until the progress monitor is canceled. The providers
+	 * check an immutable snapshot of the document (taken on the UI thread), the annotations are updated on the UI thread, only
+	 * if the modification stamp of the document still matches the one of the snapshot, stale results are discarded
+	 * @param document the document with the actual content
+	 * @param monitor the progress monitor, canceled if the document was changed again
+	 * @return false if the update was canceled or discarded
+	 */
+	public boolean updateAnnotations(IDocument document,IProgressMonitor monitor) { return updateAnnotations(document,monitor,null); }
+	/**
+	 * updates the annotations, recording the scan times of the providers for the annotation job of the document
+	 * @param job the annotation job of the document or null
+	 */
+	private boolean updateAnnotations(final IDocument document,IProgressMonitor monitor,AnnotationJob job) {
+		Display display = Display.getDefault();
+		if(display.isDisposed())
+			return false;
+		final IDocument[] snapshot = new IDocument[1];
+		final List<WordfileAnnotationProvider> providers = new ArrayList<WordfileAnnotationProvider>();
+		final int[] lines = new int[2];
+		display.syncExec(new Runnable() {
+			@Override public void run() {
+				snapshot[0] = createSnapshot(document);
+				providers.addAll(WordfileAnnotationDocumentListener.this.providers);
+				int[] dirty = dirtyLines.get(document);
+				lines[0] = dirty!=null?dirty[0]:0;
+				lines[1] = dirty!=null?dirty[1]:Integer.MAX_VALUE;
+			}
+		});
+		
+		monitor.beginTask("Updating annotations",providers.size()+1);
+		if(!visitLines(snapshot[0],providers,lines[0],lines[1],monitor))
+			return false;
+		monitor.worked(1);
+		
+		//ask the providers for their annotations, providers not depending on each other concurrently
+		final Map<WordfileAnnotationProvider,Map<Object,List<Position>>> groups = new LinkedHashMap<WordfileAnnotationProvider,Map<Object,List<Position>>>();
+		List<WordfileAnnotationProvider> pending = new ArrayList<WordfileAnnotationProvider>(providers);
+		while(!pending.isEmpty()) {
+			List<WordfileAnnotationProvider> ready = new ArrayList<WordfileAnnotationProvider>();
+			for(WordfileAnnotationProvider provider:pending)
+				if(groups.keySet().containsAll(provider.getDependencies())||!providers.containsAll(provider.getDependencies()))
+					ready.add(provider);
+			if(ready.isEmpty())
+				ready.addAll(pending); //cyclic dependencies are ignored
+			pending.removeAll(ready);
+			
+			List<Future<Map<Object,List<Position>>>> futures = new ArrayList<Future<Map<Object,List<Position>>>>();
+			for(WordfileAnnotationProvider provider:ready)
+				futures.add(ready.size()!=1?EXECUTOR.submit(new ProviderTask(provider,snapshot[0],monitor,job)):new FutureTask<Map<Object,List<Position>>>(new ProviderTask(provider,snapshot[0],monitor,job)));
+			for(int index=0;index<ready.size();index++) try {
+				Future<Map<Object,List<Position>>> future = futures.get(index);
+				if(future instanceof FutureTask&&!future.isDone())
+					((FutureTask<Map<Object,List<Position>>>)future).run(); //a single provider is asked on this thread
+				Map<Object,List<Position>> annotations = future.get();
+				if(annotations==null||monitor.isCanceled()) {
+					monitor.setCanceled(true); //stop the remaining providers early
+					return false;
+				}
+				groups.put(ready.get(index),annotations);
+				monitor.worked(1);
+			} catch(InterruptedException e) { return false; }
+			catch(ExecutionException e) { e.getCause().printStackTrace(); return false; }
+		}
+		monitor.done();
+		
+		final boolean[] updated = new boolean[1];
+		if(!display.isDisposed()) display.syncExec(new Runnable() {
+			@Override public void run() {
+				if(getModificationStamp(document)!=getModificationStamp(snapshot[0]))
+					return; //the document was changed in the meantime, the annotations will be updated again
+				for(Entry<WordfileAnnotationProvider,Map<Object,List<Position>>> annotations:groups.entrySet())
+					if(WordfileAnnotationDocumentListener.this.providers.contains(annotations.getKey()))
+						updateAnnotations(annotations.getKey(),annotations.getValue());
+				dirtyLines.put(document,new int[]{-1,-1});
+				updated[0] = true;
+			}
+		});
+		return updated[0];
+	}
+	
+	/**
+	 * feeds the changed lines of a snapshot to all providers visiting the lines, reading each line only once
+	 * @param document the snapshot of the document
+	 * @param providers the providers
+	 * @param firstLine the first changed line or -1 if no line changed
+	 * @param lastLine the last changed line
+	 * @param monitor the progress monitor
+	 * @return false if the visit was canceled
+	 */
+	private static boolean visitLines(IDocument document,List<WordfileAnnotationProvider> providers,int firstLine,int lastLine,IProgressMonitor monitor) {
+		List<WordfileAnnotationVisitor> visitors = new ArrayList<WordfileAnnotationVisitor>();
+		for(WordfileAnnotationProvider provider:providers)
+			if(provider instanceof WordfileAnnotationVisitor)
+				visitors.add((WordfileAnnotationVisitor)provider);
+		if(visitors.isEmpty()||firstLine==-1)
+			return true;
+		
+		lastLine = Math.min(lastLine,document.getNumberOfLines()-1);
+		for(WordfileAnnotationVisitor visitor:visitors)
+			visitor.beginVisit(document,firstLine,lastLine);
+		try {
+			boolean partitioned = document.getDocumentPartitioner()!=null;
+			for(int line=firstLine;line<=lastLine;line++) {
+				if((line&0xFFF)==0&&monitor.isCanceled())
+					return false;
+				IRegion region = document.getLineInformation(line);
+				int offset = region.getOffset(), length = Math.max(region.getLength(),0);
+				String text = document.get(offset,length);
+				ITypedRegion[] partitions = partitioned?document.computePartitioning(offset,length):new ITypedRegion[0];
+				for(WordfileAnnotationVisitor visitor:visitors)
+					visitor.visitLine(line,offset,text,partitions);
+			}
+		} catch(BadLocationException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			for(WordfileAnnotationVisitor visitor:visitors)
+				visitor.endVisit();
+		}
+		return true;
+	}
+	
+	/**
+	 * replaces the annotations of a provider outside of an update of the document, e.g. because the selection changed. Must be called
+	 * on the UI thread
+	 * @param provider the annotation provider
+	 * @param document the document the annotations were determined for
+	 * @param stamp the modification stamp of the document the annotations were determined for
+	 * @param groups the new annotation groups of the provider
+	 * @return false if the document was changed in the meantime and the annotations were not updated
+	 */
+	public boolean updateAnnotations(WordfileAnnotationProvider provider,IDocument document,long stamp,Map<Object,List<Position>> groups) {
+		if(!providers.contains(provider)||getModificationStamp(document)!=stamp)
+			return false;
+		updateAnnotations(provider,groups);
+		return true;
+	}
+	/**
+	 * replaces the annotations of a provider, annotations of the same group starting at the same offset are kept
+	 * @param provider the annotation provider
+	 * @param groups the new annotation groups of the provider
+	 */
+	private void updateAnnotations(WordfileAnnotationProvider provider,Map<Object,List<Position>> groups) {
+		IAnnotationModel model = provider.getAnnotationModel();
+		
+		//index the current annotations by group and offset (the positions were updated by the model with each document change)
+		Map<Object,Map<Integer,List<Annotation>>> current = new HashMap<Object,Map<Integer,List<Annotation>>>();
+		for(Entry<Annotation,Object> annotation:this.annotations.get(provider).entrySet()) {
+			Position position = model.getPosition(annotation.getKey());
+			if(position==null||position.isDeleted())
+				continue; //the annotation was removed in the meantime
+			Map<Integer,List<Annotation>> offsets = current.get(annotation.getValue());
+			if(offsets==null)
+				current.put(annotation.getValue(),offsets=new HashMap<Integer,List<Annotation>>());
+			List<Annotation> annotations = offsets.get(position.getOffset());
+			if(annotations==null)
+				offsets.put(position.getOffset(),annotations=new ArrayList<Annotation>(1));
+			annotations.add(annotation.getKey());
+		}
+		
+		//keep, resize or create the annotations
+		Map<Annotation,Object> annotations = new HashMap<Annotation,Object>();
+		Map<Annotation,Position> added = new HashMap<Annotation,Position>(), resized = new HashMap<Annotation,Position>();
+		for(Entry<Object,List<Position>> group:groups.entrySet())
+			for(Position position:group.getValue()) {
+				Map<Integer,List<Annotation>> offsets = current.get(group.getKey());
+				List<Annotation> candidates = offsets!=null?offsets.get(position.getOffset()):null;
+				Annotation annotation = null;
+				if(candidates!=null&&!candidates.isEmpty()) {
+					annotation = candidates.get(0);
+					for(Annotation candidate:candidates)
+						if(model.getPosition(candidate).getLength()==position.getLength())
+							annotation = candidate;
+					candidates.remove(annotation);
+					if(model.getPosition(annotation).getLength()!=position.getLength())
+						resized.put(annotation,position);
+				} else added.put(annotation=provider.createAnnotation(group.getKey()),position);
+				annotations.put(annotation,group.getKey());
+			}
+		
+		//remove the remaining annotations
+		List<Annotation> removed = new ArrayList<Annotation>();
+		for(Map<Integer,List<Annotation>> offsets:current.values())
+			for(List<Annotation> candidates:offsets.values())
+				removed.addAll(candidates);
+		
+		try {
+			if(!removed.isEmpty()||!added.isEmpty()||!resized.isEmpty())
+				modifyAnnotations(model,removed,added,resized);
+			this.annotations.put(provider,annotations);
+		} catch(Exception e) { }
+	}
+	
+	/**
+	 * creates a snapshot of a document with the same modification stamp, which can be read by other threads. Must be called on the
+	 * thread changing the document. The snapshot is partitioned like the document: only the partitions of the characters changed
+	 * since the last snapshot are computed again, the other partitions are taken from the last snapshot. The content of a
+	 * WordfileDocument is not copied and its lines are never scanned again, only the offsets of the lines are copied, so the
+	 * cost of a snapshot grows with the number of lines, but not with the number of characters of the document
+	 * @param document the document
+	 * @return an independent document with the same content and partitioning
+	 */
+	private IDocument createSnapshot(IDocument document) {
+		IDocument snapshot;
+		if(document instanceof WordfileDocument)
+			snapshot = ((WordfileDocument)document).getSnapshot();
+		else ((Document)(snapshot=new Document())).set(document.get(),getModificationStamp(document));
+		if(document.getDocumentPartitioner()!=null) try {
+			ITypedRegion[] partitions = partitionings.get(document);
+			int[] region = dirtyRegions.get(document);
+			if(partitions==null||region==null)
+				 partitions = normalize(document.computePartitioning(0,document.getLength()),null,null);
+			else if(region[0]!=-1)
+				partitions = updatePartitioning(document,partitions,region[0],region[1],region[2]);
+			partitionings.put(document,partitions);
+			dirtyRegions.put(document,new int[]{-1,-1,0});
+			snapshot.setDocumentPartitioner(new SnapshotPartitioner(document.getLegalContentTypes(),partitions));
+		} catch(BadLocationException e) { e.printStackTrace(); }
+		return snapshot;
+	}
+	/**
+	 * updates the partitions of the last snapshot of a document: the partitions overlapping the changed characters (and the
+	 * partition in front of them, which a change may extend) are computed again, the partitions behind them are shifted
+	 * @param document the document
+	 * @param partitions the partitions of the last snapshot
+	 * @param start the start of the changed characters
+	 * @param end the end of the changed characters
+	 * @param delta the change of the length of the document since the last snapshot
+	 * @return the partitions of the document
+	 * @throws BadLocationException if the partitions do not match the document
+	 */
+	static ITypedRegion[] updatePartitioning(IDocument document,ITypedRegion[] partitions,int start,int end,int delta) throws BadLocationException {
+		int length = document.getLength(), oldLength = length-delta;
+		start = Math.max(0,Math.min(start,length));
+		int first = SnapshotPartitioner.indexOf(partitions,Math.max(0,Math.min(start-1,oldLength))),
+			last = SnapshotPartitioner.indexOf(partitions,Math.max(partitions[first].getOffset(),Math.min(end-delta,oldLength)));
+		int from = partitions[first].getOffset(), to = Math.max(from,Math.min(partitions[last].getOffset()+partitions[last].getLength()+delta,length));
+		if(last==partitions.length-1)
+			to = length; //the last partition ends with the document
+		List<ITypedRegion> head = new ArrayList<ITypedRegion>(first+1);
+		for(int index=0;index<first;index++)
+			head.add(partitions[index]);
+		List<ITypedRegion> tail = new ArrayList<ITypedRegion>(partitions.length-last);
+		for(int index=last+1;index<partitions.length;index++)
+			tail.add(delta!=0?new TypedRegion(partitions[index].getOffset()+delta,partitions[index].getLength(),partitions[index].getType()):partitions[index]);
+		return normalize(document.computePartitioning(from,to-from),head,tail);
+	}
+	/**
+	 * joins the partitions in front of, within and behind a region of a document, zero-length partitions are removed and default
+	 * partitions meeting at the edges of the region are joined
+	 * @return the partitions of the whole document (a single zero-length default partition for an empty document)
+	 */
+	private static ITypedRegion[] normalize(ITypedRegion[] partitions,List<ITypedRegion> head,List<ITypedRegion> tail) {
+		List<ITypedRegion> regions = head!=null?head:new ArrayList<ITypedRegion>(partitions.length);
+		for(ITypedRegion partition:partitions)
+			add(regions,partition);
+		if(tail!=null)
+			for(ITypedRegion partition:tail)
+				add(regions,partition);
+		if(regions.isEmpty())
+			regions.add(new TypedRegion(0,0,IDocument.DEFAULT_CONTENT_TYPE));
+		return regions.toArray(new ITypedRegion[regions.size()]);
+	}
+	private static void add(List<ITypedRegion> regions,ITypedRegion partition) {
+		if(partition.getLength()==0)
+			return;
+		ITypedRegion previous = !regions.isEmpty()?regions.get(regions.size()-1):null;
+		if(previous!=null&&IDocument.DEFAULT_CONTENT_TYPE.equals(previous.getType())&&IDocument.DEFAULT_CONTENT_TYPE.equals(partition.getType()))
+			 regions.set(regions.size()-1,new TypedRegion(previous.getOffset(),partition.getOffset()+partition.getLength()-previous.getOffset(),previous.getType()));
+		else regions.add(partition);
+	}
+	/**
+	 * @return the modification stamp of a document or unknown if the document has no modification stamps
+	 */
+	static long getModificationStamp(IDocument document) {
+		return document instanceof IDocumentExtension4?((IDocumentExtension4)document).getModificationStamp():IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	}
+	
+	/**
+	 * removes, adds and resizes annotations of a model, for projection models using a single model change
+	 * @param model the model to modify
+	 * @param removed the annotations to remove
+	 * @param added the annotations to add
+	 * @param resized the annotations to resize, with their new position
+	 */
+	private static void modifyAnnotations(IAnnotationModel model,List<Annotation> removed,Map<Annotation,Position> added,Map<Annotation,Position> resized) {
+		if(model instanceof ProjectionAnnotationModel) {
+			for(Entry<Annotation,Position> annotation:resized.entrySet()) {
+				Position position = model.getPosition(annotation.getKey());
+				position.setOffset(annotation.getValue().getOffset());
+				position.setLength(annotation.getValue().getLength());
+			}
+			((ProjectionAnnotationModel)model).modifyAnnotations(removed.toArray(new Annotation[0]),added,resized.keySet().toArray(new Annotation[0]));
+		} else if(model instanceof IAnnotationModelExtension) {
+			((IAnnotationModelExtension)model).replaceAnnotations(removed.toArray(new Annotation[0]),added);
+			for(Entry<Annotation,Position> annotation:resized.entrySet())
+				((IAnnotationModelExtension)model).modifyAnnotationPosition(annotation.getKey(),annotation.getValue());
+		} else {
+			for(Annotation annotation:removed)
+				model.removeAnnotation(annotation);
+			for(Entry<Annotation,Position> annotation:added.entrySet())
+				model.addAnnotation(annotation.getKey(),annotation.getValue());
+			for(Entry<Annotation,Position> annotation:resized.entrySet()) {
+				model.removeAnnotation(annotation.getKey());
+				model.addAnnotation(annotation.getKey(),annotation.getValue());
+			}
+		}
+	}
+	/**
+	 * the updateAnnotationsDelayed calls the @see updateAnnotations method after a short delay when no change was made in the document in
+	 * that period. The delay adapts to the time the last updates took and to the typing rate, so the annotations of small documents are
+	 * updated almost immediately, while expensive updates wait for a pause in typing. While the document is changed continuously, the
+	 * pending update is no longer postponed after {@link #REFRESH_INTERVAL}
 	 * @param document
 	 */
 	public void updateAnnotationsDelayed(IDocument document) {
@@ -106,31 +474,148 @@ public class WordfileAnnotationDocumentListener implements IDocumentListener {
 			annotationJob = new AnnotationJob(document);
 			annotationJobs.put(document,annotationJob);
 		}
+		if(annotationJob.changed())
+			return; //the pending update was postponed long enough
 		annotationJob.cancel();
-		annotationJob.schedule(750);
+		annotationJob.schedule(annotationJob.getDelay());
 	}
 	
 	public void updateDocument(IDocument document) { updateAnnotationsDelayed(document); }
-	@Override public void documentAboutToBeChanged(DocumentEvent event) {}
-	@Override public void documentChanged(DocumentEvent event) { this.updateDocument(event.getDocument()); }
+	/**
+	 * marks all lines of a document as changed, so they are visited again with the next update (e.g. if a provider dropped the
+	 * state it kept for the lines). Must be called on the UI thread
+	 * @param document the document
+	 */
+	public void invalidateLines(IDocument document) { dirtyLines.remove(document); }
+	/**
+	 * removes this listener from a document, which is no longer edited, and cancels its annotation job
+	 * @param document the document
+	 */
+	public void removeDocument(IDocument document) {
+		document.removeDocumentListener(this);
+		document.removeDocumentPartitioningListener(this);
+		for(WordfileAnnotationProvider provider:providers)
+			provider.dispose();
+		AnnotationJob annotationJob = annotationJobs.remove(document);
+		if(annotationJob!=null)
+			annotationJob.cancel();
+		dirtyLines.remove(document);
+		partitionings.remove(document);
+		dirtyRegions.remove(document);
+	}
+	@Override public void documentAboutToBeChanged(DocumentEvent event) {
+		changing = true;
+		try {
+			IDocument document = event.getDocument();
+			firstLine = document.getLineOfOffset(event.getOffset());
+			lastLine = document.getLineOfOffset(event.getOffset()+event.getLength());
+			oldLineCount = document.getNumberOfLines();
+		} catch(BadLocationException e) { e.printStackTrace(); }
+		for(WordfileAnnotationProvider provider:providers)
+			provider.documentAboutToBeChanged(event);
+	}
+	@Override public void documentChanged(DocumentEvent event) {
+		changing = false;
+		//extend the changed lines by the lines of the change (derived from the number of lines, as a change may join or split a \r\n delimiter)
+		int[] dirty = dirtyLines.get(event.getDocument());
+		if(dirty!=null) {
+			int delta = event.getDocument().getNumberOfLines()-oldLineCount, last = Math.max(lastLine+delta,firstLine);
+			if(dirty[0]==-1) {
+				dirty[0] = firstLine;
+				dirty[1] = last;
+			} else {
+				dirty[0] = Math.min(dirty[0],firstLine);
+				if(dirty[1]<=lastLine)
+					 dirty[1] = last;
+				else if(dirty[1]!=Integer.MAX_VALUE)
+					dirty[1] += delta;
+			}
+		}
+		int[] region = dirtyRegions.get(event.getDocument());
+		if(region!=null) {
+			int offset = event.getOffset(), end = offset+event.getLength(), inserted = offset+(event.getText()!=null?event.getText().length():0);
+			if(region[0]==-1) {
+				region[0] = offset;
+				region[1] = inserted;
+			} else {
+				region[0] = Math.min(region[0],offset);
+				region[1] = Math.max(region[1]>=end?region[1]+inserted-end:Math.min(region[1],offset),inserted);
+			}
+			region[2] += inserted-end;
+		}
+		if(partitioningChange!=null)
+			addDirtyLines(event.getDocument(),partitioningChange);
+		partitioningChange = null;
+		int changed = lastLine-firstLine+1+event.getDocument().getNumberOfLines()-oldLineCount;
+		for(WordfileAnnotationProvider provider:providers) {
+			provider.linesChanged(event,firstLine,lastLine,changed);
+			provider.documentChanged(event);
+		}
+		this.updateDocument(event.getDocument());
+	}
+	@Override public void documentPartitioningChanged(IDocument document) { documentPartitioningChanged(document,new Region(0,document.getLength())); }
+	@Override public void documentPartitioningChanged(IDocument document,IRegion region) {
+		for(WordfileAnnotationProvider provider:providers)
+			provider.documentPartitioningChanged(region);
+		if(changing)
+			partitioningChange = region; //the lines are marked and the annotations are updated after the document change
+		else {
+			addDirtyLines(document,region);
+			this.updateDocument(document);
+		}
+	}
+	/**
+	 * marks the lines and the characters of a region as changed, e.g. because their partitioning changed
+	 * @param document the document
+	 * @param region the region
+	 */
+	private void addDirtyLines(IDocument document,IRegion region) {
+		int[] characters = dirtyRegions.get(document);
+		if(characters!=null) {
+			characters[0] = characters[0]!=-1?Math.min(characters[0],region.getOffset()):region.getOffset();
+			characters[1] = Math.max(characters[1],region.getOffset()+region.getLength());
+		}
+		int[] dirty = dirtyLines.get(document);
+		if(dirty!=null) try {
+			int first = document.getLineOfOffset(Math.min(region.getOffset(),document.getLength())),
+				last = document.getLineOfOffset(Math.min(region.getOffset()+region.getLength(),document.getLength()));
+			if(dirty[0]==-1) {
+				dirty[0] = first;
+				dirty[1] = last;
+			} else {
+				dirty[0] = Math.min(dirty[0],first);
+				dirty[1] = Math.max(dirty[1],last);
+			}
+		} catch(BadLocationException e) { e.printStackTrace(); }
+	}
 	
 	public void addAnnotationProvider(WordfileAnnotationProvider provider) {
-		annotations.put(provider,new HashSet<Annotation>());
+		annotations.put(provider,new HashMap<Annotation,Object>());
 		providers.add(provider);
 	}
 	public void removeAnnotationProvider(WordfileAnnotationProvider provider) {
 		providers.remove(provider);
 		annotations.remove(provider);
+		for(AnnotationJob annotationJob:annotationJobs.values())
+			annotationJob.forget(provider);
 	}
 	public List<WordfileAnnotationProvider> getAnnotationProviders() { return providers; }
 	
 	/**
-	 * The annotation job is called to update the annotations in one file (document)
+	 * The annotation job is called to update the annotations in one file (document). It is a plain job, as scanning a document
+	 * does not touch any resources, jobs for the same document never run concurrently (see {@link DocumentRule})
 	 * @author D043616
 	 */
-	private class AnnotationJob extends WorkspaceJob {
+	private class AnnotationJob extends Job {
 		/** the document this annotation job is running for */
 		private IDocument document;
+		/** the moving average of the time in ms each provider takes to scan the document */
+		private Map<WordfileAnnotationProvider,Double> costs = new HashMap<WordfileAnnotationProvider,Double>();
+		/** the moving average of the interval in ms between two changes of the document, while typing */
+		private double interval = MAXIMUM_DELAY;
+		/** the time of the last change and of the first change not covered by an update yet (or 0 if the update is running) */
+		private long lastChange;
+		private volatile long firstChange;
 		
 		/**
 		 * cereates a new AnnotationJob for a specific document
@@ -139,13 +624,51 @@ public class WordfileAnnotationDocumentListener implements IDocumentListener {
 		public AnnotationJob(IDocument document) {
 			super("WordfileEditor Annotation Scanner");
 			this.document = document;
+			setRule(new DocumentRule(document));
 		}
 		/**
 		 * when it runs it updates the annotations
 		 */
-		@Override public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
-			updateAnnotations(document);
-			return Status.OK_STATUS;
+		@Override public IStatus run(IProgressMonitor monitor) {
+			firstChange = 0;
+			return updateAnnotations(document,monitor,this)?Status.OK_STATUS:Status.CANCEL_STATUS;
+		}
+		/**
+		 * records a change of the document for the typing rate. Must be called on the UI thread
+		 * @return true if the pending update should not be postponed any longer
+		 */
+		public boolean changed() {
+			long now = System.currentTimeMillis();
+			if(now-lastChange<MAXIMUM_DELAY) //otherwise the user paused typing
+				interval += SMOOTHING*(now-lastChange-interval);
+			lastChange = now;
+			if(firstChange==0)
+				firstChange = now;
+			return getState()==SLEEPING&&now-firstChange>=REFRESH_INTERVAL;
+		}
+		/**
+		 * records the time a provider took to scan the document
+		 * @param provider the provider
+		 * @param cost the time in ms
+		 */
+		public synchronized void measure(WordfileAnnotationProvider provider,double cost) {
+			Double average = costs.get(provider);
+			costs.put(provider,average!=null?average+SMOOTHING*(cost-average):cost);
+		}
+		public synchronized void forget(WordfileAnnotationProvider provider) { costs.remove(provider); }
+		/**
+		 * returns the delay of the next update: the time the last updates took, multiplied by {@link #COST_FACTOR}, extended to
+		 * wait for a pause in typing if the update would not finish before the next change
+		 * @return the delay in ms
+		 */
+		public synchronized long getDelay() {
+			double cost = 0;
+			for(double average:costs.values())
+				cost += average;
+			double delay = MINIMUM_DELAY+cost*COST_FACTOR;
+			if(delay+cost>interval)
+				delay = Math.max(delay,interval*2);
+			return Math.max(MINIMUM_DELAY,Math.min(MAXIMUM_DELAY,(long)delay));
 		}
 		/**
 		 * getAdapter is enhanced. It will return IDocument if IDocument.class is the adapter.
@@ -156,4 +679,99 @@ public class WordfileAnnotationDocumentListener implements IDocumentListener {
 	        else return super.getAdapter(adapter);
 		}
 	}
+	
+	/**
+	 * asks a provider for its annotations, measuring the time the provider takes to scan the document
+	 * @author Kristian Kraljic
+	 */
+	private static class ProviderTask implements Callable<Map<Object,List<Position>>> {
+		private WordfileAnnotationProvider provider;
+		private IDocument document;
+		private IProgressMonitor monitor;
+		private AnnotationJob job;
+		public ProviderTask(WordfileAnnotationProvider provider,IDocument document,IProgressMonitor monitor,AnnotationJob job) {
+			this.provider = provider;
+			this.document = document;
+			this.monitor = monitor;
+			this.job = job;
+		}
+		@Override public Map<Object,List<Position>> call() {
+			if(monitor.isCanceled())
+				return null;
+			long start = System.nanoTime();
+			Map<Object,List<Position>> annotations = provider.getAnnotationGroups(document,monitor);
+			if(annotations!=null&&job!=null)
+				job.measure(provider,(System.nanoTime()-start)/1000000d);
+			return annotations;
+		}
+	}
+	
+	/**
+	 * the scheduling rule of the annotation jobs of one document
+	 * @author Kristian Kraljic
+	 */
+	private static class DocumentRule implements ISchedulingRule {
+		/** the document of the rule */
+		private IDocument document;
+		public DocumentRule(IDocument document) { this.document = document; }
+		@Override public boolean contains(ISchedulingRule rule) { return isConflicting(rule); }
+		@Override public boolean isConflicting(ISchedulingRule rule) { return rule instanceof DocumentRule&&((DocumentRule)rule).document==document; }
+	}
+	
+	/**
+	 * the partitioner of a snapshot, returning the partitions computed by the partitioner of the document at the time the snapshot
+	 * was taken. As a snapshot is never changed, the partitions are never updated
+	 * @author Kristian Kraljic
+	 */
+	private static class SnapshotPartitioner implements IDocumentPartitioner {
+		/** the legal content types of the partitioner of the document */
+		private String[] contentTypes;
+		/** the partitions of the whole document, ordered by offset */
+		private ITypedRegion[] partitions;
+		public SnapshotPartitioner(String[] contentTypes,ITypedRegion[] partitions) {
+			this.contentTypes = contentTypes;
+			this.partitions = partitions;
+		}
+		@Override public void connect(IDocument document) {}
+		@Override public void disconnect() {}
+		@Override public void documentAboutToBeChanged(DocumentEvent event) {}
+		@Override public boolean documentChanged(DocumentEvent event) { return false; }
+		@Override public String[] getLegalContentTypes() { return contentTypes; }
+		@Override public String getContentType(int offset) { return getPartition(offset).getType(); }
+		@Override public ITypedRegion[] computePartitioning(int offset,int length) {
+			if(length==0)
+				return new ITypedRegion[] { new TypedRegion(offset,0,getContentType(offset)) };
+			List<ITypedRegion> regions = new ArrayList<ITypedRegion>();
+			for(int index=indexOf(offset);index<partitions.length;index++) {
+				ITypedRegion partition = partitions[index];
+				if(partition.getOffset()>=offset+length)
+					break;
+				int start = Math.max(partition.getOffset(),offset), end = Math.min(partition.getOffset()+partition.getLength(),offset+length);
+				regions.add(new TypedRegion(start,end-start,partition.getType()));
+			}
+			return regions.toArray(new ITypedRegion[regions.size()]);
+		}
+		@Override public ITypedRegion getPartition(int offset) {
+			int index = indexOf(offset);
+			if(index<partitions.length&&(offset<partitions[index].getOffset()+partitions[index].getLength()||IDocument.DEFAULT_CONTENT_TYPE.equals(partitions[index].getType())))
+				 return partitions[index];
+			else return new TypedRegion(offset,0,IDocument.DEFAULT_CONTENT_TYPE); //the end of the document behind a partition
+		}
+		/**
+		 * binary searches the partition containing an offset (the last partition contains the end of the document)
+		 * @param offset the offset
+		 * @return the index of the partition
+		 */
+		private int indexOf(int offset) { return indexOf(partitions,offset); }
+		static int indexOf(ITypedRegion[] partitions,int offset) {
+			int low = 0, high = partitions.length-1;
+			while(low<high) {
+				int middle = (low+high+1)>>>1;
+				if(partitions[middle].getOffset()<=offset)
+					 low = middle;
+				else high = middle-1;
+			}
+			return low;
+		}
+	}
 }
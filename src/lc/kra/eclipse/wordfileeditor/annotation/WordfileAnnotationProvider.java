@@ -21,16 +21,23 @@
  */
 package lc.kra.eclipse.wordfileeditor.annotation;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.IAnnotationModel;
 
 /**
- * this is the base class for all annotation providers used by the @see WordfileAnnotationDocumentListener
+ * this is the base class for all annotation providers used by the @see WordfileAnnotationDocumentListener. Providers are contributed
+ * using the annotationProviders extension point (see {@link WordfileAnnotationProviderRegistry}), providers not depending on each
+ * other may be asked for their annotations concurrently. Providers implementing {@link WordfileAnnotationVisitor} are fed the changed
+ * lines of the document in a single pass shared by all providers
  * @author Kristian Kraljic
  */
 public abstract class WordfileAnnotationProvider {
@@ -38,6 +45,10 @@ public abstract class WordfileAnnotationProvider {
 	 * holds the annotation model of this annotation provider
 	 */
 	private IAnnotationModel model;
+	/**
+	 * the providers which have to be asked for their annotations before this provider
+	 */
+	private List<WordfileAnnotationProvider> dependencies = new ArrayList<WordfileAnnotationProvider>();
 	/**
 	 * creates a new annotation provider for an annotation model
 	 * @param model the model for this annotation provider
@@ -53,13 +64,57 @@ public abstract class WordfileAnnotationProvider {
 	/**
 	 * this method should return a map of grouped position lists for annotations, therefore the document should be checked and all annotations contained in this document should be returned 
 	 * @param document the document which is checked
-	 * @return a map of grouped position lists for all annotations
+	 * @param monitor the progress monitor, long checks should return null as soon as it is canceled (if the document was changed again)
+	 * @return a map of grouped position lists for all annotations or null if the annotations should not be updated
+	 */
+	public abstract Map<Object,List<Position>> getAnnotationGroups(IDocument document,IProgressMonitor monitor);
+	
+	/**
+	 * called before the document is changed, before any annotations are updated. Providers keeping state across document
+	 * changes can invalidate it here (called on the thread changing the document)
+	 * @param event the document event
+	 */
+	public void documentAboutToBeChanged(DocumentEvent event) {}
+	/**
+	 * called after the document was changed, before {@link #documentChanged(DocumentEvent)}, with the lines replaced by the change
+	 * (computed once for all providers). Providers keeping state per line remove the state of the replaced lines here and shift
+	 * the state of the lines behind them (called on the thread changing the document)
+	 * @param event the document event
+	 * @param firstLine the first line replaced by the change
+	 * @param lastLine the last line replaced by the change, a line of the document before the change
+	 * @param changed the number of lines replacing the lines from the first to the last line, at least one (derived from the
+	 *  number of lines of the document, as a change may join or split a \r\n delimiter)
+	 */
+	public void linesChanged(DocumentEvent event,int firstLine,int lastLine,int changed) {}
+	/**
+	 * called after the document was changed, before the annotations are updated (called on the thread changing the document)
+	 * @param event the document event
 	 */
-	public abstract Map<Object,List<Position>> getAnnotationGroups(IDocument document);
+	public void documentChanged(DocumentEvent event) {}
+	/**
+	 * called if the partitioning of the document changed. If the partitioning changed because of a document change, it is called
+	 * before {@link #documentChanged(DocumentEvent)} and the region refers to the changed document
+	 * @param region the region whose partitioning changed
+	 */
+	public void documentPartitioningChanged(IRegion region) {}
+	/**
+	 * called if the annotations of the document are no longer updated, e.g. because the editor was closed
+	 */
+	public void dispose() {}
 	
 	/**
 	 * returns the annotation model
 	 * @return the model
 	 */
 	public IAnnotationModel getAnnotationModel() { return model; }
+	
+	/**
+	 * adds a provider which has to be asked for its annotations before this provider
+	 * @param provider the provider this provider depends on
+	 */
+	public void addDependency(WordfileAnnotationProvider provider) { dependencies.add(provider); }
+	/**
+	 * @return the providers which have to be asked for their annotations before this provider
+	 */
+	public List<WordfileAnnotationProvider> getDependencies() { return dependencies; }
 }
@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import lc.kra.eclipse.wordfileeditor.editor.WordfileEditor;
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * the class of an annotation provider contributed to the annotationProviders extension point has to implement this interface. A
+ * factory is created once and asked for a new provider for each editor
+ * @author Kristian Kraljic
+ */
+public interface WordfileAnnotationProviderFactory {
+	/**
+	 * creates a new annotation provider for an editor
+	 * @param editor the editor the annotations are shown in
+	 * @param wordfile the wordfile of the editor
+	 * @return the annotation provider or null if the provider is not applicable to the editor
+	 */
+	public WordfileAnnotationProvider createProvider(WordfileEditor editor,Wordfile wordfile);
+}
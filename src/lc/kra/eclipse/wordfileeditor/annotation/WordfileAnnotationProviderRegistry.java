@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.Platform;
+
+import lc.kra.eclipse.wordfileeditor.editor.WordfileEditor;
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * the registry of the annotation providers contributed to the annotationProviders extension point. Each contribution names a
+ * {@link WordfileAnnotationProviderFactory} and optionally the ids of the contributions it depends on
+ * @author Kristian Kraljic
+ */
+public class WordfileAnnotationProviderRegistry {
+	/**
+	 * the id of the extension point
+	 */
+	public static final String EXTENSION_POINT_ID = "lc.kra.eclipse.wordfileeditor.annotationProviders";
+	
+	/**
+	 * the contributions to the extension point, read on first use
+	 */
+	private static List<Contribution> contributions;
+	
+	private WordfileAnnotationProviderRegistry() {}
+	
+	/**
+	 * creates the annotation providers of all contributions applicable to an editor, the dependencies between the providers
+	 * are set according to the contributions
+	 * @param editor the editor
+	 * @param wordfile the wordfile of the editor
+	 * @return the providers in the order of their contributions
+	 */
+	public static List<WordfileAnnotationProvider> createProviders(WordfileEditor editor,Wordfile wordfile) {
+		Map<Contribution,WordfileAnnotationProvider> providers = new LinkedHashMap<Contribution,WordfileAnnotationProvider>();
+		for(Contribution contribution:getContributions())
+			try {
+				WordfileAnnotationProvider provider = contribution.factory.createProvider(editor,wordfile);
+				if(provider!=null)
+					providers.put(contribution,provider);
+			} catch(RuntimeException e) { e.printStackTrace(); } //a faulty contribution must not break the editor
+		for(Map.Entry<Contribution,WordfileAnnotationProvider> provider:providers.entrySet())
+			for(String dependency:provider.getKey().dependencies)
+				for(Map.Entry<Contribution,WordfileAnnotationProvider> other:providers.entrySet())
+					if(other.getKey().id.equals(dependency))
+						provider.getValue().addDependency(other.getValue());
+		return new ArrayList<WordfileAnnotationProvider>(providers.values());
+	}
+	
+	/**
+	 * @return the contributions to the extension point
+	 */
+	private static synchronized List<Contribution> getContributions() {
+		if(contributions==null) {
+			contributions = new ArrayList<Contribution>();
+			for(IConfigurationElement element:Platform.getExtensionRegistry().getConfigurationElementsFor(EXTENSION_POINT_ID))
+				try {
+					String dependencies = element.getAttribute("depends");
+					contributions.add(new Contribution(element.getAttribute("id"),(WordfileAnnotationProviderFactory)element.createExecutableExtension("class"),
+						dependencies!=null?dependencies.trim().split("\\s*,\\s*"):new String[0]));
+				} catch(CoreException e) { e.printStackTrace(); }
+				catch(ClassCastException e) { e.printStackTrace(); }
+		}
+		return contributions;
+	}
+	
+	/**
+	 * a contribution to the extension point
+	 * @author Kristian Kraljic
+	 */
+	private static class Contribution {
+		/** the id of the contribution */
+		private String id;
+		/** the factory of the providers */
+		private WordfileAnnotationProviderFactory factory;
+		/** the ids of the contributions the providers depend on */
+		private String[] dependencies;
+		public Contribution(String id,WordfileAnnotationProviderFactory factory,String[] dependencies) {
+			this.id = id;
+			this.factory = factory;
+			this.dependencies = dependencies;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITypedRegion;
+
+/**
+ * an annotation provider implementing this interface is fed the lines of the document changed since the last update of the annotations.
+ * The lines are read once from a snapshot of the document and passed to all visiting providers in a single pass, before the providers
+ * are asked for their annotations. Lines are visited on the thread updating the annotations, while the document may be changed by
+ * another thread: the provider has to discard the results of the visit if it was notified of a document change in the meantime. If the
+ * annotations are not updated, the lines are visited again with the next update
+ * @author Kristian Kraljic
+ */
+public interface WordfileAnnotationVisitor {
+	/**
+	 * called before the changed lines are visited
+	 * @param document the snapshot of the document the lines are read from
+	 * @param firstLine the first line visited
+	 * @param lastLine the last line visited
+	 */
+	public void beginVisit(IDocument document,int firstLine,int lastLine);
+	/**
+	 * visits a line of the document
+	 * @param line the number of the line
+	 * @param offset the offset of the line
+	 * @param text the text of the line without the line delimiter
+	 * @param partitions the partitions overlapping the line (or an empty array if the document is not partitioned)
+	 */
+	public void visitLine(int line,int offset,String text,ITypedRegion[] partitions);
+	/**
+	 * called after all changed lines were visited
+	 */
+	public void endVisit();
+}
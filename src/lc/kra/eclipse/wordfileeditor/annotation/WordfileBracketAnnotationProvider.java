@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * this annotation provider keeps the brace strings of the document for the {@link WordfileBracketMatcher}. It provides no
+ * annotations, but scans the changed region of the document with each annotation update, so the brace strings are found in
+ * the background and the matcher only has to look them up
+ * @author Kristian Kraljic
+ */
+public class WordfileBracketAnnotationProvider extends WordfileFoldTreeAnnotationProvider {
+	/**
+	 * creates a new WordfileBracketAnnotationProvider for the brace strings of a wordfile
+	 * @param model the annotation model (no annotations are added)
+	 * @param wordfile the wordfile
+	 */
+	public WordfileBracketAnnotationProvider(IAnnotationModel model,Wordfile wordfile) {
+		this(model,wordfile,toArray(wordfile.getOpenBraceStrings()),toArray(wordfile.getCloseBraceStrings()));
+	}
+	/**
+	 * creates a new WordfileBracketAnnotationProvider for brace strings, skipping the strings of a wordfile
+	 * @param model the annotation model (no annotations are added)
+	 * @param wordfile the wordfile or null
+	 * @param openBraceStrings the strings opening a brace
+	 * @param closeBraceStrings the strings closing a brace (one for each open brace string)
+	 */
+	WordfileBracketAnnotationProvider(IAnnotationModel model,Wordfile wordfile,String[] openBraceStrings,String[] closeBraceStrings) {
+		super(model,wordfile);
+		tree = new FoldTree(openBraceStrings,closeBraceStrings);
+	}
+	
+	/**
+	 * no annotations are provided
+	 */
+	@Override public Annotation createAnnotation(Object object) { return null; }
+	/**
+	 * scans the region changed since the last call for brace strings
+	 * @return an empty map or null if the document was changed in the meantime
+	 */
+	@Override public Map<Object,List<Position>> getAnnotationGroups(IDocument document,IProgressMonitor monitor) {
+		if(!scan(document,monitor))
+			return null; //the document was changed in the meantime, the brace strings will be scanned again
+		return Collections.emptyMap();
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.source.ICharacterPairMatcher;
+
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * the WordfileBracketMatcher finds the brace string matching the brace string at the caret. The brace strings are kept in the
+ * {@link FoldTree} of a {@link WordfileBracketAnnotationProvider}, which is updated incrementally in the background with each
+ * annotation update, so finding the matching brace string only costs a lookup. While the tree is outdated no match is found
+ * @author Kristian Kraljic
+ */
+public class WordfileBracketMatcher implements ICharacterPairMatcher {
+	/**
+	 * the provider keeping the brace strings of the document or null
+	 */
+	private volatile WordfileBracketAnnotationProvider provider;
+	/**
+	 * the anchor of the last match
+	 */
+	private int anchor = LEFT;
+	
+	/**
+	 * @return true if a wordfile defines brace strings
+	 */
+	public static boolean hasBraceStrings(Wordfile wordfile) {
+		return wordfile!=null&&wordfile.getOpenBraceStrings()!=null&&wordfile.getCloseBraceStrings()!=null&&
+			wordfile.getOpenBraceStrings().size()==wordfile.getCloseBraceStrings().size();
+	}
+	
+	/**
+	 * sets the provider keeping the brace strings of the document matched
+	 * @param provider the provider or null
+	 */
+	public void setProvider(WordfileBracketAnnotationProvider provider) { this.provider = provider; }
+	
+	/**
+	 * returns the region from the brace string at the caret (in front of the caret or behind it) to the matching brace string
+	 * @return the region or null if no brace string is at the caret or the brace strings were not scanned since the last change
+	 */
+	@Override public IRegion match(IDocument document,int offset) {
+		WordfileBracketAnnotationProvider provider = this.provider;
+		if(document==null||offset<0||offset>document.getLength()||provider==null)
+			return null;
+		FoldTree tree = provider.getTree();
+		if(!tree.isCurrent(WordfileAnnotationDocumentListener.getModificationStamp(document)))
+			return null; //the brace strings are scanned again with the next annotation update
+		
+		int brace = offset-1;
+		Position partner = brace>=0?tree.getPartner(brace):null;
+		if(partner==null)
+			partner = tree.getPartner(brace=offset);
+		Position string = partner!=null?tree.getPartner(partner.getOffset()):null; //the whole brace string at the caret
+		if(string==null)
+			return null;
+		if(partner.getOffset()>brace) {
+			anchor = LEFT;
+			return new Region(string.getOffset(),partner.getOffset()+partner.getLength()-string.getOffset());
+		} else {
+			anchor = RIGHT;
+			return new Region(partner.getOffset(),string.getOffset()+string.getLength()-partner.getOffset());
+		}
+	}
+	@Override public int getAnchor() { return anchor; }
+	@Override public void clear() { anchor = LEFT; }
+	@Override public void dispose() { provider = null; }
+}
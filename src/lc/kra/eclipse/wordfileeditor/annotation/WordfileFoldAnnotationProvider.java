@@ -24,21 +24,25 @@ package lc.kra.eclipse.wordfileeditor.annotation;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.projection.ProjectionAnnotation;
 import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
 
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
 /**
  * this annotation provider provides annotations for code folding for a variaty of code styles
  * @author Kristian Kraljic
  */
-public class WordfileFoldAnnotationProvider extends WordfileAnnotationProvider {
+public class WordfileFoldAnnotationProvider extends WordfileFoldTreeAnnotationProvider {
 	/**
 	 * the strings which introduce a foldable area
 	 */
@@ -46,7 +50,15 @@ public class WordfileFoldAnnotationProvider extends WordfileAnnotationProvider {
 	/**
 	 * the strings which end a foldable area
 	 */
-	                 unfoldStrings;
+	                 unfoldStrings,
+	/**
+	 * the strings which introduce / end a foldable area in comments
+	 */
+	                 commentFoldStrings,commentUnfoldStrings,
+	/**
+	 * the strings which never introduce or end a foldable area
+	 */
+	                 ignoreStrings;
 	
 	/**
 	 * creates a new WordfileFoldAnnotationProvider for a projection model, with certain fold and unfold strings
@@ -54,23 +66,52 @@ public class WordfileFoldAnnotationProvider extends WordfileAnnotationProvider {
 	 * @param foldStrings the strings a fold begins
 	 * @param unfoldStrings the strings a fold ends
 	 */
-	public WordfileFoldAnnotationProvider(ProjectionAnnotationModel model,String[] foldStrings,String[] unfoldStrings) {
-		super(model);
+	public WordfileFoldAnnotationProvider(ProjectionAnnotationModel model,String[] foldStrings,String[] unfoldStrings) { this(model,null,foldStrings,unfoldStrings,null,null,null); }
+	/**
+	 * creates a new WordfileFoldAnnotationProvider for a projection model, with the fold strings of a wordfile. The fold strings
+	 * are only searched in code, the comment fold strings in comments, strings and ignore fold strings are skipped
+	 * @param model the ProjectionAnnotationModel used
+	 * @param wordfile the wordfile
+	 */
+	public WordfileFoldAnnotationProvider(ProjectionAnnotationModel model,Wordfile wordfile) {
+		this(model,wordfile,toArray(wordfile.getOpenFoldStrings()),toArray(wordfile.getCloseFoldStrings()),toArray(wordfile.getOpenCommentFoldStrings()),
+			toArray(wordfile.getCloseCommentFoldStrings()),toArray(wordfile.getIgnoreFoldStrings()));
+	}
+	private WordfileFoldAnnotationProvider(ProjectionAnnotationModel model,Wordfile wordfile,String[] foldStrings,String[] unfoldStrings,String[] commentFoldStrings,String[] commentUnfoldStrings,String[] ignoreStrings) {
+		super(model,wordfile);
+		if(foldStrings==null||unfoldStrings==null||unfoldStrings.length!=foldStrings.length)
+			foldStrings = unfoldStrings = new String[0];
+		if(commentFoldStrings==null||commentUnfoldStrings==null||commentUnfoldStrings.length!=commentFoldStrings.length)
+			commentFoldStrings = commentUnfoldStrings = new String[0];
 		this.foldStrings = foldStrings;
 		this.unfoldStrings = unfoldStrings;
+		this.commentFoldStrings = commentFoldStrings;
+		this.commentUnfoldStrings = commentUnfoldStrings;
+		this.ignoreStrings = ignoreStrings!=null?ignoreStrings:new String[0];
+		if(foldStrings.length!=0||commentFoldStrings.length!=0)
+			tree = createTree();
 	}
 	
+	/**
+	 * @return true if a wordfile defines fold strings
+	 */
+	public static boolean hasFoldStrings(Wordfile wordfile) { return wordfile.getOpenFoldStrings()!=null&&wordfile.getCloseFoldStrings()!=null; }
+	
 	/**
 	 * create a new projection annotation for this model
 	 */
 	@Override public Annotation createAnnotation(Object object) { return new ProjectionAnnotation(); }
 	/**
-	 * checks for the position of fold/unfold strings and returns all areas between them recursivley
+	 * checks for the position of fold/unfold strings and returns all areas between them. Only the region changed since the last
+	 * call is scanned again
 	 */
-	@Override public Map<Object,List<Position>> getAnnotationGroups(IDocument document) {
-		if(foldStrings!=null&&foldStrings.length!=0&&unfoldStrings!=null&&unfoldStrings.length==foldStrings.length) {
+	@Override public Map<Object,List<Position>> getAnnotationGroups(IDocument document,IProgressMonitor monitor) {
+		if(tree!=null) {
+			if(!scan(document,monitor))
+				return null; //the document was changed in the meantime, the annotations will be updated again
 			Map<Object,List<Position>> annotations = new HashMap<Object,List<Position>>();
-			annotations.put(new Object(),getRiskyFolds(document.get()));
+			try { annotations.put(ProjectionAnnotation.TYPE,tree.getFolds(document)); } //a constant group, so unchanged folds are kept
+			catch(BadLocationException e) { return null; }
 			return annotations;
 		} else return null;
 	}
@@ -79,81 +120,32 @@ public class WordfileFoldAnnotationProvider extends WordfileAnnotationProvider {
 	 * returns a list of positions in which folding is possible
 	 * @param content the content to be searched for fold/unfold strings
 	 * @return a list of positions
-	 * @throws ParseException
+	 * @throws ParseException if a fold was not closed by an unfold string
 	 */
-	final protected List<Position> getFolds(String content) throws ParseException {
-		List<Position> folds = new ArrayList<Position>();
-		//check the content recursively
-		getRecursiveFolds(content,folds,0,-1,0);
-		//remove found areas which cover just one single line, because code folding makes no sense for this
-		removeSingleLines(content,folds);
-		return folds;
+	final protected List<Position> getFolds(CharSequence content) throws ParseException {
+		FoldTree tree = scan(content);
+		if(!tree.isClosed())
+			throw new ParseException("unfold string missing",-1);
+		return getFolds(tree,content);
 	}
 	/**
 	 * returns a list of positions in which folding is possible, ignoring that maybe a closing brace is missing (returns as many fold areas as possible) 
 	 * @param content the content to be searched for fold/unfold strings
 	 * @return a list of positions
 	 */
-	final protected List<Position> getRiskyFolds(String content) {
-		List<Position> folds = new ArrayList<Position>();
-		//check the content recursively, ignore the parse error
-		try { getRecursiveFolds(content,folds,0,-1,0); }
-		catch(ParseException e) { }
-		//remove found areas which cover just one single line, because code folding makes no sense for this
-		removeSingleLines(content,folds);
-		return folds;
-	}
-	/**
-	 * removes single lines from a position list. Therefore the substrings are checked for new line characters. If no \n or \r character was found, the entry is removed
-	 * @param content the content to be searched in
-	 * @param folds the position of folds which is modified if there were single liens fond
-	 */
-	private void removeSingleLines(String content,List<Position> folds) {
-		Iterator<Position> iterator = folds.iterator();
-		while(iterator.hasNext()) {
-			Position positon = iterator.next();
-			//get the offset string
-			String value = content.substring(positon.offset,positon.offset+positon.length);
-			//no new line? remove
-			if(value.indexOf('\n')==-1&&value.indexOf('\r')==-1)
-				iterator.remove();
-		}
-	}
+	final protected List<Position> getRiskyFolds(CharSequence content) { return getFolds(scan(content),content); }
 	
 	/**
-	 * the main method to search recursively for fold-areas
-	 * @param content the content which should be searched for fold areas
-	 * @param folds the folds which have been found already
-	 * @param depth the current depth of the recursion
-	 * @param foldIndex the index of the foldString[foldIndex] (a matching unfoldString[foldIndex] is searched then)
-	 * @param offset the current offset of the substring range
-	 * @return the position of the last unfold string
-	 * @throws ParseException
+	 * scans a content using a new fold tree
 	 */
-	private int getRecursiveFolds(String content,List<Position> folds,int depth,int foldIndex,int offset) throws ParseException {
-		int unfoldPosition = Integer.MAX_VALUE;
-		if(depth!=0) { //if we are not on the first level, search for the end fold string 
-			unfoldPosition = content.indexOf(unfoldStrings[foldIndex]);
-			if(unfoldPosition==-1) throw new ParseException("unfold string missing",-1);
-		}
-		
-		//search for an inner fold
-		int nextFoldIndex = -1,nextFoldPosition = Integer.MAX_VALUE;
-		for(int testFoldIndex=0;testFoldIndex<foldStrings.length;testFoldIndex++) {
-			int testFoldPosition = content.indexOf(foldStrings[testFoldIndex]);
-			if(testFoldPosition!=-1&&nextFoldPosition>testFoldPosition) {
-				nextFoldIndex = testFoldIndex;
-				nextFoldPosition = testFoldPosition;
-			}
-		}
-		
-		if(unfoldPosition>nextFoldPosition) { //fold in fold
-			int nextOffset = nextFoldPosition+foldStrings[nextFoldIndex].length(); 
-			int nextRelativeUnfoldPosition = getRecursiveFolds(content.substring(nextOffset),folds,depth+1,nextFoldIndex,offset+nextOffset);
-			folds.add(new Position(offset+nextFoldPosition,nextRelativeUnfoldPosition+foldStrings[nextFoldIndex].length()+unfoldStrings[nextFoldIndex].length()));
-			//next one on same level
-			int nextRelativeOffset = nextOffset+nextRelativeUnfoldPosition+unfoldStrings[nextFoldIndex].length();
-			return getRecursiveFolds(content.substring(nextRelativeOffset),folds,depth,foldIndex,offset+nextRelativeOffset)+nextRelativeOffset;
-		} else return unfoldPosition;
+	private FoldTree scan(CharSequence content) {
+		FoldTree tree = createTree();
+		tree.scan(content);
+		return tree;
+	}
+	private FoldTree createTree() { return new FoldTree(foldStrings,unfoldStrings,commentFoldStrings,commentUnfoldStrings,ignoreStrings); }
+	private static List<Position> getFolds(FoldTree tree,CharSequence content) {
+		try { return tree.getFolds(new Document(content.toString())); }
+		catch(BadLocationException e) { return new ArrayList<Position>(); }
 	}
 }
@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import lc.kra.eclipse.wordfileeditor.editor.WordfileEditor;
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * the factory of the folding providers: a {@link WordfileFoldAnnotationProvider} for wordfiles with fold strings, otherwise a
+ * {@link WordfileIndentFoldAnnotationProvider} for wordfiles with indent strings. No provider is created if projection is disabled
+ * @author Kristian Kraljic
+ */
+public class WordfileFoldAnnotationProviderFactory implements WordfileAnnotationProviderFactory {
+	@Override public WordfileAnnotationProvider createProvider(WordfileEditor editor,Wordfile wordfile) {
+		if(editor.getProjectionAnnotationModel()==null)
+			return null;
+		else if(WordfileFoldAnnotationProvider.hasFoldStrings(wordfile))
+			return new WordfileFoldAnnotationProvider(editor.getProjectionAnnotationModel(),wordfile);
+		else if(WordfileIndentFoldAnnotationProvider.hasIndentStrings(wordfile))
+			return new WordfileIndentFoldAnnotationProvider(editor.getProjectionAnnotationModel(),wordfile,editor.getTabWidth());
+		else return null;
+	}
+}
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.TypedRegion;
+import org.eclipse.jface.text.source.IAnnotationModel;
+
+import lc.kra.eclipse.wordfileeditor.editor.parse.WordfilePartitionScanner;
+import lc.kra.eclipse.wordfileeditor.utilities.DocumentCharSequence;
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * this is the base class for the annotation providers keeping strings of the document (like fold strings or brace strings) in a
+ * {@link FoldTree}. The tree is kept across document changes: the strings behind a change are shifted and the changed region is
+ * scanned again with the next annotation update, subclasses only create the tree and derive their annotations from it
+ * @author Kristian Kraljic
+ */
+public abstract class WordfileFoldTreeAnnotationProvider extends WordfileAnnotationProvider {
+	/**
+	 * the content types of comment partitions
+	 */
+	static final List<String> COMMENT_TYPES = Arrays.asList(WordfilePartitionScanner.CONTENT_TYPE_SINGLE_LINE_COMMENT,
+		WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_COMMENT,WordfilePartitionScanner.CONTENT_TYPE_ALTERNATE_BLOCK_COMMENT);
+	
+	/**
+	 * the characters single line strings (not partitioned) start and end with and the escape character (or -1)
+	 */
+	private String stringChars = new String();
+	private int escapeChar = -1;
+	/**
+	 * the strings of the document, kept across document changes (null if there are no strings to search for)
+	 */
+	protected FoldTree tree;
+	/**
+	 * true while the document is changed and the region whose partitioning changed with the document change
+	 */
+	private boolean changing;
+	private IRegion partitioningChange;
+	
+	/**
+	 * creates a new WordfileFoldTreeAnnotationProvider for an annotation model, skipping the strings of a wordfile
+	 * @param model the annotation model
+	 * @param wordfile the wordfile or null, if no single line strings should be skipped
+	 */
+	public WordfileFoldTreeAnnotationProvider(IAnnotationModel model,Wordfile wordfile) {
+		super(model);
+		//strings spanning lines are partitioned, strings ending in their line have to be skipped by the partitioning of the tree
+		if(wordfile!=null&&!wordfile.isNoquote()&&wordfile.getStringChars()!=null)
+			stringChars = wordfile.getStringChars();
+		if(wordfile!=null&&wordfile.getEscapeChar()!=null&&!wordfile.getEscapeChar().isEmpty())
+			escapeChar = wordfile.getEscapeChar().charAt(0);
+	}
+	
+	/**
+	 * scans the region of a document changed since the last scan of the tree
+	 * @param document the document
+	 * @param monitor the progress monitor
+	 * @return false if the document was changed in the meantime or the scan was canceled
+	 */
+	protected boolean scan(IDocument document,IProgressMonitor monitor) {
+		return tree.scan(new DocumentCharSequence(document),new DocumentPartitioning(document,stringChars,escapeChar),
+			monitor,WordfileAnnotationDocumentListener.getModificationStamp(document));
+	}
+	
+	/**
+	 * invalidates the running scans of the tree
+	 */
+	@Override public void documentAboutToBeChanged(DocumentEvent event) {
+		changing = true;
+		if(tree!=null)
+			tree.invalidate();
+	}
+	/**
+	 * shifts the strings behind the change and marks the changed region to be scanned again
+	 */
+	@Override public void documentChanged(DocumentEvent event) {
+		changing = false;
+		if(tree!=null) {
+			tree.update(event.getOffset(),event.getLength(),event.getText()!=null?event.getText().length():0,event.getModificationStamp());
+			if(partitioningChange!=null)
+				tree.rescan(partitioningChange.getOffset(),partitioningChange.getLength());
+			//a quote may end a string started in front of the change, so the line has to be scanned from its start
+			if(!stringChars.isEmpty()) try {
+				int offset = event.getDocument().getLineOffset(event.getDocument().getLineOfOffset(event.getOffset()));
+				tree.rescan(offset,event.getOffset()-offset);
+			} catch(BadLocationException e) { e.printStackTrace(); }
+		}
+		partitioningChange = null;
+	}
+	/**
+	 * marks the strings in the region to be scanned again
+	 */
+	@Override public void documentPartitioningChanged(IRegion region) {
+		if(changing)
+			partitioningChange = region; //the partitioning changes before the document change is reported
+		else if(tree!=null)
+			tree.rescan(region.getOffset(),region.getLength());
+	}
+	
+	/**
+	 * @return the strings of the document (updated with each annotation update) or null if there are no strings to search for
+	 */
+	public FoldTree getTree() { return tree; }
+	
+	protected static String[] toArray(Set<String> strings) { return strings!=null?strings.toArray(new String[0]):null; }
+	
+	/**
+	 * the partitioning of a document for the fold tree: comment partitions are comments, multi line string partitions and single
+	 * line strings (searched in the line of an offset) are ignored, all other partitions are code
+	 * @author Kristian Kraljic
+	 */
+	static class DocumentPartitioning implements FoldTree.Partitioning {
+		/**
+		 * the partitioned document
+		 */
+		private IDocument document;
+		/**
+		 * the characters single line strings start and end with (empty if strings are not highlighted) and the escape character (or -1)
+		 */
+		private String stringChars;
+		private int escapeChar;
+		/**
+		 * the part of a line and a partition searched for single line strings last: the offset the search continues at (all
+		 * strings in front of it were found) and the end of the part and of the strings in it (-1 if no part was searched yet)
+		 */
+		private int scanned = -1, partEnd, stringEnd;
+		/**
+		 * creates a new partitioning for a document, which must not be changed while the partitioning is used
+		 * @param document the document
+		 * @param stringChars the characters single line strings start and end with
+		 * @param escapeChar the escape character or -1
+		 */
+		public DocumentPartitioning(IDocument document,String stringChars,int escapeChar) {
+			this.document = document;
+			this.stringChars = stringChars;
+			this.escapeChar = escapeChar;
+		}
+		
+		/**
+		 * returns the region at an offset. The regions are usually requested in ascending order, so the search for single line
+		 * strings continues behind the region returned last, instead of searching the line from its start again
+		 */
+		@Override public ITypedRegion getRegion(int offset) {
+			try {
+				if(scanned==-1||offset<scanned||offset>=partEnd) {
+					ITypedRegion partition = document.getPartition(offset);
+					if(COMMENT_TYPES.contains(partition.getType()))
+						return new TypedRegion(partition.getOffset(),partition.getLength(),FoldTree.COMMENT);
+					else if(WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_STRING.equals(partition.getType()))
+						return new TypedRegion(partition.getOffset(),partition.getLength(),FoldTree.IGNORED);
+					else if(stringChars.isEmpty())
+						return new TypedRegion(partition.getOffset(),partition.getLength(),FoldTree.CODE);
+					
+					//single line strings end in the same line, like for the SingleLineRule an unterminated string is no string
+					int line = document.getLineOfOffset(offset);
+					IRegion information = document.getLineInformation(line);
+					scanned = Math.max(information.getOffset(),partition.getOffset());
+					partEnd = Math.min(information.getOffset()+document.getLineLength(line),partition.getOffset()+partition.getLength());
+					stringEnd = Math.min(information.getOffset()+information.getLength(),partEnd); //strings end before the line delimiter
+				}
+				
+				int start = scanned;
+				for(int index=start;index<stringEnd;index++) {
+					char chr = document.getChar(index);
+					if(stringChars.indexOf(chr)==-1)
+						continue;
+					int close = index+1;
+					while(close<stringEnd&&document.getChar(close)!=chr)
+						close += document.getChar(close)==escapeChar?2:1;
+					if(close>=stringEnd)
+						continue;
+					if(offset<index)
+						return new TypedRegion(start,index-start,FoldTree.CODE);
+					else if(offset<=close)
+						return new TypedRegion(index,close-index+1,FoldTree.IGNORED);
+					scanned = start = (index=close)+1;
+				}
+				return new TypedRegion(start,partEnd-start,FoldTree.CODE);
+			} catch(BadLocationException e) { throw new IndexOutOfBoundsException(e.getMessage()); }
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotation;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
+
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * this annotation provider provides annotations for code folding based on the indentation of lines, for wordfiles without
+ * fold strings (e.g. Python). A fold begins at a line containing an indent string (or starting with an indent string SOL)
+ * and covers all following lines indented deeper. The indent width of each line is kept in a table, which is updated for
+ * the lines touched by a document change only
+ * @author Kristian Kraljic
+ */
+public class WordfileIndentFoldAnnotationProvider extends WordfileAnnotationProvider {
+	/**
+	 * the table entry of a blank line, other entries are the indent width shifted left by one, or'ed with HEADER
+	 */
+	private static final int BLANK = -1, HEADER = 1;
+	
+	/**
+	 * the strings which cause the following lines to be indented, anywhere in a line / at the start of a line
+	 */
+	private String[] indentStrings,indentStringsSOL;
+	/**
+	 * true if the strings are matched ignoring the case
+	 */
+	private boolean nocase;
+	/**
+	 * the number of columns of a tab
+	 */
+	private int tabWidth;
+	
+	/**
+	 * the table of indents, one entry for each line of the document (null if the table was not filled yet)
+	 */
+	private int[] lines;
+	private int lineCount;
+	/**
+	 * the version of the table, increased with every document change
+	 */
+	private int version;
+	/**
+	 * the modification stamp of the document the table was last updated for or unknown
+	 */
+	private long stamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	
+	/**
+	 * creates a new WordfileIndentFoldAnnotationProvider for a projection model, with the indent strings of a wordfile
+	 * @param model the ProjectionAnnotationModel used
+	 * @param wordfile the wordfile
+	 * @param tabWidth the number of columns of a tab
+	 */
+	public WordfileIndentFoldAnnotationProvider(ProjectionAnnotationModel model,Wordfile wordfile,int tabWidth) {
+		this(model,wordfile.getIdentStrings(),wordfile.getIdentStringsSOL(),wordfile.isNocase(),tabWidth);
+	}
+	/**
+	 * creates a new WordfileIndentFoldAnnotationProvider for a projection model, with indent strings
+	 * @param model the ProjectionAnnotationModel used
+	 * @param indentStrings the strings anywhere in a line which cause the following lines to be indented or null
+	 * @param indentStringsSOL the strings at the start of a line which cause the following lines to be indented or null
+	 * @param nocase true if the strings are matched ignoring the case
+	 * @param tabWidth the number of columns of a tab
+	 */
+	WordfileIndentFoldAnnotationProvider(ProjectionAnnotationModel model,Set<String> indentStrings,Set<String> indentStringsSOL,boolean nocase,int tabWidth) {
+		super(model);
+		this.nocase = nocase;
+		this.indentStrings = toArray(indentStrings);
+		this.indentStringsSOL = toArray(indentStringsSOL);
+		this.tabWidth = Math.max(1,tabWidth);
+	}
+	
+	/**
+	 * @return true if a wordfile defines indent strings
+	 */
+	public static boolean hasIndentStrings(Wordfile wordfile) {
+		return (wordfile.getIdentStrings()!=null&&!wordfile.getIdentStrings().isEmpty())||(wordfile.getIdentStringsSOL()!=null&&!wordfile.getIdentStringsSOL().isEmpty());
+	}
+	
+	/**
+	 * create a new projection annotation for this model
+	 */
+	@Override public Annotation createAnnotation(Object object) { return new ProjectionAnnotation(); }
+	/**
+	 * returns all areas of lines indented deeper than a header line in front of them, using the table of indents (filled on the
+	 * first call). The document must have the same modification stamp as the table
+	 */
+	@Override public Map<Object,List<Position>> getAnnotationGroups(IDocument document,IProgressMonitor monitor) {
+		int[] lines; int lineCount, version;
+		long stamp = document instanceof IDocumentExtension4?((IDocumentExtension4)document).getModificationStamp():IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+		synchronized(this) {
+			if(stamp!=IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP&&this.stamp!=IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP&&stamp!=this.stamp)
+				return null; //the table was updated for another version of the document
+			lines = this.lines!=null?Arrays.copyOf(this.lines,this.lineCount):null;
+			lineCount = this.lineCount;
+			version = this.version;
+		}
+		
+		List<Position> folds = new ArrayList<Position>();
+		try {
+			if(lines==null) {
+				lines = new int[lineCount=document.getNumberOfLines()];
+				for(int line=0;line<lineCount;line++) {
+					if((line&0xFFF)==0&&monitor.isCanceled())
+						return null;
+					lines[line] = getIndent(document,line);
+				}
+			}
+			
+			//the header lines of the open folds, a fold ends in front of the next line not indented deeper than its header
+			int[] stack = new int[16]; int depth = 0, last = -1;
+			for(int line=0;line<=lineCount;line++) {
+				if(line<lineCount&&lines[line]==BLANK)
+					continue;
+				while(depth!=0&&(line==lineCount||lines[stack[depth-1]]>>1>=lines[line]>>1)) {
+					int header = stack[--depth];
+					if(last>header) {
+						int offset = document.getLineOffset(header);
+						folds.add(new Position(offset,document.getLineOffset(last)+document.getLineLength(last)-offset));
+					}
+				}
+				if(line<lineCount&&(lines[line]&HEADER)!=0) {
+					if(depth==stack.length)
+						stack = Arrays.copyOf(stack,depth*2);
+					stack[depth++] = line;
+				}
+				last = line;
+			}
+		} catch(BadLocationException e) { return null; } //the document was changed in the meantime
+		catch(IndexOutOfBoundsException e) { return null; }
+		
+		synchronized(this) {
+			if(this.version!=version)
+				return null; //the document was changed in the meantime, the annotations will be updated again
+			if(this.lines==null) {
+				this.lines = lines;
+				this.lineCount = lineCount;
+				this.stamp = stamp;
+			}
+		}
+		Map<Object,List<Position>> annotations = new HashMap<Object,List<Position>>();
+		annotations.put(ProjectionAnnotation.TYPE,folds); //a constant group, so unchanged folds are kept
+		return annotations;
+	}
+	
+	/**
+	 * invalidates the running updates, before the document is changed
+	 */
+	@Override public synchronized void documentAboutToBeChanged(DocumentEvent event) { version++; }
+	/**
+	 * replaces the entries of the lines replaced by the entries of the changed lines. If the table does not match the document,
+	 * it is dropped and filled again on the next update
+	 */
+	@Override public void linesChanged(DocumentEvent event,int firstLine,int lastLine,int changed) {
+		IDocument document = event.getDocument();
+		synchronized(this) {
+			version++;
+			stamp = event.getModificationStamp();
+			if(lines==null)
+				return; //the table is filled on the next update
+			try {
+				int removed = lastLine-firstLine+1, count = lineCount-removed+changed;
+				if(lastLine>=lineCount||count<firstLine+changed||count!=document.getNumberOfLines()) {
+					lines = null; //the table does not match the document, it is filled again on the next update
+					return;
+				}
+				if(count>lines.length)
+					lines = Arrays.copyOf(lines,Math.max(count,lines.length*3/2));
+				System.arraycopy(lines,lastLine+1,lines,firstLine+changed,lineCount-lastLine-1);
+				lineCount = count;
+				for(int line=firstLine;line<firstLine+changed;line++)
+					lines[line] = getIndent(document,line);
+			} catch(BadLocationException e) {
+				e.printStackTrace();
+				lines = null;
+			}
+		}
+	}
+	
+	/**
+	 * returns the table entry of a line
+	 * @param document the document
+	 * @param line the line
+	 * @return BLANK for a blank line, otherwise the indent width shifted left by one, or'ed with HEADER if the line starts a fold
+	 * @throws BadLocationException if the line does not exist
+	 */
+	private int getIndent(IDocument document,int line) throws BadLocationException {
+		IRegion information = document.getLineInformation(line);
+		int offset = information.getOffset(), length = Math.max(information.getLength(),0), width = 0, index = 0; //the line tracker may report -1 after splitting \r\n
+		for(char chr;index<length&&((chr=document.getChar(offset+index))==' '||chr=='\t');index++)
+			width = chr=='\t'?width+tabWidth-width%tabWidth:width+1;
+		if(index==length)
+			return BLANK;
+		return width<<1|(isHeader(document.get(offset+index,length-index))?HEADER:0);
+	}
+	
+	/**
+	 * checks if a line (without indent) may start a fold. If no indent strings are defined any line may start a fold, otherwise
+	 * the line has to contain an indent string (words as a whole word) or start with an indent string SOL
+	 */
+	private boolean isHeader(String text) {
+		if(indentStrings==null&&indentStringsSOL==null)
+			return true;
+		if(nocase)
+			text = text.toLowerCase();
+		if(indentStringsSOL!=null)
+			for(String string:indentStringsSOL)
+				if(text.startsWith(string))
+					return true;
+		if(indentStrings!=null)
+			for(String string:indentStrings)
+				for(int index=text.indexOf(string);index!=-1;index=text.indexOf(string,index+1)) {
+					int end = index+string.length();
+					if((!Character.isLetterOrDigit(string.charAt(0))||index==0||!Character.isLetterOrDigit(text.charAt(index-1)))
+						&&(!Character.isLetterOrDigit(string.charAt(string.length()-1))||end==text.length()||!Character.isLetterOrDigit(text.charAt(end))))
+						return true;
+				}
+		return false;
+	}
+	
+	private String[] toArray(Set<String> strings) {
+		if(strings==null||strings.isEmpty())
+			return null;
+		List<String> array = new ArrayList<String>();
+		for(String string:strings)
+			if(!string.isEmpty())
+				array.add(nocase?string.toLowerCase():string);
+		return array.toArray(new String[0]);
+	}
+}
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.viewers.IPostSelectionProvider;
+import org.eclipse.jface.viewers.ISelectionChangedListener;
+import org.eclipse.jface.viewers.ISelectionProvider;
+import org.eclipse.jface.viewers.SelectionChangedEvent;
+import org.eclipse.swt.widgets.Display;
+
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * this annotation provider marks the occurrences of the word under the caret. Words are separated by the delimiters of the wordfile.
+ * The provider keeps an index of the words of each line (their hash codes, columns and lengths), which is updated with the changed lines
+ * of the document (see {@link WordfileAnnotationVisitor}) and reused whenever the caret moves. If the caret moves to another word, the
+ * occurrences in the visible lines are marked first, the occurrences in the rest of the document are searched by a background job
+ * @author Kristian Kraljic
+ */
+public class WordfileOccurrencesAnnotationProvider extends WordfileAnnotationProvider implements WordfileAnnotationVisitor {
+	/**
+	 * the type of the occurrence annotations
+	 */
+	public static final String OCCURRENCES_TYPE = "lc.kra.eclipse.wordfileeditor.occurrences";
+	/**
+	 * the characters never part of a word besides the delimiters of the wordfile
+	 */
+	private static final String SPACES = " \t\n\r";
+	
+	/**
+	 * the viewer showing the document, the document and the listener updating the annotations
+	 */
+	private ITextViewer viewer;
+	private IDocument document;
+	private WordfileAnnotationDocumentListener listener;
+	/**
+	 * the characters separating words and true if words are compared ignoring the case
+	 */
+	private String delimiters;
+	private boolean nocase;
+	
+	/**
+	 * the index: for each line the hash code, column and length of each word in the line (null if the line was not visited yet)
+	 * and the offset of each line. The arrays may hold more entries than lines and are changed in place, searches running
+	 * concurrently to a change are discarded, because the document was changed
+	 */
+	private int[][] lines;
+	private int[] offsets;
+	private int lineCount;
+	/**
+	 * the modification stamp of the document the index was last updated for or unknown
+	 */
+	private long stamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	/**
+	 * the stamp and the line count of the snapshot, the lines and the entries found by the running visit
+	 */
+	private long visitStamp;
+	private int visitFirstLine,visitLastLine,visitLineCount;
+	private int[][] visitedLines;
+	private int[] visitedOffsets;
+	
+	/**
+	 * the word under the caret or null if the caret is not at a word
+	 */
+	volatile String word;
+	/**
+	 * the job searching the occurrences after the caret moved to another word
+	 */
+	private OccurrencesJob job = new OccurrencesJob();
+	/**
+	 * the listener for the (delayed) selection changes of the viewer
+	 */
+	private ISelectionChangedListener selectionListener = new ISelectionChangedListener() {
+		@Override public void selectionChanged(SelectionChangedEvent event) {
+			if(event.getSelection() instanceof ITextSelection)
+				caretMoved(((ITextSelection)event.getSelection()).getOffset());
+		}
+	};
+	
+	/**
+	 * creates a new WordfileOccurrencesAnnotationProvider for the viewer of an editor
+	 * @param model the annotation model (usually the one of the document)
+	 * @param viewer the viewer of the editor
+	 * @param listener the listener updating the annotations of the editor
+	 * @param wordfile the wordfile
+	 */
+	public WordfileOccurrencesAnnotationProvider(IAnnotationModel model,ITextViewer viewer,WordfileAnnotationDocumentListener listener,Wordfile wordfile) {
+		this(model,viewer.getDocument(),listener,(wordfile.getDelimiters()!=null?wordfile.getDelimiters():"")+(wordfile.getStringChars()!=null?wordfile.getStringChars():""),wordfile.isNocase());
+		this.viewer = viewer;
+		
+		ISelectionProvider selectionProvider = viewer.getSelectionProvider();
+		if(selectionProvider instanceof IPostSelectionProvider)
+			 ((IPostSelectionProvider)selectionProvider).addPostSelectionChangedListener(selectionListener);
+		else selectionProvider.addSelectionChangedListener(selectionListener);
+	}
+	
+	/**
+	 * creates a new WordfileOccurrencesAnnotationProvider for a document, without marking the occurrences of the word under a caret
+	 * @param model the annotation model
+	 * @param document the document
+	 * @param listener the listener updating the annotations of the document
+	 * @param delimiters the characters separating words besides spaces
+	 * @param nocase true if words are compared ignoring the case
+	 */
+	WordfileOccurrencesAnnotationProvider(IAnnotationModel model,IDocument document,WordfileAnnotationDocumentListener listener,String delimiters,boolean nocase) {
+		super(model);
+		this.document = document;
+		this.listener = listener;
+		this.delimiters = delimiters+SPACES;
+		this.nocase = nocase;
+	}
+	
+	/**
+	 * creates a new occurrence annotation, the object is the word
+	 */
+	@Override public Annotation createAnnotation(Object object) { return new Annotation(OCCURRENCES_TYPE,false,"Occurrence of '"+object+"'"); }
+	/**
+	 * returns the occurrences of the word under the caret in the whole document
+	 */
+	@Override public Map<Object,List<Position>> getAnnotationGroups(IDocument document,IProgressMonitor monitor) {
+		String word = this.word;
+		int[][] lines; int[] offsets; int lineCount;
+		synchronized(this) {
+			if(!isCurrent(WordfileAnnotationDocumentListener.getModificationStamp(document)))
+				return null; //the index was updated for another version of the document
+			lines = this.lines;
+			offsets = this.offsets;
+			lineCount = this.lineCount;
+		}
+		Map<Object,List<Position>> annotations = new HashMap<Object,List<Position>>();
+		if(word!=null&&lines!=null) {
+			List<Position> positions = new ArrayList<Position>();
+			if(!search(word,lines,offsets,0,lineCount,positions,monitor))
+				return null;
+			annotations.put(word,verify(document,word,positions));
+		}
+		return annotations;
+	}
+	
+	/**
+	 * starts indexing the changed lines
+	 */
+	@Override public synchronized void beginVisit(IDocument document,int firstLine,int lastLine) {
+		visitStamp = WordfileAnnotationDocumentListener.getModificationStamp(document);
+		visitFirstLine = firstLine;
+		visitLastLine = lastLine;
+		visitLineCount = document.getNumberOfLines();
+		visitedLines = new int[lastLine-firstLine+1][];
+		visitedOffsets = new int[lastLine-firstLine+1];
+	}
+	/**
+	 * indexes the words of a line
+	 */
+	@Override public void visitLine(int line,int offset,String text,ITypedRegion[] partitions) {
+		int[] entries = new int[0]; int count = 0;
+		for(int index=0,length=text.length();index<length;) {
+			if(delimiters.indexOf(text.charAt(index))!=-1) {
+				index++;
+				continue;
+			}
+			int start = index;
+			while(index<length&&delimiters.indexOf(text.charAt(index))==-1)
+				index++;
+			if(count+3>entries.length)
+				entries = Arrays.copyOf(entries,Math.max(12,entries.length*2));
+			entries[count++] = hash(text.substring(start,index));
+			entries[count++] = start;
+			entries[count++] = index-start;
+		}
+		visitedLines[line-visitFirstLine] = count!=entries.length?Arrays.copyOf(entries,count):entries;
+		visitedOffsets[line-visitFirstLine] = offset;
+	}
+	/**
+	 * replaces the entries of the visited lines, if the document was not changed in the meantime
+	 */
+	@Override public synchronized void endVisit() {
+		if(isCurrent(visitStamp)&&(lines!=null||visitFirstLine==0&&visitLastLine==visitLineCount-1)) {
+			if(lines==null) {
+				lines = new int[visitLineCount][];
+				offsets = new int[visitLineCount];
+				lineCount = visitLineCount;
+			}
+			for(int line=visitFirstLine;line<=visitLastLine&&line<lineCount;line++) {
+				lines[line] = visitedLines[line-visitFirstLine];
+				offsets[line] = visitedOffsets[line-visitFirstLine];
+			}
+			stamp = visitStamp;
+		}
+		visitedLines = null;
+		visitedOffsets = null;
+	}
+	
+	/**
+	 * removes the entries of the replaced lines and shifts the lines behind them in place (the changed lines are visited with the
+	 * next update). If the index does not match the document, it is dropped and all lines are visited again with the next update
+	 */
+	@Override public synchronized void linesChanged(DocumentEvent event,int firstLine,int lastLine,int changed) {
+		stamp = event.getModificationStamp();
+		if(lines==null)
+			return; //the index is filled on the next update
+		int removed = lastLine-firstLine+1, count = lineCount-removed+changed,
+			delta = (event.getText()!=null?event.getText().length():0)-event.getLength();
+		if(count<firstLine+changed||lastLine>=lineCount) {
+			lines = null; //the index does not match the document
+			offsets = null;
+			listener.invalidateLines(event.getDocument());
+			return;
+		}
+		if(count>lines.length) { //grow the index, searches running concurrently keep the previous arrays
+			lines = Arrays.copyOf(lines,Math.max(count,lines.length+(lines.length>>1)));
+			offsets = Arrays.copyOf(offsets,lines.length);
+		}
+		System.arraycopy(lines,lastLine+1,lines,firstLine+changed,lineCount-lastLine-1);
+		System.arraycopy(offsets,lastLine+1,offsets,firstLine+changed,lineCount-lastLine-1);
+		Arrays.fill(lines,firstLine,firstLine+changed,null);
+		if(count<lineCount)
+			Arrays.fill(lines,count,lineCount,null);
+		if(delta!=0)
+			for(int line=firstLine+changed;line<count;line++)
+				offsets[line] += delta;
+		lineCount = count;
+	}
+	
+	/**
+	 * stops marking the occurrences
+	 */
+	@Override public void dispose() {
+		ISelectionProvider selectionProvider = viewer.getSelectionProvider();
+		if(selectionProvider instanceof IPostSelectionProvider)
+			 ((IPostSelectionProvider)selectionProvider).removePostSelectionChangedListener(selectionListener);
+		else if(selectionProvider!=null)
+			selectionProvider.removeSelectionChangedListener(selectionListener);
+		job.cancel();
+	}
+	
+	/**
+	 * determines the word at the caret and searches its occurrences, if the caret moved to another word. Called on the UI thread
+	 * @param offset the offset of the caret
+	 */
+	private void caretMoved(int offset) {
+		String word = null;
+		try {
+			IRegion line = document.getLineInformationOfOffset(offset);
+			int start = offset, end = offset, lineEnd = line.getOffset()+Math.max(line.getLength(),0);
+			while(start>line.getOffset()&&delimiters.indexOf(document.getChar(start-1))==-1)
+				start--;
+			while(end<lineEnd&&delimiters.indexOf(document.getChar(end))==-1)
+				end++;
+			if(end>start)
+				word = document.get(start,end-start);
+		} catch(BadLocationException e) { e.printStackTrace(); }
+		if(word!=null&&nocase)
+			word = word.toLowerCase();
+		if(word==null?this.word==null:word.equals(this.word))
+			return; //the occurrences of the word are already marked
+		
+		this.word = word;
+		job.cancel();
+		if(word!=null) {
+			job.topLine = viewer.getTopIndex();
+			job.bottomLine = viewer.getBottomIndex();
+			job.schedule();
+		} else listener.updateAnnotations(this,document,WordfileAnnotationDocumentListener.getModificationStamp(document),new HashMap<Object,List<Position>>());
+	}
+	
+	/**
+	 * searches the occurrences of a word in the lines of the index
+	 * @param word the word
+	 * @param lines the entries of the lines
+	 * @param offsets the offsets of the lines
+	 * @param firstLine the first line to search
+	 * @param endLine the line after the last line to search
+	 * @param positions the list the positions of the occurrences are added to
+	 * @param monitor the progress monitor
+	 * @return false if the search was canceled
+	 */
+	private boolean search(String word,int[][] lines,int[] offsets,int firstLine,int endLine,List<Position> positions,IProgressMonitor monitor) {
+		int hash = hash(word), length = word.length();
+		for(int line=Math.max(firstLine,0);line<endLine&&line<lines.length;line++) {
+			if((line&0xFFF)==0&&monitor.isCanceled())
+				return false;
+			int[] entries = lines[line];
+			if(entries!=null)
+				for(int index=0;index<entries.length;index+=3)
+					if(entries[index]==hash&&entries[index+2]==length)
+						positions.add(new Position(offsets[line]+entries[index+1],length));
+		}
+		return true;
+	}
+	/**
+	 * removes the positions not containing a word (words are indexed by their hash code)
+	 * @param document the document the positions refer to
+	 * @param word the word
+	 * @param positions the positions of the occurrences
+	 * @return the verified positions
+	 */
+	private List<Position> verify(IDocument document,String word,List<Position> positions) {
+		List<Position> verified = new ArrayList<Position>(positions.size());
+		try {
+			for(Position position:positions) {
+				String text = document.get(position.getOffset(),position.getLength());
+				if(nocase?text.equalsIgnoreCase(word):text.equals(word))
+					verified.add(position);
+			}
+		} catch(BadLocationException e) { e.printStackTrace(); }
+		return verified;
+	}
+	
+	private int hash(String word) { return (nocase?word.toLowerCase():word).hashCode(); }
+	private boolean isCurrent(long stamp) { return stamp==IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP||this.stamp==IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP||stamp==this.stamp; }
+	
+	/**
+	 * the job searching the occurrences of the word under the caret: the occurrences in the visible lines are marked first, then the
+	 * occurrences in the whole document. The job is canceled as soon as the caret moves to another word
+	 * @author Kristian Kraljic
+	 */
+	private class OccurrencesJob extends Job {
+		/** the first and last visible line */
+		private volatile int topLine,bottomLine;
+		public OccurrencesJob() {
+			super("WordfileEditor Occurrences Search");
+			setSystem(true);
+		}
+		@Override protected IStatus run(IProgressMonitor monitor) {
+			String word = WordfileOccurrencesAnnotationProvider.this.word;
+			int[][] lines; int[] offsets; int lineCount; long stamp;
+			synchronized(WordfileOccurrencesAnnotationProvider.this) {
+				lines = WordfileOccurrencesAnnotationProvider.this.lines;
+				offsets = WordfileOccurrencesAnnotationProvider.this.offsets;
+				lineCount = WordfileOccurrencesAnnotationProvider.this.lineCount;
+				stamp = WordfileOccurrencesAnnotationProvider.this.stamp;
+			}
+			if(word==null||lines==null)
+				return Status.OK_STATUS; //the occurrences are marked with the next update of the annotations
+			
+			List<Position> positions = new ArrayList<Position>();
+			int topLine = this.topLine, endLine = Math.min(this.bottomLine+1,lineCount);
+			if(!search(word,lines,offsets,topLine,endLine,positions,monitor))
+				return Status.CANCEL_STATUS;
+			publish(word,stamp,new ArrayList<Position>(positions),monitor);
+			if(!search(word,lines,offsets,0,topLine,positions,monitor)||!search(word,lines,offsets,endLine,lineCount,positions,monitor))
+				return Status.CANCEL_STATUS;
+			publish(word,stamp,positions,monitor);
+			return Status.OK_STATUS;
+		}
+		/**
+		 * marks the occurrences found so far on the UI thread, if the caret was not moved to another word and the document was not changed
+		 */
+		private void publish(final String word,final long stamp,final List<Position> positions,final IProgressMonitor monitor) {
+			Display display = Display.getDefault();
+			if(!display.isDisposed()) display.asyncExec(new Runnable() {
+				@Override public void run() {
+					if(monitor.isCanceled()||!word.equals(WordfileOccurrencesAnnotationProvider.this.word)||
+							WordfileAnnotationDocumentListener.getModificationStamp(document)!=stamp)
+						return; //the occurrences are marked by the next search or the next update of the annotations
+					Map<Object,List<Position>> annotations = new HashMap<Object,List<Position>>();
+					annotations.put(word,verify(document,word,positions));
+					listener.updateAnnotations(WordfileOccurrencesAnnotationProvider.this,document,stamp,annotations);
+				}
+			});
+		}
+	}
+}
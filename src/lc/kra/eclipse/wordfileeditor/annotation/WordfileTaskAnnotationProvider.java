@@ -0,0 +1,228 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.IAnnotationModel;
+
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * this annotation provider provides task annotations (shown in the overview ruler) for the markers in comments: text enclosed by the
+ * marker characters of the wordfile and text following a task tag (like TODO). The markers are kept per line, only the lines changed
+ * since the last update are searched again (see {@link WordfileAnnotationVisitor})
+ * @author Kristian Kraljic
+ */
+public class WordfileTaskAnnotationProvider extends WordfileAnnotationProvider implements WordfileAnnotationVisitor {
+	/**
+	 * the type of the task annotations
+	 */
+	public static final String TASK_TYPE = "org.eclipse.ui.workbench.texteditor.task";
+	/**
+	 * the tags starting a task in a comment
+	 */
+	private static final String[] TASK_TAGS = new String[]{"TODO","FIXME","XXX"};
+	
+	/**
+	 * the characters opening and closing a marker (one pair for each marker characters string of the wordfile)
+	 */
+	private char[] openMarkers,closeMarkers;
+	
+	/**
+	 * the markers of the document ordered by line and column
+	 */
+	private List<Marker> markers = new ArrayList<Marker>();
+	/**
+	 * the modification stamp of the document the markers were last updated for or unknown
+	 */
+	private long stamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	
+	/**
+	 * the stamp of the snapshot, the lines and the markers found by the running visit
+	 */
+	private long visitStamp;
+	private int visitFirstLine,visitLastLine;
+	private List<Marker> visited;
+	
+	/**
+	 * creates a new WordfileTaskAnnotationProvider for an annotation model, with the marker characters of a wordfile
+	 * @param model the annotation model (usually the one of the document, to be shown in the overview ruler)
+	 * @param wordfile the wordfile
+	 */
+	public WordfileTaskAnnotationProvider(IAnnotationModel model,Wordfile wordfile) { this(model,wordfile.getMarkerCharacters()); }
+	/**
+	 * creates a new WordfileTaskAnnotationProvider for an annotation model, with marker characters
+	 * @param model the annotation model
+	 * @param markerCharacters the marker characters strings or null
+	 */
+	WordfileTaskAnnotationProvider(IAnnotationModel model,Set<String> markerCharacters) {
+		super(model);
+		List<String> pairs = new ArrayList<String>();
+		if(markerCharacters!=null)
+			for(String characters:markerCharacters)
+				if(!characters.isEmpty())
+					pairs.add(characters);
+		openMarkers = new char[pairs.size()];
+		closeMarkers = new char[pairs.size()];
+		for(int index=0;index<pairs.size();index++) {
+			openMarkers[index] = pairs.get(index).charAt(0);
+			closeMarkers[index] = pairs.get(index).charAt(pairs.get(index).length()-1);
+		}
+	}
+	
+	/**
+	 * creates a new task annotation, the object is the text of the marker
+	 */
+	@Override public Annotation createAnnotation(Object object) { return new Annotation(TASK_TYPE,false,(String)object); }
+	/**
+	 * returns the positions of all markers, grouped by their text
+	 */
+	@Override public Map<Object,List<Position>> getAnnotationGroups(IDocument document,IProgressMonitor monitor) {
+		List<Marker> markers;
+		synchronized(this) {
+			if(!isCurrent(document))
+				return null; //the markers were updated for another version of the document
+			markers = this.markers;
+		}
+		Map<Object,List<Position>> annotations = new HashMap<Object,List<Position>>();
+		try {
+			for(Marker marker:markers) {
+				List<Position> positions = annotations.get(marker.text);
+				if(positions==null)
+					annotations.put(marker.text,positions=new ArrayList<Position>(1));
+				positions.add(new Position(document.getLineOffset(marker.line)+marker.column,marker.length));
+			}
+		} catch(BadLocationException e) { return null; }
+		return annotations;
+	}
+	
+	/**
+	 * starts searching the changed lines for markers
+	 */
+	@Override public synchronized void beginVisit(IDocument document,int firstLine,int lastLine) {
+		visitStamp = document instanceof IDocumentExtension4?((IDocumentExtension4)document).getModificationStamp():IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+		visitFirstLine = firstLine;
+		visitLastLine = lastLine;
+		visited = new ArrayList<Marker>();
+	}
+	/**
+	 * searches the comments of a line for markers
+	 */
+	@Override public void visitLine(int line,int offset,String text,ITypedRegion[] partitions) {
+		for(ITypedRegion partition:partitions) {
+			if(!WordfileFoldTreeAnnotationProvider.COMMENT_TYPES.contains(partition.getType()))
+				continue;
+			int start = Math.max(partition.getOffset()-offset,0), end = Math.min(partition.getOffset()+partition.getLength()-offset,text.length());
+			search: for(int index=start;index<end;index++) {
+				char chr = text.charAt(index);
+				for(int marker=0;marker<openMarkers.length;marker++)
+					if(chr==openMarkers[marker]) {
+						int close = text.indexOf(closeMarkers[marker],index+1);
+						if(close!=-1&&close<end&&close>index+1) {
+							visited.add(new Marker(line,index,close+1-index,text.substring(index+1,close).trim()));
+							index = close;
+							continue search;
+						}
+					}
+				for(String tag:TASK_TAGS)
+					if(text.startsWith(tag,index)&&index+tag.length()<=end&&(index==0||!Character.isLetterOrDigit(text.charAt(index-1)))&&
+							(index+tag.length()==end||!Character.isLetterOrDigit(text.charAt(index+tag.length())))) {
+						visited.add(new Marker(line,index,end-index,text.substring(index,end).trim()));
+						break search; //the task extends to the end of the comment in this line
+					}
+			}
+		}
+	}
+	/**
+	 * replaces the markers of the visited lines, if the document was not changed in the meantime
+	 */
+	@Override public synchronized void endVisit() {
+		if(stamp==IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP||visitStamp==stamp) {
+			List<Marker> markers = new ArrayList<Marker>(this.markers.size()+visited.size());
+			int index = 0;
+			while(index<this.markers.size()&&this.markers.get(index).line<visitFirstLine)
+				markers.add(this.markers.get(index++));
+			markers.addAll(visited);
+			while(index<this.markers.size()&&this.markers.get(index).line<=visitLastLine)
+				index++;
+			markers.addAll(this.markers.subList(index,this.markers.size()));
+			this.markers = markers;
+			stamp = visitStamp;
+		}
+		visited = null;
+	}
+	
+	/**
+	 * removes the markers of the replaced lines and shifts the markers behind them (the changed lines are visited with the next update)
+	 */
+	@Override public synchronized void linesChanged(DocumentEvent event,int firstLine,int lastLine,int changed) {
+		int delta = changed-(lastLine-firstLine+1);
+		List<Marker> markers = new ArrayList<Marker>(this.markers.size());
+		for(Marker marker:this.markers)
+			if(marker.line<firstLine)
+				markers.add(marker);
+			else if(marker.line>lastLine)
+				markers.add(new Marker(marker.line+delta,marker.column,marker.length,marker.text));
+		this.markers = markers;
+		stamp = event.getModificationStamp();
+	}
+	
+	/**
+	 * @return true if the markers were updated for the version of a document
+	 */
+	private boolean isCurrent(IDocument document) {
+		long stamp = document instanceof IDocumentExtension4?((IDocumentExtension4)document).getModificationStamp():IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+		return stamp==IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP||this.stamp==IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP||stamp==this.stamp;
+	}
+	
+	/**
+	 * a marker found in a line, the markers are never modified once published
+	 * @author Kristian Kraljic
+	 */
+	private static class Marker {
+		/** the line and the column of the marker */
+		private final int line,column;
+		/** the length of the marker */
+		private final int length;
+		/** the text of the marker */
+		private final String text;
+		public Marker(int line,int column,int length,String text) {
+			this.line = line;
+			this.column = column;
+			this.length = length;
+			this.text = text;
+		}
+	}
+}
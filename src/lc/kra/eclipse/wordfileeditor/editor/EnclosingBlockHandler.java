@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.jface.text.ITextSelection;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+import lc.kra.eclipse.wordfileeditor.annotation.FoldTree;
+
+/**
+ * The EnclosingBlockHandler moves the caret to the start of the block (fold) enclosing the caret or selects the block
+ * enclosing the selection. Invoked repeatedly, the next outer block is used
+ * @author Kristian Kraljic
+ */
+public class EnclosingBlockHandler extends AbstractHandler {
+	/**
+	 * the ids of the commands handled
+	 */
+	public static final String GOTO_COMMAND_ID = WordfileEditor.class.getName()+".gotoEnclosingBlock",
+	                           SELECT_COMMAND_ID = WordfileEditor.class.getName()+".selectEnclosingBlock";
+	
+	@Override public Object execute(ExecutionEvent event) throws ExecutionException {
+		IEditorPart editor = HandlerUtil.getActiveEditor(event);
+		if(!(editor instanceof WordfileEditor))
+			return null;
+		FoldTree tree = ((WordfileEditor)editor).getAdapter(FoldTree.class);
+		ISelection selection = ((WordfileEditor)editor).getSelectionProvider().getSelection();
+		if(tree==null||!(selection instanceof ITextSelection))
+			return null;
+		
+		int offset = ((ITextSelection)selection).getOffset(), length = ((ITextSelection)selection).getLength();
+		Position block = tree.getEnclosingFold(offset,length);
+		if(SELECT_COMMAND_ID.equals(event.getCommand().getId())) {
+			if(block!=null)
+				((WordfileEditor)editor).selectAndReveal(block.getOffset(),block.getLength());
+		} else {
+			if(block!=null&&block.getOffset()==offset&&length==0) //the caret is at the start of the block already
+				block = tree.getEnclosingFold(block.getOffset(),block.getLength());
+			if(block!=null)
+				((WordfileEditor)editor).selectAndReveal(block.getOffset(),0);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,617 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jface.text.ITextStore;
+
+/**
+ * The PieceTableTextStore stores the text of a document as a table of pieces, referencing either the original
+ * content of a file or an append-only buffer of added text. The original content is memory-mapped, so only the
+ * added text and the piece table itself are held in the heap. As no buffer is ever modified, a snapshot of the
+ * store only needs to copy the piece table
+ * @author Kristian Kraljic
+ */
+public class PieceTableTextStore implements ITextStore,CharSequence {
+	/**
+	 * the original content of the file
+	 */
+	private final Original original;
+	/**
+	 * the buffer of all added text
+	 */
+	private AddBuffer added;
+	/**
+	 * the pieces the text consists of
+	 */
+	private final List<Piece> pieces;
+	/**
+	 * the offsets of all pieces in the text or null if they have to be computed again
+	 */
+	private volatile int[] offsets;
+	/**
+	 * the length of the text
+	 */
+	private int length;
+	/**
+	 * the number of characters of the original content, which were loaded into the text so far
+	 */
+	private int loaded;
+	/**
+	 * the range of the original content, which the text of the next replace corresponds to, or -1
+	 */
+	private int mappedOffset = -1, mappedLength;
+
+	/**
+	 * creates a new empty PieceTableTextStore
+	 */
+	public PieceTableTextStore() { this(new String()); }
+	/**
+	 * creates a new PieceTableTextStore with an original content held in the heap
+	 * @param text the original content
+	 */
+	public PieceTableTextStore(String text) { this(new CharOriginal(text)); }
+	/**
+	 * creates a new PieceTableTextStore for an original content
+	 * @param original the original content
+	 */
+	private PieceTableTextStore(Original original) {
+		this.original = original;
+		this.added = new AddBuffer();
+		this.pieces = new ArrayList<Piece>();
+		if((loaded=length=original.length())!=0)
+			pieces.add(new Piece(false,0,length));
+	}
+	/**
+	 * creates a new PieceTableTextStore as a snapshot of another store
+	 * @param store the store to create the snapshot of
+	 */
+	private PieceTableTextStore(PieceTableTextStore store) {
+		this.original = store.original;
+		this.added = store.added.snapshot();
+		this.pieces = new ArrayList<Piece>(store.pieces);
+		this.length = store.length;
+		this.loaded = store.loaded;
+	}
+
+	/**
+	 * opens a file as a PieceTableTextStore. The file is copied to a temporary file, which is memory-mapped (so the original
+	 * file may be changed while it is opened). The mapped bytes are used as characters directly if the file is encoded with a
+	 * single byte charset or is pure ASCII, UTF-8 is decoded lazily from the mapped bytes. Only files in other multi byte
+	 * charsets have to be decoded into the heap. Must not be called on the UI thread for large files
+	 * @param file the file to open
+	 * @param encoding the encoding of the file
+	 * @return the text store containing the content of the file
+	 * @throws IOException if the file could not be read
+	 */
+	public static PieceTableTextStore open(File file,String encoding) throws IOException {
+		Charset charset = getCharset(encoding);
+		File copy = File.createTempFile("wordfile",null);
+		try {
+			Files.copy(file.toPath(),copy.toPath(),StandardCopyOption.REPLACE_EXISTING);
+			ByteBuffer buffer;
+			FileChannel channel = FileChannel.open(copy.toPath(),StandardOpenOption.READ);
+			try {
+				if(channel.size()>Integer.MAX_VALUE)
+					throw new IOException("File too large: "+file);
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY,0,channel.size());
+			} finally { channel.close(); }
+
+			char[] table = getTable(charset,buffer);
+			if(table!=null)
+				return new PieceTableTextStore(new ByteOriginal(buffer,table));
+			else if("UTF-8".equals(charset.name()))
+				return new PieceTableTextStore(new DecodedOriginal(buffer,charset));
+
+			CharBuffer chars = newDecoder(charset).decode(buffer);
+			if(chars.length()!=0&&chars.charAt(0)=='\uFEFF')
+				chars.position(1); //skip the byte order mark
+			return new PieceTableTextStore(new CharOriginal(chars.slice()));
+		} finally {
+			if(!copy.delete()) //the mapped copy can not be deleted on some platforms
+				copy.deleteOnExit();
+		}
+	}
+
+	/**
+	 * reads the beginning of a file the same way it is decoded by {@link #open(File, String)}
+	 * @param file the file to read
+	 * @param encoding the encoding of the file
+	 * @param length the maximum number of characters to read
+	 * @return the beginning of the file
+	 * @throws IOException if the file could not be read
+	 */
+	public static String read(File file,String encoding,int length) throws IOException {
+		Reader reader = new InputStreamReader(new FileInputStream(file),newDecoder(getCharset(encoding)));
+		try {
+			char[] buffer = new char[length+1];
+			int count = 0, read;
+			while(count<buffer.length&&(read=reader.read(buffer,count,buffer.length-count))!=-1)
+				count += read;
+			int start = count!=0&&buffer[0]=='\uFEFF'?1:0; //skip the byte order mark
+			return new String(buffer,start,Math.min(count-start,length));
+		} finally { reader.close(); }
+	}
+
+	/**
+	 * returns the charset for an encoding
+	 * @param encoding the encoding or null
+	 * @return the charset of the encoding or the default charset, if the encoding is unknown
+	 */
+	private static Charset getCharset(String encoding) {
+		try { if(encoding!=null) return Charset.forName(encoding); }
+		catch(IllegalArgumentException e) {} //unknown encoding, use the default charset
+		return Charset.defaultCharset();
+	}
+
+	/**
+	 * @return a new decoder for a charset, replacing malformed and unmappable input
+	 */
+	private static CharsetDecoder newDecoder(Charset charset) {
+		return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * returns a table to translate the bytes of a buffer to characters, if every byte corresponds to one character
+	 * @param charset the charset of the buffer
+	 * @param buffer the buffer to translate
+	 * @return a table with 256 characters or null if the bytes can not be translated one by one
+	 */
+	private static char[] getTable(Charset charset,ByteBuffer buffer) {
+		CharsetDecoder decoder = newDecoder(charset);
+		if(decoder.maxCharsPerByte()==1&&charset.canEncode()&&charset.newEncoder().maxBytesPerChar()==1) {
+			char[] table = new char[256];
+			for(int index=0;index<table.length;index++)
+				try { table[index] = decoder.reset().decode(ByteBuffer.wrap(new byte[]{(byte)index})).get(); }
+				catch(Exception e) { table[index] = '\uFFFD'; }
+			return table;
+		} else if("UTF-8".equals(charset.name())) {
+			for(int index=0,limit=buffer.limit();index<limit;index++)
+				if(buffer.get(index)<0)
+					return null; //not pure ASCII
+			char[] table = new char[256];
+			for(int index=0;index<table.length;index++)
+				table[index] = (char)index;
+			return table;
+		} else return null;
+	}
+
+	/**
+	 * returns a snapshot of this store. The snapshot is not affected by any later change of this store and may be read by another thread
+	 * @return the snapshot
+	 */
+	public PieceTableTextStore snapshot() { return new PieceTableTextStore(this); }
+
+	/**
+	 * @return the length of the original content
+	 */
+	public int getOriginalLength() { return original.length(); }
+	/**
+	 * @return the number of characters of the original content, which were loaded into the text so far
+	 */
+	public int getLoadedLength() { return loaded; }
+	/**
+	 * returns a range of the original content
+	 * @param offset the offset in the original content
+	 * @param length the length of the range
+	 * @return the original content in this range
+	 */
+	public String getOriginal(int offset,int length) {
+		StringBuilder builder = new StringBuilder(length);
+		original.append(builder,offset,length);
+		return builder.toString();
+	}
+
+	/**
+	 * starts to load the original content progressively. If the text already equals the beginning of the original content, the
+	 * text references this range of the original content, otherwise the text is added and nothing of the original content is loaded
+	 * @param text the text loaded so far
+	 * @return true if the text equals the beginning of the original content
+	 */
+	public boolean startLoad(String text) {
+		int textLength = text.length();
+		if(textLength<=original.length()&&getOriginal(0,textLength).equals(text)) {
+			pieces.clear();
+			if((length=loaded=textLength)!=0)
+				pieces.add(new Piece(false,0,textLength));
+			offsets = null;
+			return true;
+		}
+		set(text);
+		loaded = 0;
+		return false;
+	}
+
+	/**
+	 * declares that the text of the next replace is a range of the original content, so that it is not added to the buffer of added text,
+	 * but the range of the original content is referenced instead
+	 * @param offset the offset in the original content or -1 to reset
+	 * @param length the length of the range
+	 */
+	public void mapNextReplace(int offset,int length) {
+		mappedOffset = offset;
+		mappedLength = length;
+	}
+
+	/**
+	 * @see ITextStore#get(int)
+	 */
+	@Override public char get(int offset) {
+		int index = find(offset);
+		Piece piece = pieces.get(index);
+		return piece.charAt(this,offset-offsets[index]);
+	}
+
+	/**
+	 * @see ITextStore#get(int, int)
+	 */
+	@Override public String get(int offset,int length) {
+		if(length==0)
+			return new String();
+		StringBuilder builder = new StringBuilder(length);
+		for(int index=find(offset),end=offset+length;offset<end;index++) {
+			Piece piece = pieces.get(index);
+			int start = offset-offsets[index], count = Math.min(piece.length-start,end-offset);
+			piece.append(this,builder,start,count);
+			offset += count;
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @see ITextStore#getLength()
+	 */
+	@Override public int getLength() { return length; }
+
+	/**
+	 * @see ITextStore#replace(int, int, String)
+	 */
+	@Override public void replace(int offset,int length,String text) {
+		int textLength = text!=null?text.length():0, originalOffset = mappedOffset;
+		boolean original = originalOffset>=0&&textLength==mappedLength;
+		mappedOffset = -1;
+		if(!original&&length==0&&textLength!=0&&offset!=0) { //extend the last added piece, if text is typed subsequently
+			int index = find(offset-1);
+			Piece piece = pieces.get(index);
+			if(piece.added&&offsets[index]+piece.length==offset&&piece.start+piece.length==added.length()&&added.isAppendable()) {
+				added.append(text);
+				pieces.set(index,new Piece(true,piece.start,piece.length+textLength));
+				shift(index+1,textLength);
+				this.length += textLength;
+				return;
+			}
+		}
+
+		int start = split(offset), end = split(offset+length);
+		pieces.subList(start,end).clear();
+		if(textLength!=0) {
+			if(original) {
+				Piece previous = start>0?pieces.get(start-1):null;
+				if(previous!=null&&!previous.added&&previous.start+previous.length==originalOffset)
+					 pieces.set(start-1,new Piece(false,previous.start,previous.length+textLength)); //continue the previous piece of the original content
+				else pieces.add(start,new Piece(false,originalOffset,textLength));
+				loaded = Math.max(loaded,originalOffset+textLength);
+			} else pieces.add(start,new Piece(true,added.append(text),textLength));
+		}
+		this.length += textLength-length;
+		offsets = null;
+	}
+
+	/**
+	 * @see ITextStore#set(String)
+	 */
+	@Override public void set(String text) {
+		pieces.clear();
+		added = new AddBuffer(); //the text added before is no longer referenced (but by snapshots, which keep their own buffer)
+		if((length=text!=null?text.length():0)!=0)
+			pieces.add(new Piece(true,added.append(text),length));
+		offsets = null;
+	}
+
+	/**
+	 * @see CharSequence#length()
+	 */
+	@Override public int length() { return length; }
+	/**
+	 * @see CharSequence#charAt(int)
+	 */
+	@Override public char charAt(int index) { return get(index); }
+	/**
+	 * @see CharSequence#subSequence(int, int)
+	 */
+	@Override public CharSequence subSequence(int start,int end) { return get(start,end-start); }
+	/**
+	 * @return the whole text of this store
+	 */
+	@Override public String toString() { return get(0,length); }
+
+	/**
+	 * finds the piece containing an offset
+	 * @param offset the offset to find the piece for
+	 * @return the index of the piece
+	 */
+	private int find(int offset) {
+		if(offset<0||offset>=length)
+			throw new IndexOutOfBoundsException(Integer.toString(offset));
+		int[] offsets = this.offsets;
+		if(offsets==null) { //computed completely before it is published, as a snapshot may be read by several threads
+			offsets = new int[pieces.size()];
+			for(int index=0,pieceOffset=0;index<offsets.length;pieceOffset+=pieces.get(index++).length)
+				offsets[index] = pieceOffset;
+			this.offsets = offsets;
+		}
+		int index = Arrays.binarySearch(offsets,offset);
+		return index>=0?index:-index-2;
+	}
+
+	/**
+	 * splits the piece containing an offset, so that a piece starts at this offset
+	 * @param offset the offset to split at
+	 * @return the index of the piece starting at the offset
+	 */
+	private int split(int offset) {
+		if(offset>=length)
+			return pieces.size();
+		int index = find(offset), start = offset-offsets[index];
+		if(start==0)
+			return index;
+		Piece piece = pieces.get(index);
+		pieces.set(index,new Piece(piece.added,piece.start,start));
+		pieces.add(index+1,new Piece(piece.added,piece.start+start,piece.length-start));
+		offsets = null;
+		return index+1;
+	}
+
+	/**
+	 * shifts the offsets of all pieces starting at an index
+	 * @param index the index of the first piece to shift
+	 * @param delta the delta to shift the pieces
+	 */
+	private void shift(int index,int delta) {
+		if(offsets!=null)
+			for(;index<offsets.length;index++)
+				offsets[index] += delta;
+	}
+
+	/**
+	 * a piece of the text, referencing a range in either the original content or in the added text
+	 * @author Kristian Kraljic
+	 */
+	private static class Piece {
+		private final boolean added;
+		private final int start,length;
+		public Piece(boolean added,int start,int length) {
+			this.added = added;
+			this.start = start;
+			this.length = length;
+		}
+		public char charAt(PieceTableTextStore store,int index) {
+			return added?store.added.charAt(start+index):store.original.charAt(start+index);
+		}
+		public void append(PieceTableTextStore store,StringBuilder builder,int index,int length) {
+			if(added)
+				 store.added.append(builder,start+index,length);
+			else store.original.append(builder,start+index,length);
+		}
+	}
+
+	/**
+	 * the original content of a file
+	 * @author Kristian Kraljic
+	 */
+	private static abstract class Original {
+		public abstract int length();
+		public abstract char charAt(int index);
+		public abstract void append(StringBuilder builder,int start,int length);
+	}
+
+	/**
+	 * original content, of which every byte translates to one character
+	 * @author Kristian Kraljic
+	 */
+	private static class ByteOriginal extends Original {
+		private final ByteBuffer buffer;
+		private final char[] table;
+		public ByteOriginal(ByteBuffer buffer,char[] table) {
+			this.buffer = buffer;
+			this.table = table;
+		}
+		@Override public int length() { return buffer.limit(); }
+		@Override public char charAt(int index) { return table[buffer.get(index)&0xFF]; }
+		@Override public void append(StringBuilder builder,int start,int length) {
+			for(int index=start,end=start+length;index<end;index++)
+				builder.append(table[buffer.get(index)&0xFF]);
+		}
+	}
+
+	/**
+	 * original content, which is decoded lazily from the mapped bytes. When the content is opened, it is decoded once in
+	 * blocks of {@link #BLOCK_SIZE} characters, without keeping the characters, to record the byte offset each block starts
+	 * at. Reading a character decodes its block again, starting at the recorded offset. The last block decoded is cached,
+	 * as the content is mostly read sequentially. Only suitable for charsets decoded without state, like UTF-8
+	 * @author Kristian Kraljic
+	 */
+	private static class DecodedOriginal extends Original {
+		private static final int BLOCK_SIZE = 4096;
+		private final ByteBuffer buffer;
+		private final Charset charset;
+		/**
+		 * the offset of the first character and of its first byte of each block
+		 */
+		private int[] chars,bytes;
+		/**
+		 * the number of blocks and the number of characters
+		 */
+		private int count,length;
+		/**
+		 * the block decoded last (may be read by several threads)
+		 */
+		private volatile Block block;
+
+		public DecodedOriginal(ByteBuffer buffer,Charset charset) {
+			this.buffer = buffer;
+			this.charset = charset;
+			chars = new int[16]; bytes = new int[16];
+			ByteBuffer input = buffer.duplicate();
+			if(input.limit()>=3&&input.get(0)==(byte)0xEF&&input.get(1)==(byte)0xBB&&input.get(2)==(byte)0xBF)
+				input.position(3); //skip the byte order mark
+			CharsetDecoder decoder = newDecoder(charset);
+			CharBuffer output = CharBuffer.allocate(BLOCK_SIZE);
+			while(input.hasRemaining()) {
+				if(count==chars.length) {
+					chars = Arrays.copyOf(chars,count*2);
+					bytes = Arrays.copyOf(bytes,count*2);
+				}
+				chars[count] = length;
+				bytes[count++] = input.position();
+				output.clear();
+				decoder.decode(input,output,true); //stops at a complete character, if the output is full
+				length += output.position();
+			}
+		}
+		@Override public int length() { return length; }
+		@Override public char charAt(int index) {
+			Block block = getBlock(index);
+			return block.chars[index-chars[block.index]];
+		}
+		@Override public void append(StringBuilder builder,int start,int length) {
+			while(length>0) {
+				Block block = getBlock(start);
+				int offset = start-chars[block.index], count = Math.min(block.chars.length-offset,length);
+				builder.append(block.chars,offset,count);
+				start += count; length -= count;
+			}
+		}
+		/**
+		 * returns the block containing a character, decoding it if it is not the block decoded last
+		 * @param index the index of the character
+		 * @return the block
+		 */
+		private Block getBlock(int index) {
+			if(index<0||index>=length)
+				throw new IndexOutOfBoundsException(Integer.toString(index));
+			Block block = this.block;
+			if(block!=null&&index>=chars[block.index]&&index-chars[block.index]<block.chars.length)
+				return block;
+			int found = Arrays.binarySearch(chars,0,count,index);
+			if(found<0)
+				found = -found-2;
+			ByteBuffer input = buffer.duplicate();
+			input.position(bytes[found]);
+			CharBuffer output = CharBuffer.allocate((found+1<count?chars[found+1]:length)-chars[found]);
+			newDecoder(charset).decode(input,output,true);
+			return this.block = new Block(found,output.array());
+		}
+		/**
+		 * a decoded block of characters
+		 */
+		private static class Block {
+			private final int index;
+			private final char[] chars;
+			public Block(int index,char[] chars) {
+				this.index = index;
+				this.chars = chars;
+			}
+		}
+	}
+
+	/**
+	 * original content, which was decoded into characters
+	 * @author Kristian Kraljic
+	 */
+	private static class CharOriginal extends Original {
+		private final CharSequence chars;
+		public CharOriginal(CharSequence chars) { this.chars = chars; }
+		@Override public int length() { return chars.length(); }
+		@Override public char charAt(int index) { return chars.charAt(index); }
+		@Override public void append(StringBuilder builder,int start,int length) { builder.append(chars,start,start+length); }
+	}
+
+	/**
+	 * the append-only buffer of the added text. The text is stored in blocks, which are never reallocated, so that a snapshot
+	 * of the buffer only needs to copy the references of the blocks
+	 * @author Kristian Kraljic
+	 */
+	private static class AddBuffer {
+		private static final int BLOCK_SHIFT = 16, BLOCK_SIZE = 1<<BLOCK_SHIFT;
+		private char[][] blocks;
+		private int length;
+		/**
+		 * the number of blocks shared with the buffer this buffer is a snapshot of (text is never appended to a shared block)
+		 */
+		private int shared;
+		public AddBuffer() { this(new char[0][],0,0); }
+		private AddBuffer(char[][] blocks,int length,int shared) {
+			this.blocks = blocks;
+			this.length = length;
+			this.shared = shared;
+		}
+		public int length() { return length; }
+		public boolean isAppendable() { return (length>>BLOCK_SHIFT)>=shared; }
+		public char charAt(int index) { return blocks[index>>BLOCK_SHIFT][index&(BLOCK_SIZE-1)]; }
+		public void append(StringBuilder builder,int start,int length) {
+			while(length>0) {
+				int offset = start&(BLOCK_SIZE-1), count = Math.min(BLOCK_SIZE-offset,length);
+				builder.append(blocks[start>>BLOCK_SHIFT],offset,count);
+				start += count; length -= count;
+			}
+		}
+		/**
+		 * appends text to the buffer
+		 * @param text the text to append
+		 * @return the offset of the text in the buffer
+		 */
+		public int append(String text) {
+			if(!isAppendable()) //start a new block instead of writing into a shared one
+				length = shared<<BLOCK_SHIFT;
+			int start = length;
+			for(int index=0;index<text.length();) {
+				int block = length>>BLOCK_SHIFT, offset = length&(BLOCK_SIZE-1), count = Math.min(BLOCK_SIZE-offset,text.length()-index);
+				if(block==blocks.length)
+					blocks = Arrays.copyOf(blocks,block+1);
+				if(blocks[block]==null)
+					blocks[block] = new char[BLOCK_SIZE];
+				text.getChars(index,index+count,blocks[block],offset);
+				index += count; length += count;
+			}
+			return start;
+		}
+		public AddBuffer snapshot() { return new AddBuffer(blocks.clone(),length,blocks.length); }
+	}
+}
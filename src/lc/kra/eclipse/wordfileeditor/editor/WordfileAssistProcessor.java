@@ -22,22 +22,23 @@
 package lc.kra.eclipse.wordfileeditor.editor;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.contentassist.CompletionProposal;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
 import org.eclipse.jface.text.contentassist.IContentAssistProcessor;
 import org.eclipse.jface.text.contentassist.IContextInformation;
 import org.eclipse.jface.text.contentassist.IContextInformationValidator;
-import org.eclipse.swt.graphics.Image;
-import org.eclipse.swt.graphics.RGB;
 
-import lc.kra.eclipse.wordfileeditor.WordfileEditorActivator;
-import lc.kra.eclipse.wordfileeditor.utilities.Utilities;
+import lc.kra.eclipse.wordfileeditor.utilities.ResourceManager;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile.CodeFormat;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile.WordfileType;
@@ -48,10 +49,15 @@ import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile.WordfileType;
  */
 public class WordfileAssistProcessor implements IContentAssistProcessor {
 	/**
-	 * the images HashMap stores and buffers images generated for the completion proposals
+	 * the keywords of each wordfile, sorted for the lookup by prefix (a wordfile read again replaces the keywords of the previous one)
+	 */
+	private static final Map<Wordfile,Keywords> keywords = new HashMap<Wordfile,Keywords>();
+	
+	/**
+	 * the resource manager providing the images generated for the completion proposals
 	 * (the dots in front of the completion proposal are colored like they are later highlighted)
 	 */
-	private static HashMap<RGB,Image> images = new HashMap<RGB,Image>();
+	private ResourceManager resources;
 	
 	/**
 	 * the wordfile used for this assist processor
@@ -60,62 +66,75 @@ public class WordfileAssistProcessor implements IContentAssistProcessor {
 	/**
 	 * creates a new WordfileAssistProcessor with a specific wordfile
 	 * @param wordfile the wordfile to use
+	 * @param resources the resource manager to allocate the proposal images with
 	 */
-	public WordfileAssistProcessor(Wordfile wordfile) {
+	public WordfileAssistProcessor(Wordfile wordfile,ResourceManager resources) {
 		this.wordfile = wordfile;
+		this.resources = resources;
 	}
 
+	/**
+	 * sets another wordfile to propose the keywords of
+	 * @param wordfile the wordfile to use
+	 */
+	public void setWordfile(Wordfile wordfile) { this.wordfile = wordfile; }
+	
 	/**
 	 * computes a completion proposal for the actual offset in the text viewer
-	 * @return returns a collection of completion proposals
+	 * @return returns a collection of completion proposals, sorted by keyword (ignoring the case)
 	 */
 	@Override public ICompletionProposal[] computeCompletionProposals(ITextViewer viewer,int offset) {
 		//if no wordfile was specified no completion proposal can be given
+		Wordfile wordfile = this.wordfile;
 		if(wordfile==null)
 			return new ICompletionProposal[]{};
 		
 		//scan the offset for the current word (therefore go back until a delimiter was reached)
-		final String SPACES = " \t\n\r",DELIMITERS = wordfile.getDelimiters()+wordfile.getStringChars()+SPACES;
-		String content = viewer.getDocument().get();
-		int wordOffset = offset; StringBuilder wordBuilder = new StringBuilder();
-		while(--wordOffset>=0) {
-			char wordChar = content.charAt(wordOffset);
-			if(DELIMITERS.indexOf(wordChar)!=-1)
-				break;
-			wordBuilder.insert(0,wordChar);
+		final String SPACES = " \t\n\r",DELIMITERS = (wordfile.getDelimiters()!=null?wordfile.getDelimiters():"")+(wordfile.getStringChars()!=null?wordfile.getStringChars():"")+SPACES;
+		IDocument document = viewer.getDocument();
+		int wordOffset = offset; String word; boolean tag;
+		try {
+			while(wordOffset>0&&DELIMITERS.indexOf(document.getChar(wordOffset-1))==-1)
+				wordOffset--;
+			word = document.get(wordOffset,offset-wordOffset);
+			tag = wordOffset>0&&document.getChar(wordOffset-1)=='<';
+		} catch(BadLocationException e) { return null; }
+		
+		//look up the keywords starting with the word (in html also the tags starting with the word, replacing the '<' if typed)
+		Keywords keywords = getKeywords(wordfile);
+		String prefix = word.toLowerCase();
+		int start = keywords.indexOf(prefix,false), end = keywords.indexOf(prefix,true), tagStart = end, tagEnd = end;
+		if(!prefix.isEmpty()&&wordfile.getType().equals(WordfileType.HTML_LANG)) {
+			tagStart = keywords.indexOf('<'+prefix,false);
+			tagEnd = keywords.indexOf('<'+prefix,true);
 		}
-		String word = wordBuilder.toString().toLowerCase();
 		
-		//check for words matching the completion proposal
-		viewer.getDocument().get().substring(offset);
+		//both ranges are ranges of the sorted keywords, proposing the range in front first sorts the proposals in the order of the keywords
 		List<ICompletionProposal> proposals = new ArrayList<ICompletionProposal>();
-		for(CodeFormat format:wordfile.getCodeFormats())
-			for(String keyword:format.getKeywords()) {
-				boolean propose = word.isEmpty();
-				if(!propose) propose = keyword.toLowerCase().startsWith(word);
-				if(!propose&&wordfile.getType().equals(WordfileType.HTML_LANG))
-					if(propose = keyword.toLowerCase().startsWith('<'+word))
-						word = '<'+word;
-				if(!propose) continue;
-				
-				Image image = images.get(format.getColors());
-				if(image==null) {
-					RGB color = format.getColors();
-					image = Utilities.changeHue(WordfileEditorActivator.getDefault().getImageRegistry().get("/icons/assist.png"),color.getHSB()[0]);
-					images.put(color,image);
-				}
-				proposals.add(new CompletionProposal(keyword,offset-word.length(),word.length(),keyword.length(),image,keyword,null,null));
-			}
-		
-		if(proposals.isEmpty())
-			return null;
-		//sort and return the proposals array
-		Collections.sort(proposals,new Comparator<ICompletionProposal>() {
-			@Override public int compare(ICompletionProposal proposal_a, ICompletionProposal proposal_b) {
-				return proposal_a.getDisplayString().compareTo(proposal_b.getDisplayString());
+		for(int range=0;range<2;range++) {
+			boolean tags = (range==0)==(tagStart<start);
+			for(int index=tags?tagStart:start,stop=tags?tagEnd:end;index<stop;index++) {
+				if(tags&&index>=start&&index<end)
+					continue; //the tag is proposed as a keyword
+				int replaceOffset = tags&&tag?wordOffset-1:wordOffset;
+				String keyword = keywords.keywords[index];
+				proposals.add(new CompletionProposal(keyword,replaceOffset,offset-replaceOffset,keyword.length(),
+					resources.getImage("/icons/assist.png",keywords.hues[index]),keyword,null,null));
 			}
-		});
-		return proposals.toArray(new ICompletionProposal[0]);
+		}
+		return !proposals.isEmpty()?proposals.toArray(new ICompletionProposal[0]):null;
+	}
+	
+	/**
+	 * returns the keywords of a wordfile and sorts them, if they are not cached yet
+	 * @param wordfile the wordfile to return the keywords of
+	 * @return the sorted keywords of the wordfile
+	 */
+	private static synchronized Keywords getKeywords(Wordfile wordfile) {
+		Keywords keywords = WordfileAssistProcessor.keywords.get(wordfile);
+		if(keywords==null||keywords.wordfile!=wordfile)
+			WordfileAssistProcessor.keywords.put(wordfile,keywords=new Keywords(wordfile));
+		return keywords;
 	}
 
 	/**
@@ -142,4 +161,70 @@ public class WordfileAssistProcessor implements IContentAssistProcessor {
 	 * this method was implemented empty @see IContentAssistProcessor#getContextInformationValidator
 	 */
 	@Override public IContextInformationValidator getContextInformationValidator() { return null; }
+	
+	/**
+	 * the keywords of all code formats of a wordfile, sorted by the lower case keyword, so the keywords starting with a prefix
+	 * (ignoring the case) are a range found by binary search
+	 * @author Kristian Kraljic
+	 */
+	static class Keywords {
+		/**
+		 * the wordfile of the keywords
+		 */
+		final Wordfile wordfile;
+		/**
+		 * the lower case keywords, the keywords and the hue of the color of the code format of each keyword
+		 */
+		final String[] keys,keywords;
+		final float[] hues;
+		
+		public Keywords(Wordfile wordfile) { this(wordfile,wordfile.getCodeFormats()); }
+		Keywords(Wordfile wordfile,Collection<CodeFormat> formats) {
+			this.wordfile = wordfile;
+			final List<String> keys = new ArrayList<String>(), keywords = new ArrayList<String>(); List<Float> hues = new ArrayList<Float>();
+			for(CodeFormat format:formats) {
+				float hue = format.getColors().getHSB()[0];
+				for(String keyword:format.getKeywords()) {
+					keys.add(keyword.toLowerCase());
+					keywords.add(keyword);
+					hues.add(hue);
+				}
+			}
+			
+			Integer[] order = new Integer[keys.size()];
+			for(int index=0;index<order.length;index++)
+				order[index] = index;
+			Arrays.sort(order,new Comparator<Integer>() {
+				@Override public int compare(Integer index_a,Integer index_b) {
+					int compare = keys.get(index_a).compareTo(keys.get(index_b));
+					return compare!=0?compare:keywords.get(index_a).compareTo(keywords.get(index_b));
+				}
+			});
+			this.keys = new String[order.length];
+			this.keywords = new String[order.length];
+			this.hues = new float[order.length];
+			for(int index=0;index<order.length;index++) {
+				this.keys[index] = keys.get(order[index]);
+				this.keywords[index] = keywords.get(order[index]);
+				this.hues[index] = hues.get(order[index]);
+			}
+		}
+		
+		/**
+		 * returns the first index of the range of keys starting with a prefix or the index behind the range
+		 * @param prefix the lower case prefix
+		 * @param end true to return the index behind the range
+		 * @return the index of the first key greater than or equal to (or starting with) the prefix / the first key greater than and not starting with the prefix
+		 */
+		public int indexOf(String prefix,boolean end) {
+			int low = 0, high = keys.length-1;
+			while(low<=high) {
+				int middle = (low+high)>>>1, compare = keys[middle].startsWith(prefix)?(end?-1:1):keys[middle].compareTo(prefix);
+				if(compare<0)
+					 low = middle+1;
+				else high = middle-1;
+			}
+			return low;
+		}
+	}
 }
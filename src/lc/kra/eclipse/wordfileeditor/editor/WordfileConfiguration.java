@@ -21,33 +21,50 @@
  */
 package lc.kra.eclipse.wordfileeditor.editor;
 
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LONG_LINE_LENGTH_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.getNumericPreference;
+
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.text.DefaultInformationControl;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IInformationControl;
 import org.eclipse.jface.text.IInformationControlCreator;
+import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.TextAttribute;
 import org.eclipse.jface.text.TextPresentation;
 import org.eclipse.jface.text.contentassist.ContentAssistant;
-import org.eclipse.jface.text.contentassist.IContentAssistProcessor;
 import org.eclipse.jface.text.contentassist.IContentAssistant;
+import org.eclipse.jface.text.presentation.IPresentationDamager;
 import org.eclipse.jface.text.presentation.IPresentationReconciler;
-import org.eclipse.jface.text.presentation.PresentationReconciler;
+import org.eclipse.jface.text.presentation.IPresentationRepairer;
+import org.eclipse.jface.text.reconciler.IReconciler;
 import org.eclipse.jface.text.rules.DefaultDamagerRepairer;
+import org.eclipse.jface.text.rules.IToken;
+import org.eclipse.jface.text.source.ICharacterPairMatcher;
 import org.eclipse.jface.text.source.ISourceViewer;
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.editors.text.TextSourceViewerConfiguration;
 
+import lc.kra.eclipse.wordfileeditor.annotation.WordfileBracketMatcher;
+import lc.kra.eclipse.wordfileeditor.editor.parse.AsyncPresentationReconciler;
+import lc.kra.eclipse.wordfileeditor.editor.parse.EmbeddedLanguageRule;
 import lc.kra.eclipse.wordfileeditor.editor.parse.NonRuleBasedDamagerRepairer;
+import lc.kra.eclipse.wordfileeditor.editor.parse.WordfileDamagerRepairer;
 import lc.kra.eclipse.wordfileeditor.editor.parse.WordfilePartitionScanner;
 import lc.kra.eclipse.wordfileeditor.editor.parse.WordfileScanner;
+import lc.kra.eclipse.wordfileeditor.editor.parse.WordfileScannerCache;
+import lc.kra.eclipse.wordfileeditor.utilities.ResourceManager;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
 
 /**
@@ -58,11 +75,26 @@ public class WordfileConfiguration extends TextSourceViewerConfiguration {
 	/**
 	 * the @see WordfileEditor this Configuration is used for 
 	 */
-	public final Wordfile wordfile;
+	public Wordfile wordfile;
 	/**
 	 * the WordfileScanner to highlight the Source using the @see Wordfile 
 	 */
 	private WordfileScanner scanner;
+	/**
+	 * the resource manager used for all colors and images of this configuration
+	 */
+	private ResourceManager resources;
+	/**
+	 * true if the configuration is used for a large file
+	 */
+	private boolean largeFile;
+	/**
+	 * the presentation reconciler, the damagers/repairers (by content type), the assist processor and the bracket matcher of this configuration, once created
+	 */
+	private AsyncPresentationReconciler reconciler;
+	private Map<String,IPresentationRepairer> repairers;
+	private WordfileAssistProcessor assist;
+	private WordfileBracketMatcher matcher;
 	
 	/**
 	 * Creates a new WordfileConfiguration
@@ -77,7 +109,8 @@ public class WordfileConfiguration extends TextSourceViewerConfiguration {
 	public WordfileConfiguration(Wordfile wordfile,IPreferenceStore preferenceStore) {
 		super(preferenceStore);
 		this.wordfile = wordfile;
-		scanner = new WordfileScanner(wordfile);
+		resources = new ResourceManager();
+		scanner = new WordfileScanner(wordfile,resources);
 	}
 	
 	/**
@@ -85,6 +118,88 @@ public class WordfileConfiguration extends TextSourceViewerConfiguration {
 	 * @return the WordfileScanner
 	 */
 	public WordfileScanner getWordfileScanner() { return scanner; }
+	/**
+	 * Returns the resource manager of this configuration
+	 * @return the ResourceManager
+	 */
+	public ResourceManager getResourceManager() { return resources; }
+	/**
+	 * sets the large file mode, in which no content assist and spell checking is provided and only the visible lines are highlighted.
+	 * Must be set before the configuration is applied to a source viewer
+	 * @param largeFile true to enable the large file mode
+	 */
+	public void setLargeFile(boolean largeFile) { this.largeFile = largeFile; }
+	/**
+	 * @return true if the configuration is used for a large file
+	 */
+	public boolean isLargeFile() { return largeFile; }
+	
+	/**
+	 * updates the configuration to another wordfile (usually another version of the same wordfile). The tokens of the scanner
+	 * and the text attributes of the repairers are updated in place, so only the token classes which changed their colors need
+	 * to be repainted. Must be called on the UI thread
+	 * @param wordfile the wordfile to use from now on
+	 * @return a map of the previous text attributes to the new text attributes, for all text attributes which changed or null
+	 *  if the keywords or rules of the wordfile changed, or the changed text attributes can not be told apart from the
+	 *  unchanged ones, so the whole document has to be highlighted again
+	 */
+	public Map<TextAttribute,TextAttribute> update(Wordfile wordfile) {
+		this.wordfile = wordfile;
+		if(assist!=null)
+			assist.setWordfile(wordfile);
+		if(reconciler!=null)
+			reconciler.resetRepairers(); //the repairers of the background job are created again using the new wordfile
+		
+		Map<IToken,TextAttribute> tokens = scanner.update(wordfile);
+		if(tokens==null&&repairers!=null&&repairers.get(IDocument.DEFAULT_CONTENT_TYPE) instanceof WordfileDamagerRepairer)
+			((WordfileDamagerRepairer)repairers.get(IDocument.DEFAULT_CONTENT_TYPE)).invalidate(); //the cached tokens are outdated
+		
+		//collect the previous and new text attributes of all token classes
+		Map<TextAttribute,TextAttribute> changed = new HashMap<TextAttribute,TextAttribute>();
+		Set<TextAttribute> unchanged = new HashSet<TextAttribute>();
+		boolean ambiguous = tokens==null;
+		if(tokens!=null)
+			for(IToken token:scanner.getTokens())
+				if(token!=null&&token.getData() instanceof TextAttribute)
+					ambiguous |= !collect(tokens.containsKey(token)?tokens.get(token):(TextAttribute)token.getData(),(TextAttribute)token.getData(),changed,unchanged);
+		if(repairers!=null&&wordfile!=null)
+			for(Map.Entry<String,TextAttribute> attribute:createPartitionAttributes().entrySet())
+				if(repairers.get(attribute.getKey()) instanceof NonRuleBasedDamagerRepairer) {
+					NonRuleBasedDamagerRepairer repairer = (NonRuleBasedDamagerRepairer)repairers.get(attribute.getKey());
+					ambiguous |= !collect(repairer.getDefaultTextAttribute(),attribute.getValue(),changed,unchanged);
+					repairer.setDefaultTextAttribute(attribute.getValue());
+				}
+		
+		if(ambiguous)
+			return null;
+		for(TextAttribute attribute:changed.keySet())
+			if(unchanged.contains(attribute)||(attribute.getForeground()==null&&attribute.getBackground()==null&&attribute.getFont()==null&&attribute.getStyle()==SWT.NORMAL))
+				return null; //unchanged text or unstyled text (without any style range) could not be told apart
+		return changed;
+	}
+	
+	/**
+	 * collects the previous and new text attribute of a token class
+	 * @return false if the previous text attribute was already collected with a different new text attribute
+	 */
+	private static boolean collect(TextAttribute previous,TextAttribute attribute,Map<TextAttribute,TextAttribute> changed,Set<TextAttribute> unchanged) {
+		previous = normalize(previous); attribute = normalize(attribute);
+		if(previous.equals(attribute)) {
+			unchanged.add(attribute);
+			return true;
+		}
+		TextAttribute other = changed.put(previous,attribute);
+		return other==null||other.equals(attribute);
+	}
+	
+	/**
+	 * normalizes a text attribute to the attributes applied to the style ranges of the text widget
+	 * @param attribute the text attribute to normalize
+	 * @return a text attribute equal to the text attribute of the style range created for the attribute
+	 */
+	public static TextAttribute normalize(TextAttribute attribute) {
+		return new TextAttribute(attribute.getForeground(),attribute.getBackground(),attribute.getStyle()&(SWT.BOLD|SWT.ITALIC|TextAttribute.STRIKETHROUGH|TextAttribute.UNDERLINE),attribute.getFont());
+	}
 	
 	/**
 	 * @return a list of Content-Types used in the highlighting
@@ -99,7 +214,9 @@ public class WordfileConfiguration extends TextSourceViewerConfiguration {
 		for(Wordfile.WordfileType type:Wordfile.WordfileType.values())
 			types.add(type.toString());
 		types.addAll(Arrays.asList(new String[]{IDocument.DEFAULT_CONTENT_TYPE,WordfilePartitionScanner.CONTENT_TYPE_SINGLE_LINE_COMMENT,
-				                                                               WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_COMMENT}));
+				                                                               WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_COMMENT,
+				                                                               WordfilePartitionScanner.CONTENT_TYPE_ALTERNATE_BLOCK_COMMENT,
+				                                                               WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_STRING}));
 		return types.toArray(new String[0]);
 	}
 	
@@ -108,50 +225,103 @@ public class WordfileConfiguration extends TextSourceViewerConfiguration {
 	 * @return if a wordfile is used a ContentAssist for this wordfile is returned
 	 */
 	public IContentAssistant getContentAssistant(ISourceViewer sourceViewer) {
+		if(largeFile)
+			return null; //no keyword proposals for large files
 	    ContentAssistant assistant = new ContentAssistant();
-	    IContentAssistProcessor assist = new WordfileAssistProcessor(wordfile);
+	    assist = new WordfileAssistProcessor(wordfile,resources);
 	    assistant.setContentAssistProcessor(assist,IDocument.DEFAULT_CONTENT_TYPE);
 	    assistant.setInformationControlCreator(getInformationControlCreator(sourceViewer));
 	    return assistant;
 	}
 	
+	/**
+	 * returns the matcher for the brace strings of the wordfile
+	 * @return a WordfileBracketMatcher or null for large files or if the wordfile defines no brace strings
+	 */
+	public ICharacterPairMatcher getCharacterPairMatcher() {
+		if(largeFile||!WordfileBracketMatcher.hasBraceStrings(wordfile))
+			return null;
+		if(matcher==null)
+			matcher = new WordfileBracketMatcher();
+		return matcher;
+	}
+	
+	/**
+	 * @return the spelling reconciler or null for large files
+	 */
+	@Override public IReconciler getReconciler(ISourceViewer sourceViewer) {
+		return largeFile?null:super.getReconciler(sourceViewer);
+	}
+	
 	/**
 	 * @return Returns the IPresentationReconciler for a s SourceViewer
 	 */
 	public IPresentationReconciler getPresentationReconciler(ISourceViewer sourceViewer) {
-		PresentationReconciler reconciler = new PresentationReconciler();
-		
-		DefaultDamagerRepairer dr; NonRuleBasedDamagerRepairer ndr;
+		reconciler = new AsyncPresentationReconciler() {
+			@Override protected Map<String,IPresentationRepairer> createRepairers() {
+				return WordfileConfiguration.this.createRepairers(new WordfileScanner(wordfile,resources),false);
+			}
+			@Override public void install(ITextViewer viewer) {
+				super.install(viewer);
+				if(getRepairer(IDocument.DEFAULT_CONTENT_TYPE) instanceof WordfileDamagerRepairer)
+					((WordfileDamagerRepairer)getRepairer(IDocument.DEFAULT_CONTENT_TYPE)).install(viewer);
+			}
+			@Override public void uninstall() {
+				if(getRepairer(IDocument.DEFAULT_CONTENT_TYPE) instanceof WordfileDamagerRepairer)
+					((WordfileDamagerRepairer)getRepairer(IDocument.DEFAULT_CONTENT_TYPE)).uninstall();
+				super.uninstall();
+			}
+		};
+		reconciler.setViewportOnly(largeFile); //large files are only highlighted where they are visible
+		int longLineLength = (int)Math.min(getNumericPreference(LONG_LINE_LENGTH_PREFERENCE,WordfileDamagerRepairer.DEFAULT_LONG_LINE_LENGTH),Integer.MAX_VALUE);
+		repairers = createRepairers(scanner,!largeFile);
+		for(Map.Entry<String,IPresentationRepairer> repairer:repairers.entrySet()) {
+			if(repairer.getValue() instanceof WordfileDamagerRepairer) { //long lines are highlighted on the UI thread, in blocks
+				((WordfileDamagerRepairer)repairer.getValue()).setLongLineLength(longLineLength);
+				reconciler.setLongLineLength(longLineLength);
+			}
+			reconciler.setDamager((IPresentationDamager)repairer.getValue(),repairer.getKey());
+			reconciler.setRepairer(repairer.getValue(),repairer.getKey());
+		}
+		return reconciler;
+	}
+	
+	/**
+	 * creates the damagers/repairers for all content types
+	 * @param scanner the scanner to use for the default content type
+	 * @param cache if true the tokens of the default content type are cached per line (used for the repairers of the UI thread)
+	 * @return a map of damagers/repairers by content type
+	 */
+	protected Map<String,IPresentationRepairer> createRepairers(WordfileScanner scanner,boolean cache) {
+		Map<String,IPresentationRepairer> repairers = new LinkedHashMap<String,IPresentationRepairer>();
 		
-		dr = new DefaultDamagerRepairer(scanner);
-		reconciler.setDamager(dr,IDocument.DEFAULT_CONTENT_TYPE);
-        reconciler.setRepairer(dr,IDocument.DEFAULT_CONTENT_TYPE);
+		if(cache) //caches the tokens of each line, so only changed lines are scanned again
+			 repairers.put(IDocument.DEFAULT_CONTENT_TYPE,new WordfileDamagerRepairer(scanner));
+		else repairers.put(IDocument.DEFAULT_CONTENT_TYPE,new DefaultDamagerRepairer(scanner));
         
 		if(wordfile!=null) { //if a wordfile is used, return additional areas
-			ndr = new NonRuleBasedDamagerRepairer(new TextAttribute(convertColor(wordfile.getColors()[Wordfile.COLOR_COMMENT]),convertColor(wordfile.getColorsBack()[Wordfile.COLOR_COMMENT]),wordfile.getFontStyle()[Wordfile.COLOR_COMMENT]));
-			reconciler.setDamager(ndr,WordfilePartitionScanner.CONTENT_TYPE_SINGLE_LINE_COMMENT);
-			reconciler.setRepairer(ndr,WordfilePartitionScanner.CONTENT_TYPE_SINGLE_LINE_COMMENT);
-	
-			ndr = new NonRuleBasedDamagerRepairer(new TextAttribute(convertColor(wordfile.getColors()[Wordfile.COLOR_ALTERNATE_BLOCK_COMMENT]),convertColor(wordfile.getColorsBack()[Wordfile.COLOR_ALTERNATE_BLOCK_COMMENT]),wordfile.getFontStyle()[Wordfile.COLOR_ALTERNATE_BLOCK_COMMENT]));
-			reconciler.setDamager(ndr,WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_COMMENT);
-			reconciler.setRepairer(ndr,WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_COMMENT);
+			for(Map.Entry<String,TextAttribute> attribute:createPartitionAttributes().entrySet())
+				repairers.put(attribute.getKey(),new NonRuleBasedDamagerRepairer(attribute.getValue()));
 			
-			if(wordfile.getType().equals(Wordfile.WordfileType.HTML_LANG)) { //especially if it is HTML, inner languages need to be displayed
-				dr = new DefaultDamagerRepairer(new WordfileScanner(Wordfile.getWordfile(Wordfile.WordfileType.CSS_LANG)));
-				reconciler.setDamager(dr,Wordfile.WordfileType.CSS_LANG.toString());
-		        reconciler.setRepairer(dr,Wordfile.WordfileType.CSS_LANG.toString());
-		        
-		        dr = new DefaultDamagerRepairer(new WordfileScanner(Wordfile.getWordfile(Wordfile.WordfileType.JSCRIPT_LANG)));
-		        reconciler.setDamager(dr,Wordfile.WordfileType.JSCRIPT_LANG.toString());
-		        reconciler.setRepairer(dr,Wordfile.WordfileType.JSCRIPT_LANG.toString());
-		        
-		        dr = new DefaultDamagerRepairer(new WordfileScanner(Wordfile.getWordfile(Wordfile.WordfileType.PHP_LANG)));
-		        reconciler.setDamager(dr,Wordfile.WordfileType.PHP_LANG.toString());
-		        reconciler.setRepairer(dr,Wordfile.WordfileType.PHP_LANG.toString());
-			}
+			//embedded languages (e.g. CSS, JavaScript and PHP in HTML) are highlighted using the scanners of their wordfiles
+			for(EmbeddedLanguageRule.Region region:EmbeddedLanguageRule.getRegions(wordfile))
+				repairers.put(region.type.toString(),new DefaultDamagerRepairer(WordfileScannerCache.getScanner(Wordfile.getWordfile(region.type))));
 		}
 		
-		return reconciler;
+		return repairers;
+	}
+	
+	/**
+	 * creates the text attributes of the comment and string content types for the wordfile
+	 * @return a map of text attributes by content type
+	 */
+	private Map<String,TextAttribute> createPartitionAttributes() {
+		Map<String,TextAttribute> attributes = new LinkedHashMap<String,TextAttribute>();
+		attributes.put(WordfilePartitionScanner.CONTENT_TYPE_SINGLE_LINE_COMMENT,new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_COMMENT]),resources.getColor(wordfile.getColorsBack()[Wordfile.COLOR_COMMENT]),wordfile.getFontStyle()[Wordfile.COLOR_COMMENT]));
+		attributes.put(WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_COMMENT,new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_COMMENT]),resources.getColor(wordfile.getColorsBack()[Wordfile.COLOR_COMMENT]),wordfile.getFontStyle()[Wordfile.COLOR_COMMENT]));
+		attributes.put(WordfilePartitionScanner.CONTENT_TYPE_ALTERNATE_BLOCK_COMMENT,new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_ALTERNATE_BLOCK_COMMENT]),resources.getColor(wordfile.getColorsBack()[Wordfile.COLOR_ALTERNATE_BLOCK_COMMENT]),wordfile.getFontStyle()[Wordfile.COLOR_ALTERNATE_BLOCK_COMMENT]));
+		attributes.put(WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_STRING,new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_STRING]))); //like the strings of the WordfileScanner
+		return attributes;
 	}
 	
 	/**
@@ -170,9 +340,11 @@ public class WordfileConfiguration extends TextSourceViewerConfiguration {
 	}
 
 	/**
-	 * converts  an RGB value to a color
-	 * @param rgb the RGB value
-	 * @return a color for this RGB value
+	 * releases all colors and images allocated by this configuration and stops matching brackets
 	 */
-	public static Color convertColor(RGB rgb) { return new Color(Display.getCurrent(),rgb); }
+	public void dispose() {
+		resources.dispose();
+		if(matcher!=null)
+			matcher.dispose();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,337 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DefaultLineTracker;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ILineTracker;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextStore;
+import org.eclipse.jface.text.Region;
+
+/**
+ * The WordfileDocument is a document backed by a PieceTableTextStore (for large files on a memory-mapped copy of the file) and
+ * provides snapshots of its content, which may be read by other threads
+ * @author Kristian Kraljic
+ */
+public class WordfileDocument extends Document {
+	/**
+	 * the number of characters passed to the line tracker at once
+	 */
+	private static final int TRACKER_CHUNK_SIZE = 64*1024;
+
+	/**
+	 * true if the line tracker was not filled with the content of the text store yet (snapshots may be read by several threads)
+	 */
+	private volatile boolean untracked;
+	/**
+	 * true while the original content is loaded progressively
+	 */
+	private boolean loading;
+	/**
+	 * the runnables to run as soon as the document was loaded completely
+	 */
+	private List<Runnable> loadedRunnables = new ArrayList<Runnable>();
+	/**
+	 * the modification stamp of the document a snapshot was taken from, or unknown for any other document
+	 */
+	private long snapshotStamp = UNKNOWN_MODIFICATION_STAMP;
+
+	/**
+	 * creates a new empty WordfileDocument, backed by a PieceTableTextStore, so snapshots never copy the content
+	 */
+	public WordfileDocument() { this(new PieceTableTextStore()); }
+	/**
+	 * creates a new WordfileDocument backed by a text store
+	 * @param store the text store
+	 */
+	protected WordfileDocument(PieceTableTextStore store) {
+		super();
+		setStore(store);
+	}
+
+	/**
+	 * replaces the content of this document with the content of a text store, without notifying any listeners.
+	 * Must only be called before the document is used by anyone
+	 * @param store the text store to use
+	 */
+	public void load(PieceTableTextStore store) { setStore(store); }
+
+	/**
+	 * marks the document as loading, the document should contain the beginning of the file until {@link #loadOriginal(PieceTableTextStore)}
+	 * is called. The document stays loading until {@link #finishLoading()} is called
+	 */
+	public void startLoading() { loading = true; }
+	
+	/**
+	 * sets the store to load the document from progressively. The beginning of the file already contained in the document is replaced
+	 * by the beginning of the original content of the store, if it differs. The rest of the original content is appended
+	 * using {@link #appendLoaded(int)}. Must be called on the UI thread
+	 * @param store the text store with the original content
+	 */
+	public void loadOriginal(PieceTableTextStore store) {
+		String text = get();
+		if(!store.startLoad(text)) {
+			setTextStore(store);
+			replaceOriginal(0,text.length(),0,Math.min(text.length(),store.getOriginalLength()));
+		} else setTextStore(store); //the content did not change, the line tracker stays valid
+	}
+	
+	/**
+	 * appends the next chunk of the original content of the store to the document, listeners are notified like for any
+	 * other change of the document. Must be called on the UI thread
+	 * @param length the number of characters to append
+	 * @return true if a chunk was appended, false if the original content was loaded completely
+	 */
+	public boolean appendLoaded(int length) {
+		ITextStore store = getStore();
+		if(!(store instanceof PieceTableTextStore))
+			return false;
+		PieceTableTextStore pieceTable = (PieceTableTextStore)store;
+		int offset = pieceTable.getLoadedLength();
+		if((length=Math.min(length,pieceTable.getOriginalLength()-offset))<=0)
+			return false;
+		if(offset+length<pieceTable.getOriginalLength()&&pieceTable.getOriginal(offset+length-1,1).charAt(0)=='\r')
+			length++; //never split a \r\n delimiter
+		replaceOriginal(getLength(),0,offset,length);
+		return true;
+	}
+	
+	/**
+	 * finishes loading the document and runs all runnables waiting for the document to be loaded. Must be called on the UI thread
+	 */
+	public void finishLoading() {
+		loading = false;
+		List<Runnable> runnables = loadedRunnables;
+		loadedRunnables = new ArrayList<Runnable>();
+		for(Runnable runnable:runnables)
+			runnable.run();
+	}
+	
+	/**
+	 * marks that loading the document failed or was canceled. The document stays loading, so the incomplete document is never
+	 * edited or saved, the runnables waiting for the document to be loaded are discarded. Must be called on the UI thread
+	 */
+	public void failLoading() { loadedRunnables.clear(); }
+	
+	/**
+	 * @return true while the document is loaded progressively or if loading it failed
+	 */
+	public boolean isLoading() { return loading; }
+	
+	/**
+	 * runs a runnable as soon as the document was loaded completely or immediately if the document is not loading
+	 * @param runnable the runnable to run on the UI thread
+	 */
+	public void whenLoaded(Runnable runnable) {
+		if(loading)
+			 loadedRunnables.add(runnable);
+		else runnable.run();
+	}
+
+	/**
+	 * returns a snapshot of the current content of the document. If the document is backed by a PieceTableTextStore,
+	 * creating the snapshot does not copy the content and the snapshot gets a copy of the line offsets of the document
+	 * (if its line tracker was filled already), so the lines of the snapshot are never computed from its content again.
+	 * The snapshot has the same modification stamp as the document. Must be called on the thread changing the document
+	 * @return an independent document with the same content
+	 */
+	public IDocument getSnapshot() {
+		ITextStore store = getStore();
+		if(store instanceof PieceTableTextStore) {
+			WordfileDocument snapshot = new WordfileDocument(((PieceTableTextStore)store).snapshot());
+			snapshot.snapshotStamp = getModificationStamp();
+			if(!untracked) try {
+				snapshot.setLineTracker(LineOffsetTracker.copy(snapshot.getStore(),super.getTracker()));
+				snapshot.untracked = false;
+			} catch(BadLocationException e) { e.printStackTrace(); }
+			return snapshot;
+		} else {
+			Document snapshot = new Document();
+			snapshot.set(get(),getModificationStamp());
+			return snapshot;
+		}
+	}
+	
+	/**
+	 * returns the modification stamp of the document, for a snapshot the stamp of the document at the time the snapshot was taken
+	 */
+	@Override public long getModificationStamp() {
+		return snapshotStamp!=UNKNOWN_MODIFICATION_STAMP?snapshotStamp:super.getModificationStamp();
+	}
+
+	/**
+	 * returns the line tracker of the document, which is filled with the content of the text store on first access. The tracker
+	 * is filled once, even if several threads read a snapshot at the same time, and only published after it was filled
+	 */
+	@Override protected ILineTracker getTracker() {
+		ILineTracker tracker = super.getTracker();
+		if(untracked) synchronized(tracker) {
+			if(untracked) {
+				//pass the content to the line tracker in chunks (but never split a \r\n delimiter), not to copy the whole content at once
+				CharSequence text = (CharSequence)getStore();
+				tracker.set(new String());
+				try {
+					for(int offset=0,length=text.length();offset<length;) {
+						int end = Math.min(offset+TRACKER_CHUNK_SIZE,length);
+						if(end<length&&text.charAt(end-1)=='\r')
+							end++;
+						tracker.replace(offset,0,text.subSequence(offset,end).toString());
+						offset = end;
+					}
+				} catch(BadLocationException e) { e.printStackTrace(); }
+				untracked = false;
+			}
+		}
+		return tracker;
+	}
+	
+	/**
+	 * fills the line tracker before the text store is changed, as the document changes the store before the tracker. The copied
+	 * line offsets of a snapshot cannot be changed, so a snapshot which is changed gets a line tracker filled from its content
+	 */
+	@Override public void replace(int offset,int length,String text,long modificationStamp) throws BadLocationException {
+		if(super.getTracker() instanceof LineOffsetTracker) {
+			setLineTracker(new DefaultLineTracker());
+			untracked = true;
+		}
+		getTracker();
+		super.replace(offset,length,text,modificationStamp);
+	}
+	/**
+	 * replaces the copied line offsets of a snapshot before its content is set, the line tracker is filled with the new content
+	 */
+	@Override public void set(String text,long modificationStamp) {
+		if(super.getTracker() instanceof LineOffsetTracker) {
+			setLineTracker(new DefaultLineTracker());
+			untracked = false;
+		}
+		super.set(text,modificationStamp);
+	}
+
+	/**
+	 * replaces a range of the document by a range of the original content of the piece table store
+	 * @param offset the offset of the range to replace
+	 * @param length the length of the range to replace
+	 * @param originalOffset the offset of the range in the original content
+	 * @param originalLength the length of the range in the original content
+	 */
+	private void replaceOriginal(int offset,int length,int originalOffset,int originalLength) {
+		PieceTableTextStore store = (PieceTableTextStore)getStore();
+		String text = store.getOriginal(originalOffset,originalLength);
+		store.mapNextReplace(originalOffset,originalLength);
+		try { replace(offset,length,text); }
+		catch(BadLocationException e) { e.printStackTrace(); }
+		finally { store.mapNextReplace(-1,0); }
+	}
+
+	/**
+	 * sets a new text store and an empty line tracker, which is filled lazily
+	 * @param store the text store to set
+	 */
+	private void setStore(PieceTableTextStore store) {
+		setTextStore(store);
+		setLineTracker(new DefaultLineTracker());
+		untracked = true;
+	}
+	
+	/**
+	 * The LineOffsetTracker is an unmodifiable line tracker of a snapshot, which knows the offsets and the delimiters of all lines
+	 * of the snapshot (as index of the legal delimiter plus one, or zero for no delimiter). The tracker may be read by several threads
+	 */
+	private static class LineOffsetTracker implements ILineTracker {
+		private static final List<String> DELIMITERS = Arrays.asList(DefaultLineTracker.DELIMITERS);
+		
+		private final ITextStore store;
+		private final int[] offsets;
+		private final byte[] delimiters;
+		private LineOffsetTracker(ITextStore store,int[] offsets,byte[] delimiters) {
+			this.store = store;
+			this.offsets = offsets;
+			this.delimiters = delimiters;
+		}
+		/**
+		 * copies the lines known to a line tracker, without reading the content of the document. The lines of another
+		 * LineOffsetTracker are not copied, as they never change
+		 * @param store the text store of the snapshot, with the same content as the document of the tracker
+		 * @param tracker the line tracker of the document
+		 * @return a tracker with the same lines
+		 * @throws BadLocationException if the tracker is inconsistent
+		 */
+		public static LineOffsetTracker copy(ITextStore store,ILineTracker tracker) throws BadLocationException {
+			if(tracker instanceof LineOffsetTracker)
+				return new LineOffsetTracker(store,((LineOffsetTracker)tracker).offsets,((LineOffsetTracker)tracker).delimiters);
+			int[] offsets = new int[tracker.getNumberOfLines()];
+			byte[] delimiters = new byte[offsets.length];
+			for(int line=0;line<offsets.length;line++) {
+				offsets[line] = tracker.getLineOffset(line);
+				delimiters[line] = (byte)(DELIMITERS.indexOf(tracker.getLineDelimiter(line))+1);
+			}
+			return new LineOffsetTracker(store,offsets,delimiters);
+		}
+		@Override public String[] getLegalLineDelimiters() { return DefaultLineTracker.DELIMITERS; }
+		@Override public String getLineDelimiter(int line) throws BadLocationException {
+			checkLine(line);
+			return delimiters[line]!=0?DELIMITERS.get(delimiters[line]-1):null;
+		}
+		@Override public int computeNumberOfLines(String text) { return new DefaultLineTracker().computeNumberOfLines(text); }
+		@Override public int getNumberOfLines() { return offsets.length; }
+		@Override public int getNumberOfLines(int offset,int length) throws BadLocationException {
+			if(length==0)
+				return 1;
+			return getLineNumberOfOffset(offset+length)-getLineNumberOfOffset(offset)+1;
+		}
+		@Override public int getLineOffset(int line) throws BadLocationException {
+			checkLine(line);
+			return offsets[line];
+		}
+		@Override public int getLineLength(int line) throws BadLocationException {
+			checkLine(line);
+			return (line<offsets.length-1?offsets[line+1]:store.getLength())-offsets[line];
+		}
+		@Override public int getLineNumberOfOffset(int offset) throws BadLocationException {
+			if(offset<0||offset>store.getLength())
+				throw new BadLocationException();
+			int line = Arrays.binarySearch(offsets,offset);
+			return line>=0?line:-line-2;
+		}
+		@Override public IRegion getLineInformationOfOffset(int offset) throws BadLocationException {
+			return getLineInformation(getLineNumberOfOffset(offset));
+		}
+		@Override public IRegion getLineInformation(int line) throws BadLocationException {
+			String delimiter = getLineDelimiter(line);
+			return new Region(offsets[line],getLineLength(line)-(delimiter!=null?delimiter.length():0));
+		}
+		@Override public void replace(int offset,int length,String text) { throw new UnsupportedOperationException(); }
+		@Override public void set(String text) { throw new UnsupportedOperationException(); }
+		private void checkLine(int line) throws BadLocationException {
+			if(line<0||line>=offsets.length)
+				throw new BadLocationException();
+		}
+	}
+}
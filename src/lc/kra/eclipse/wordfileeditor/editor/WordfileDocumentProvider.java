@@ -21,13 +21,32 @@
  */
 package lc.kra.eclipse.wordfileeditor.editor;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.content.IContentType;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentPartitioner;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.text.undo.DocumentUndoManagerRegistry;
+import org.eclipse.text.undo.IDocumentUndoManager;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IFileEditorInput;
 import org.eclipse.ui.editors.text.FileDocumentProvider;
 
+import lc.kra.eclipse.wordfileeditor.WordfileEditorActivator;
 import lc.kra.eclipse.wordfileeditor.editor.parse.WordfilePartitionScanner;
 import lc.kra.eclipse.wordfileeditor.editor.parse.WordfilePartitioner;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
@@ -46,6 +65,24 @@ public class WordfileDocumentProvider extends FileDocumentProvider { //example T
      */
     public static final IContentType WORDFILE_CONTENT_TYPE = Platform.getContentTypeManager().getContentType(WordfileEditor.class.getName()+".contentType");
     
+    /**
+     * the number of characters of a large file shown, before the rest of the file is loaded in the background
+     */
+    private static final int FIRST_CHUNK_SIZE = 128*1024;
+    /**
+     * the minimal number of characters appended to a large document at once while it is loaded in the background
+     */
+    private static final int LOAD_CHUNK_SIZE = 256*1024;
+    /**
+     * the time in milliseconds appending a chunk may take on the UI thread, before the chunks appended at once stop growing
+     */
+    private static final long LOAD_SLICE_MILLIS = 50;
+    
+    /**
+     * the jobs loading large documents in the background by element and the jobs to load the content set last for an element
+     */
+    private final Map<Object,LoadJob> loadJobs = new HashMap<Object,LoadJob>(), pendingLoadJobs = new HashMap<Object,LoadJob>();
+    
     /**
      * creates an initial WordfileDocumentProvider for plugin purpose
      */
@@ -59,9 +96,38 @@ public class WordfileDocumentProvider extends FileDocumentProvider { //example T
     	this.wordfile = wordfile;
     }
     
+    /**
+     * all documents are created as WordfileDocuments
+     */
+    @Override protected IDocument createEmptyDocument() { return new WordfileDocument(); }
+    
+    /**
+     * large files are not read into the heap, but backed by a PieceTableTextStore on a memory-mapped copy of the file. Only the
+     * beginning of the file is read, the rest of the file is loaded in the background, as soon as the content was set to the
+     * document of the element (when the element is connected, reverted or synchronized with the file)
+     */
+    @Override protected boolean setDocumentContent(IDocument document,IEditorInput editorInput,String encoding) throws CoreException {
+    	if(document instanceof WordfileDocument&&editorInput instanceof IFileEditorInput) {
+    		IFile file = ((IFileEditorInput)editorInput).getFile();
+    		if(file.getLocation()!=null&&file.isSynchronized(IResource.DEPTH_ZERO)&&WordfileEditor.isLargeFile(file,null))
+    			try {
+    				File location = file.getLocation().toFile();
+    				if(encoding==null)
+    					encoding = getDefaultEncoding();
+    				((WordfileDocument)document).load(new PieceTableTextStore(PieceTableTextStore.read(location,encoding,FIRST_CHUNK_SIZE)));
+    				pendingLoadJobs.put(editorInput,new LoadJob(editorInput,location,encoding));
+    				return true;
+    			} catch(IOException e) { e.printStackTrace(); } //read the file as usual
+    	}
+    	return super.setDocumentContent(document,editorInput,encoding);
+    }
+    
     @Override protected IDocument createDocument(Object element) throws CoreException {
-		IDocument document = super.createDocument(element);
+    	IDocument document = super.createDocument(element);
 		if(document!=null) {
+			//large files are not partitioned (the whole document is highlighted as default content type), including those loaded in the background
+			if(WordfileEditor.isLargeFile(element instanceof IFileEditorInput?((IFileEditorInput)element).getFile():null,document))
+				return document;
 	        IDocumentPartitioner partitioner;
 	        (partitioner=new WordfilePartitioner(new WordfilePartitionScanner(wordfile),WordfileConfiguration.getContentTypes())).connect(document);
 	        document.setDocumentPartitioner(partitioner);
@@ -69,10 +135,248 @@ public class WordfileDocumentProvider extends FileDocumentProvider { //example T
 		} else return null;
     }
 	
+    /**
+     * starts loading the document in the background, after the element info was created
+     */
+    @Override protected ElementInfo createElementInfo(Object element) throws CoreException {
+    	ElementInfo info = super.createElementInfo(element);
+    	startLoading(element,info);
+    	return info;
+    }
+    
+    /**
+     * starts loading the document in the background, after its content was replaced by reverting or synchronizing it with the file.
+     * The document is marked as loading before the listeners are notified, so the editor does not become editable
+     */
+    @Override protected void fireElementContentReplaced(Object element) {
+    	startLoading(element,getElementInfo(element));
+    	super.fireElementContentReplaced(element);
+    }
+    
+    /**
+     * synchronizes the document with the file, the beginning of a large file is read on the UI thread, the rest is loaded in the background
+     */
+    @Override protected void handleElementContentChanged(IFileEditorInput fileEditorInput) {
+    	super.handleElementContentChanged(fileEditorInput);
+    	pendingLoadJobs.remove(fileEditorInput); //the content of the document did not change
+    }
+    
+    /**
+     * reverts the document, the beginning of a large file is read on the UI thread, the rest is loaded in the background
+     */
+    @Override protected void doResetDocument(Object element,IProgressMonitor monitor) throws CoreException {
+    	super.doResetDocument(element,monitor);
+    	pendingLoadJobs.remove(element);
+    }
+    
+    /**
+     * cancels loading the document in the background
+     */
+    @Override protected void disposeElementInfo(Object element,ElementInfo info) {
+    	pendingLoadJobs.remove(element);
+    	LoadJob job = loadJobs.remove(element);
+    	if(job!=null)
+    		job.stop();
+    	super.disposeElementInfo(element,info);
+    }
+    
+    /**
+     * starts the job loading the rest of the content set last for an element into its document. A running job is canceled, as
+     * the content it loads was replaced, a document which failed to load is complete again if its whole content was replaced
+     * @param element the element
+     * @param info the element info of the element or null
+     */
+    private void startLoading(Object element,ElementInfo info) {
+    	LoadJob job = pendingLoadJobs.remove(element), running = loadJobs.remove(element);
+    	if(running!=null)
+    		running.stop();
+    	if(info==null||!(info.fDocument instanceof WordfileDocument))
+    		return;
+    	if(running!=null)
+    		addUnchangedElementListeners(element,info); //removed by the running job
+    	if(job!=null) {
+    		loadJobs.put(element,job);
+    		job.start((WordfileDocument)info.fDocument);
+    	} else if(((WordfileDocument)info.fDocument).isLoading())
+    		((WordfileDocument)info.fDocument).finishLoading(); //the content was replaced completely, e.g. after loading failed
+    }
+    
+    /**
+     * a document is not modifiable while it is loaded in the background or if loading it failed
+     */
+    @Override public boolean isModifiable(Object element) { return super.isModifiable(element)&&!isLoading(element); }
+    /**
+     * an incomplete document can never be saved, not to overwrite the file with a part of it
+     */
+    @Override public boolean canSaveDocument(Object element) { return super.canSaveDocument(element)&&!isLoading(element); }
+    /**
+     * @return true if the document of an element is loaded in the background or loading it failed
+     */
+    private boolean isLoading(Object element) {
+    	IDocument document = getDocument(element);
+    	return document instanceof WordfileDocument&&((WordfileDocument)document).isLoading();
+    }
+    
     /**
      * the content type is always the @see WORDFILE_CONTENT_TYPE
      */
     @Override public IContentType getContentType(Object element) throws CoreException {
     	return WORDFILE_CONTENT_TYPE;
     }
+    
+    /**
+     * the LoadJob maps a copy of a large file and appends it to the document on the UI thread. The chunks appended at once grow
+     * as long as appending them is fast, so a large file is appended with few document changes. While the document is loaded,
+     * appending does neither make the document dirty nor can it be undone (the document is not editable while loading)
+     * @author Kristian Kraljic
+     */
+    private class LoadJob extends Job {
+    	private final Object element;
+    	private WordfileDocument document;
+    	private final File file;
+    	private final String encoding;
+    	/**
+    	 * the display of the UI thread the document is appended on
+    	 */
+    	private final Display display;
+    	/**
+    	 * true if the job was canceled, because the document was disconnected or its content replaced
+    	 */
+    	private volatile boolean stopped;
+    	
+    	public LoadJob(Object element,File file,String encoding) {
+    		super("Loading "+file.getName());
+    		this.element = element;
+    		this.file = file;
+    		this.encoding = encoding;
+    		display = Display.getCurrent()!=null?Display.getCurrent():Display.getDefault();
+    	}
+    	
+    	/**
+    	 * marks a document containing the beginning of the file as loading and schedules the job to load the rest of the file into it.
+    	 * Must be called on the UI thread
+    	 * @param document the document
+    	 */
+    	public void start(WordfileDocument document) {
+    		this.document = document;
+    		document.startLoading();
+    		schedule();
+    	}
+    	
+    	/**
+    	 * appends the file to the document. The document only becomes editable again, after the file was loaded completely: if
+    	 * the job is canceled or the file can not be read, the incomplete document stays read-only and can not be saved
+    	 */
+    	@Override protected IStatus run(IProgressMonitor monitor) {
+    		final boolean[] loaded = new boolean[]{false};
+    		IStatus status = Status.OK_STATUS;
+    		try {
+    			PieceTableTextStore opened;
+    			try { opened = PieceTableTextStore.open(file,encoding); }
+    			catch(IOException e) { //the file could not be mapped, read it into the heap, not to leave the document truncated
+    				e.printStackTrace();
+    				opened = new PieceTableTextStore(PieceTableTextStore.read(file,encoding,(int)Math.min(file.length(),Integer.MAX_VALUE-1)));
+    			}
+    			final PieceTableTextStore store = opened;
+    			final boolean[] appended = new boolean[]{false};
+    			syncExec(new Runnable() {
+    				@Override public void run() {
+    					ElementInfo info = getElementInfo(element);
+    					if(appended[0]=isConnected()) {
+    						//appending should neither mark the document as dirty nor should it be undoable
+    						removeUnchangedElementListeners(element,info);
+    						document.loadOriginal(store);
+    						resetUndoManager();
+    					}
+    				}
+    			});
+    			final int[] length = new int[]{LOAD_CHUNK_SIZE};
+    			final long[] elapsed = new long[1];
+    			while(appended[0]) {
+    				if(monitor.isCanceled())
+    					return status = stopped?Status.CANCEL_STATUS:new Status(IStatus.WARNING,WordfileEditorActivator.PLUGIN_ID,"Loading "+file.getName()+" was canceled, the document is incomplete and read-only");
+    				appended[0] = false;
+    				if(!syncExec(new Runnable() {
+    					@Override public void run() {
+    						long start = System.nanoTime();
+    						if(isConnected())
+    							loaded[0] = !(appended[0]=document.appendLoaded(length[0]));
+    						elapsed[0] = (System.nanoTime()-start)/1000000;
+    					}
+    				})) return Status.CANCEL_STATUS;
+    				if(elapsed[0]<LOAD_SLICE_MILLIS)
+    					length[0] = (int)Math.min(length[0]*2l,Integer.MAX_VALUE/2);
+    				else if(elapsed[0]>LOAD_SLICE_MILLIS*2)
+    					length[0] = Math.max(length[0]/2,LOAD_CHUNK_SIZE);
+    			}
+    			return status;
+    		} catch(IOException e) {
+    			e.printStackTrace();
+    			return status = new Status(IStatus.ERROR,WordfileEditorActivator.PLUGIN_ID,"Could not load "+file.getName()+", the document is incomplete and read-only",e);
+    		} finally {
+    			final IStatus result = status;
+    			syncExec(new Runnable() {
+    				@Override public void run() {
+    					if(!isConnected())
+    						return; //the document was disconnected or its content replaced
+    					ElementInfo info = getElementInfo(element);
+    					info.fCanBeSaved = false;
+    					resetUndoManager();
+    					addUnchangedElementListeners(element,info);
+    					if(loaded[0])
+    						 document.finishLoading();
+    					else {
+    						document.failLoading();
+    						info.fStatus = result;
+    					}
+    					loadJobs.remove(element);
+    					fireElementDirtyStateChanged(element,false);
+    				}
+    			});
+    		}
+    	}
+    	
+    	/**
+    	 * cancels the job, because the document was disconnected or its content replaced
+    	 */
+    	public void stop() {
+    		stopped = true;
+    		cancel();
+    	}
+    	
+    	/**
+    	 * runs a runnable on the UI thread and waits for it to finish
+    	 * @param runnable the runnable
+    	 * @return false if the display was disposed and the runnable was not run
+    	 */
+    	private boolean syncExec(Runnable runnable) {
+    		if(display.isDisposed())
+    			return false;
+    		try { display.syncExec(runnable); }
+    		catch(SWTException e) {
+    			if(e.code==SWT.ERROR_DEVICE_DISPOSED)
+    				return false; //the display was disposed in the meantime
+    			throw e;
+    		}
+    		return true;
+    	}
+    	
+    	/**
+    	 * checks if the document is still connected to the provider and no other job loads it. Must be called on the UI thread
+    	 * @return true if the document is still connected to the provider
+    	 */
+    	private boolean isConnected() {
+    		ElementInfo info = getElementInfo(element);
+    		return info!=null&&info.fDocument==document&&loadJobs.get(element)==this;
+    	}
+    	
+    	/**
+    	 * discards the undo history of the document, so the loaded content can not be undone. Must be called on the UI thread
+    	 */
+    	private void resetUndoManager() {
+    		IDocumentUndoManager undoManager = DocumentUndoManagerRegistry.getDocumentUndoManager(document);
+    		if(undoManager!=null)
+    			undoManager.reset();
+    	}
+    }
 }
@@ -24,20 +24,33 @@ package lc.kra.eclipse.wordfileeditor.editor;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.AUTOMATIC_WORDFILE_PROPERTY;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.DEFAULT_WORDFILE_PREFERENCE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.GENERAL_WORDFILE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LARGE_FILE_LINES_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LARGE_FILE_SIZE_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.MATCHING_BRACKETS_COLOR_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.MATCHING_BRACKETS_PREFERENCE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.UNDEFINED_WORDFILE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.WORDFILE_PROPERTY;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.getNumericPreference;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.getPersistentProperty;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.getPreference;
 
+import java.util.Map;
+
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.content.IContentDescription;
+import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.TextAttribute;
+import org.eclipse.jface.text.source.ICharacterPairMatcher;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.jface.text.source.IVerticalRuler;
 import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
 import org.eclipse.jface.text.source.projection.ProjectionSupport;
 import org.eclipse.jface.text.source.projection.ProjectionViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.ui.IEditorDescriptor;
 import org.eclipse.ui.IEditorInput;
@@ -51,9 +64,17 @@ import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.PartInitException;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.editors.text.TextEditor;
+import org.eclipse.ui.texteditor.ChainedPreferenceStore;
+import org.eclipse.ui.texteditor.IDocumentProvider;
+import org.eclipse.ui.texteditor.SourceViewerDecorationSupport;
 
+import lc.kra.eclipse.wordfileeditor.WordfileEditorActivator;
+import lc.kra.eclipse.wordfileeditor.annotation.FoldTree;
 import lc.kra.eclipse.wordfileeditor.annotation.WordfileAnnotationDocumentListener;
+import lc.kra.eclipse.wordfileeditor.annotation.WordfileAnnotationProvider;
+import lc.kra.eclipse.wordfileeditor.annotation.WordfileAnnotationProviderRegistry;
 import lc.kra.eclipse.wordfileeditor.annotation.WordfileFoldAnnotationProvider;
+import lc.kra.eclipse.wordfileeditor.annotation.WordfileIndentFoldAnnotationProvider;
 import lc.kra.eclipse.wordfileeditor.utilities.Utilities;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
 
@@ -83,6 +104,20 @@ public class WordfileEditor extends TextEditor {
      * the PorjectionViewer of this TextEditor
      */
     protected ProjectionViewer projectionViewer;
+    
+    /**
+     * the listener updating the annotations of the document
+     */
+    protected WordfileAnnotationDocumentListener annotationListener;
+    /**
+     * the fold annotation provider, if the wordfile supports code folding
+     */
+    protected WordfileFoldAnnotationProvider foldProvider;
+    
+    /**
+     * true if the file exceeds the large file thresholds, large files are opened without folding, content assist and spell checking
+     */
+    protected boolean largeFile;
 
     /**
      * creates a new wordfile editor without using a specific wordfile
@@ -124,9 +159,90 @@ public class WordfileEditor extends TextEditor {
     }
     
     /**
-     * TODO To be implemented in future to refresh (re-init) this control
+     * refreshes the editor after the wordfile of the file or its colors changed. If the new wordfile partitions and folds the
+     * document like the previous one, the configuration is updated in place: if only colors changed, the style ranges of the
+     * changed token classes are recolored without scanning the document again, otherwise the document is highlighted again
+     * (in the background). If the new wordfile is incompatible the editor is opened again, unless it contains unsaved changes
+     */
+    public void refresh() {
+    	IEditorInput input = getEditorInput();
+    	if(!(input instanceof IFileEditorInput)||configuration==null)
+    		return;
+    	Wordfile wordfile = determineWordfile(((IFileEditorInput)input).getFile());
+    	if(wordfile==this.wordfile)
+    		return;
+    	
+    	if(isCompatible(this.wordfile,wordfile)) {
+    		this.wordfile = wordfile;
+    		if(getDocumentProvider() instanceof WordfileDocumentProvider)
+    			((WordfileDocumentProvider)getDocumentProvider()).wordfile = wordfile;
+    		Map<TextAttribute,TextAttribute> attributes = configuration.update(wordfile);
+    		ISourceViewer viewer = getSourceViewer();
+    		if(viewer!=null&&viewer.getTextWidget()!=null&&!viewer.getTextWidget().isDisposed()) {
+    			if(attributes!=null) {
+    				if(!attributes.isEmpty())
+    					recolor(viewer.getTextWidget(),attributes);
+    			} else viewer.invalidateTextPresentation();
+    		}
+    		updatePartName(input);
+    	} else if(!isDirty()) {
+    		IWorkbenchPage page = getSite().getPage();
+    		String id = getSite().getId();
+    		if(page.closeEditor(this,false))
+    			try { page.openEditor(input,id); }
+    			catch(PartInitException e) { e.printStackTrace(); }
+    	}
+    }
+    
+    /**
+     * replaces the text attributes of all style ranges of a text widget, which match a previous text attribute
+     * @param text the text widget to recolor
+     * @param attributes a map of the (normalized) previous text attributes to the new text attributes
+     */
+    private static void recolor(StyledText text,Map<TextAttribute,TextAttribute> attributes) {
+    	StyleRange[] ranges = text.getStyleRanges();
+    	boolean changed = false;
+    	for(StyleRange range:ranges) {
+    		int style = range.fontStyle|(range.strikeout?TextAttribute.STRIKETHROUGH:SWT.NORMAL)|(range.underline?TextAttribute.UNDERLINE:SWT.NORMAL);
+    		TextAttribute attribute = attributes.get(new TextAttribute(range.foreground,range.background,style,range.font));
+    		if(attribute!=null) {
+    			range.foreground = attribute.getForeground();
+    			range.background = attribute.getBackground();
+    			range.fontStyle = attribute.getStyle()&(SWT.BOLD|SWT.ITALIC);
+    			range.strikeout = (attribute.getStyle()&TextAttribute.STRIKETHROUGH)!=0;
+    			range.underline = (attribute.getStyle()&TextAttribute.UNDERLINE)!=0;
+    			range.font = attribute.getFont();
+    			changed = true;
+    		}
+    	}
+    	if(changed)
+    		text.setStyleRanges(ranges);
+    }
+    
+    /**
+     * checks if a wordfile partitions, folds and matches the brackets of a document exactly like another wordfile and finds the same
+     * markers and occurrences (the annotation providers of an editor are not created again), so an editor can switch between them
+     * @param wordfile the current wordfile or null
+     * @param other the new wordfile or null
+     * @return true if the editor does not have to be opened again to use the other wordfile
      */
-    public void refresh() {}
+    private static boolean isCompatible(Wordfile wordfile,Wordfile other) {
+    	if(wordfile==null||other==null)
+    		return wordfile==other;
+    	return wordfile.getType().equals(other.getType())&&equal(wordfile.getBlockCommentOn(),other.getBlockCommentOn())
+    		&&equal(wordfile.getBlockCommentOff(),other.getBlockCommentOff())&&equal(wordfile.getLineComment(),other.getLineComment())
+    		&&equal(wordfile.getBlockCommentOnAlt(),other.getBlockCommentOnAlt())&&equal(wordfile.getBlockCommentOffAlt(),other.getBlockCommentOffAlt())
+    		&&equal(wordfile.getLineCommentAlt(),other.getLineCommentAlt())&&equal(wordfile.getOpenFoldStrings(),other.getOpenFoldStrings())
+    		&&wordfile.isEnableMLS()==other.isEnableMLS()&&wordfile.isNoquote()==other.isNoquote()
+    		&&equal(wordfile.getStringChars(),other.getStringChars())&&equal(wordfile.getEscapeChar(),other.getEscapeChar())
+    		&&equal(wordfile.getCloseFoldStrings(),other.getCloseFoldStrings())&&equal(wordfile.getOpenCommentFoldStrings(),other.getOpenCommentFoldStrings())
+    		&&equal(wordfile.getCloseCommentFoldStrings(),other.getCloseCommentFoldStrings())&&equal(wordfile.getIgnoreFoldStrings(),other.getIgnoreFoldStrings())
+    		&&equal(wordfile.getIdentStrings(),other.getIdentStrings())&&equal(wordfile.getIdentStringsSOL(),other.getIdentStringsSOL())
+    		&&equal(wordfile.getOpenBraceStrings(),other.getOpenBraceStrings())&&equal(wordfile.getCloseBraceStrings(),other.getCloseBraceStrings())
+    		&&equal(wordfile.getMarkerCharacters(),other.getMarkerCharacters())&&equal(wordfile.getDelimiters(),other.getDelimiters())
+    		&&wordfile.isNocase()==other.isNocase();
+    }
+    private static boolean equal(Object object,Object other) { return object==null?other==null:object.equals(other); }
     
     /**
      * Returns true if the file is assigned to a WordfileEditor by default
@@ -142,6 +258,19 @@ public class WordfileEditor extends TextEditor {
 		else return false;
 	}
     
+    /**
+     * Returns true if a file exceeds one of the large file thresholds set in the preferences
+     * @param file the file to check the size of or null
+     * @param document the document of the file to check the number of lines of or null
+     * @return true if the file should be opened in the large file mode
+     */
+    public static boolean isLargeFile(IFile file,IDocument document) {
+    	long size = getNumericPreference(LARGE_FILE_SIZE_PREFERENCE,0), lines = getNumericPreference(LARGE_FILE_LINES_PREFERENCE,0);
+    	if(file!=null&&size>0&&Utilities.getFileSize(file)>=size*1024*1024)
+    		return true;
+    	return document!=null&&lines>0&&document.getNumberOfLines()>=lines;
+    }
+    
     /**
      * Returns the current configured wordfile
      * @param editor the editor to read the properties from or null (only preferences are checked)
@@ -195,6 +324,22 @@ public class WordfileEditor extends TextEditor {
      * @return the used WordfileConfiguration
      */
     public WordfileConfiguration getWordfileConfiguration() { return configuration; }
+    /**
+     * @return returns true if the editor was opened in the large file mode
+     */
+    public boolean isLargeFile() { return largeFile; }
+    /**
+     * @return the number of columns of a tab in this editor
+     */
+    public int getTabWidth() { return configuration.getTabWidth(getSourceViewer()); }
+    /**
+     * @return the viewer of this editor or null if the part control was not created yet
+     */
+    public ProjectionViewer getProjectionViewer() { return projectionViewer; }
+    /**
+     * @return the listener updating the annotations of the document of this editor
+     */
+    public WordfileAnnotationDocumentListener getAnnotationListener() { return annotationListener; }
     /**
      * returns the recognition factor of the used wordfile
      * @return the recognition factor for the language of this wordfile (if more words have been recognized the factor is near to 1)
@@ -209,6 +354,16 @@ public class WordfileEditor extends TextEditor {
         return projectionViewer!=null&&projectionViewer.isProjectionMode()?projectionViewer.getProjectionAnnotationModel():null;
     }
     
+    /**
+     * getAdapter is enhanced. It will return the FoldTree with the folds of the document if FoldTree.class is the adapter
+     * and the wordfile is using code folding
+     */
+    @Override @SuppressWarnings("unchecked") public <T> T getAdapter(Class<T> adapter) {
+    	if(FoldTree.class.equals(adapter))
+    		return foldProvider!=null?(T)foldProvider.getTree():null;
+    	else return super.getAdapter(adapter);
+    }
+    
     /**
      * updates the part name after initialization
      * @param input the editor input to read the filename from
@@ -227,29 +382,99 @@ public class WordfileEditor extends TextEditor {
      * creates the part control for this editor, installs an ProjectionAnnotationModel if the wordfile uses code folding
      */
     public void createPartControl(Composite parent) {
-    	WordfileAnnotationDocumentListener annotationListener = new WordfileAnnotationDocumentListener(this);
+    	annotationListener = new WordfileAnnotationDocumentListener(this);
+    	
+    	//the large file mode has to be determined before the source viewer is configured
+    	largeFile = isLargeFile(Utilities.getEditorFile(this),getDocumentProvider().getDocument(getEditorInput()));
+    	configuration.setLargeFile(largeFile);
     	
         super.createPartControl(parent);
         projectionViewer = (ProjectionViewer)getSourceViewer();
         projection = new ProjectionSupport(projectionViewer,getAnnotationAccess(),getSharedColors());
         projection.install();
         
-        if(wordfile==null||wordfile.getOpenFoldStrings()==null||wordfile.getCloseFoldStrings()==null) {
+        //wordfiles without fold strings are folded by indentation, if they define indent strings
+        if(largeFile||wordfile==null||!WordfileFoldAnnotationProvider.hasFoldStrings(wordfile)&&!WordfileIndentFoldAnnotationProvider.hasIndentStrings(wordfile)) {
         	if(projectionViewer.isProjectionMode()) {
         		ProjectionAnnotationModel model = projectionViewer.getProjectionAnnotationModel();
             	model.expandAll(0,projectionViewer.getDocument().getLength());
             	projectionViewer.disableProjection();
         	}
-        } else {
-        	projectionViewer.enableProjection();
-			annotationListener.addAnnotationProvider(new WordfileFoldAnnotationProvider(getProjectionAnnotationModel(),wordfile.getOpenFoldStrings().toArray(new String[0]),wordfile.getCloseFoldStrings().toArray(new String[0])));
-        }
+        } else projectionViewer.enableProjection();
+        
+        //the annotation providers are contributed by the annotationProviders extension point (including the folding providers)
+        if(wordfile!=null)
+        	for(WordfileAnnotationProvider provider:WordfileAnnotationProviderRegistry.createProviders(this,wordfile)) {
+        		annotationListener.addAnnotationProvider(provider);
+        		if(provider instanceof WordfileFoldAnnotationProvider)
+        			foldProvider = (WordfileFoldAnnotationProvider)provider;
+        	}
         
         if(annotationListener.getAnnotationProviders().size()!=0) {
 			IDocument document = Utilities.getEditorDocument(this);
 			annotationListener.updateDocument(document);
 			document.addDocumentListener(annotationListener);
+			document.addDocumentPartitioningListener(annotationListener);
         }
+        
+        disableWhileLoading();
+    }
+    
+    /**
+     * large documents loaded in the background can not be edited until they are loaded completely
+     */
+    private void disableWhileLoading() {
+        IDocument document = getDocumentProvider().getDocument(getEditorInput());
+        if(document instanceof WordfileDocument&&((WordfileDocument)document).isLoading()) {
+        	getSourceViewer().setEditable(false);
+        	((WordfileDocument)document).whenLoaded(new Runnable() {
+				@Override public void run() {
+					ISourceViewer viewer = getSourceViewer();
+					if(viewer!=null&&viewer.getTextWidget()!=null&&!viewer.getTextWidget().isDisposed())
+						viewer.setEditable(isEditable());
+				}
+			});
+        }
+    }
+    
+    /**
+     * a large document reverted or synchronized with the file is loaded in the background again
+     */
+    @Override protected void handleElementContentReplaced() {
+    	super.handleElementContentReplaced();
+    	if(getSourceViewer()!=null)
+    		disableWhileLoading();
+    }
+    
+    /**
+     * the editor is not editable while the document is loaded in the background
+     */
+    @Override public boolean isEditable() {
+    	IDocumentProvider provider = getDocumentProvider();
+    	IDocument document = provider!=null?provider.getDocument(getEditorInput()):null;
+    	return super.isEditable()&&!(document instanceof WordfileDocument&&((WordfileDocument)document).isLoading());
+    }
+    
+    /**
+     * initializes the editor, the preferences of the plug-in (e.g. for matching brackets) are looked up before the text editor preferences
+     */
+    @Override protected void initializeEditor() {
+    	super.initializeEditor();
+    	WordfileEditorActivator activator = WordfileEditorActivator.getDefault();
+    	if(activator!=null)
+    		setPreferenceStore(new ChainedPreferenceStore(new IPreferenceStore[]{activator.getPreferenceStore(),getPreferenceStore()}));
+    }
+    
+    /**
+     * highlights the brace string matching the brace string at the caret, if the wordfile defines brace strings
+     */
+    @Override protected void configureSourceViewerDecorationSupport(SourceViewerDecorationSupport support) {
+    	ICharacterPairMatcher matcher = configuration!=null?configuration.getCharacterPairMatcher():null;
+    	if(matcher!=null) {
+    		support.setCharacterPairMatcher(matcher);
+    		support.setMatchingCharacterPainterPreferenceKeys(MATCHING_BRACKETS_PREFERENCE,MATCHING_BRACKETS_COLOR_PREFERENCE);
+    	}
+    	super.configureSourceViewerDecorationSupport(support);
     }
     
     /**
@@ -261,6 +486,17 @@ public class WordfileEditor extends TextEditor {
     	return viewer;
     }
     
+    /**
+     * disposes the editor, stops updating the annotations of the document and releases the resources of the wordfile configuration
+     */
+    @Override public void dispose() {
+    	if(annotationListener!=null&&getDocumentProvider()!=null&&getDocumentProvider().getDocument(getEditorInput())!=null)
+    		annotationListener.removeDocument(getDocumentProvider().getDocument(getEditorInput()));
+    	super.dispose();
+    	if(configuration!=null)
+    		configuration.dispose();
+    }
+    
     /**
      * Static method to call {@link #refresh} on all open WordfileEditor instances.
      */
@@ -0,0 +1,528 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.BadPositionCategoryException;
+import org.eclipse.jface.text.DefaultPositionUpdater;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IPositionUpdater;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextInputListener;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.IViewportListener;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.TextPresentation;
+import org.eclipse.jface.text.TextUtilities;
+import org.eclipse.jface.text.TypedRegion;
+import org.eclipse.jface.text.presentation.IPresentationRepairer;
+import org.eclipse.jface.text.presentation.PresentationReconciler;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.widgets.Display;
+
+import lc.kra.eclipse.wordfileeditor.editor.WordfileDocument;
+
+/**
+ * The AsyncPresentationReconciler repairs small damages like the PresentationReconciler on the UI thread. Large damages
+ * (e.g. when a big document is opened) are remembered as pending regions in the document and repaired by a background
+ * job in chunks, the chunks of the visible lines first. The job repairs a snapshot of the document using own repairers
+ * and hands the presentations to the UI thread in batches, which are dropped if the document changed in the meantime
+ * @author Kristian Kraljic
+ */
+public abstract class AsyncPresentationReconciler extends PresentationReconciler {
+	/**
+	 * the default size of a damage, from which on it is repaired in the background
+	 */
+	public static final int DEFAULT_ASYNC_THRESHOLD = 64*1024;
+
+	/**
+	 * the approximate size of one chunk repaired in the background (chunks always end on a line end)
+	 */
+	private static final int CHUNK_SIZE = 16*1024;
+	/**
+	 * the interval in milliseconds in which the repaired chunks are handed over to the UI thread
+	 */
+	private static final long BATCH_INTERVAL = 100;
+	/**
+	 * the delay in milliseconds before the pending regions are repaired again after the document was changed
+	 */
+	private static final long RESCHEDULE_DELAY = 250;
+	/**
+	 * the delay in milliseconds before the newly visible regions are repaired after the viewport changed
+	 */
+	private static final long VIEWPORT_DELAY = 50;
+
+	/**
+	 * the position category of the pending regions
+	 */
+	private final String category = AsyncPresentationReconciler.class.getName()+'@'+Integer.toHexString(System.identityHashCode(this));
+	/**
+	 * the position updater for the pending regions
+	 */
+	private final IPositionUpdater updater = new DefaultPositionUpdater(category);
+	/**
+	 * the listener for input and document changes
+	 */
+	private final Listener listener = new Listener();
+	/**
+	 * the job repairing the pending regions
+	 */
+	private final PresentationJob job = new PresentationJob();
+
+	/**
+	 * the size of a damage, from which on it is repaired in the background
+	 */
+	private int threshold = DEFAULT_ASYNC_THRESHOLD;
+	/**
+	 * true if only the pending regions near the visible lines are repaired
+	 */
+	private boolean viewportOnly;
+	/**
+	 * the length of a line, from which on it is repaired on the UI thread or 0
+	 */
+	private int longLineLength;
+	/**
+	 * the viewer this reconciler is installed on
+	 */
+	private ITextViewer viewer;
+	/**
+	 * the display of the viewer
+	 */
+	private Display display;
+	/**
+	 * the document holding the pending regions
+	 */
+	private IDocument document;
+	/**
+	 * the repairers used by the background job (by content type) or null if no repairers were created yet
+	 */
+	private Map<String,IPresentationRepairer> repairers;
+
+	/**
+	 * creates the repairers used by the background job. The repairers are only used by the job and thus do not
+	 * have to be thread-safe, but must not share any state with the repairers of this reconciler
+	 * @return a map of repairers by content type or null if no damage should be repaired in the background
+	 */
+	protected abstract Map<String,IPresentationRepairer> createRepairers();
+
+	/**
+	 * sets the size of a damage, from which on it is repaired in the background
+	 * @param threshold the threshold in characters
+	 */
+	public void setAsyncThreshold(int threshold) { this.threshold = threshold; }
+	/**
+	 * @return the size of a damage, from which on it is repaired in the background
+	 */
+	public int getAsyncThreshold() { return threshold; }
+	/**
+	 * sets if only the pending regions near the visible lines are repaired. All other regions stay pending until they are scrolled into view
+	 * @param viewportOnly true to only repair the visible regions
+	 */
+	public void setViewportOnly(boolean viewportOnly) { this.viewportOnly = viewportOnly; }
+	/**
+	 * @return true if only the pending regions near the visible lines are repaired
+	 */
+	public boolean isViewportOnly() { return viewportOnly; }
+	/**
+	 * sets the length of a line, from which on it is not repaired in the background, but by the repairers of this reconciler
+	 * on the UI thread. This requires repairers, which only highlight the visible part of long lines
+	 * @param longLineLength the length in characters or 0 to repair all lines in the background
+	 */
+	public void setLongLineLength(int longLineLength) { this.longLineLength = longLineLength; }
+	/**
+	 * @return the length of a line, from which on it is repaired on the UI thread or 0
+	 */
+	public int getLongLineLength() { return longLineLength; }
+
+	/**
+	 * drops the repairers used by the background job, e.g. if the tokens returned by their scanners changed. The repairers
+	 * are created again for the next damage repaired in the background
+	 */
+	public void resetRepairers() { repairers = null; }
+
+	@Override public void install(ITextViewer viewer) {
+		super.install(viewer);
+		this.viewer = viewer;
+		StyledText text = viewer.getTextWidget();
+		display = text!=null?text.getDisplay():Display.getCurrent();
+		viewer.addTextInputListener(listener);
+		viewer.addViewportListener(listener);
+		connect(viewer.getDocument());
+	}
+
+	@Override public void uninstall() {
+		disconnect();
+		if(viewer!=null) {
+			viewer.removeTextInputListener(listener);
+			viewer.removeViewportListener(listener);
+			viewer = null;
+		}
+		super.uninstall();
+	}
+
+	/**
+	 * creates the presentation on the UI thread if the damage is smaller than the threshold, otherwise the damage is
+	 * added to the pending regions and the background job is scheduled
+	 * @return the presentation for the damage or null if the damage is repaired in the background
+	 */
+	@Override protected TextPresentation createPresentation(IRegion damage,IDocument document) {
+		if(damage.getLength()<threshold||viewer==null)
+			return super.createPresentation(damage,document);
+		if(repairers==null&&(repairers=createRepairers())==null)
+			return super.createPresentation(damage,document);
+
+		connect(document);
+		try { document.addPosition(category,new Position(damage.getOffset(),damage.getLength())); }
+		catch(Exception e) { return super.createPresentation(damage,document); }
+		job.schedule();
+		return null;
+	}
+
+	/**
+	 * connects the reconciler to a document by adding the pending position category
+	 * @param document the document to connect to
+	 */
+	private void connect(IDocument document) {
+		if(this.document==document)
+			return;
+		disconnect();
+		if((this.document=document)!=null) {
+			document.addPositionCategory(category);
+			document.addPositionUpdater(updater);
+			document.addDocumentListener(listener);
+		}
+	}
+
+	/**
+	 * disconnects the reconciler from the current document and drops all pending regions
+	 */
+	private void disconnect() {
+		job.cancel();
+		if(document!=null) {
+			document.removeDocumentListener(listener);
+			document.removePositionUpdater(updater);
+			try { document.removePositionCategory(category); }
+			catch(BadPositionCategoryException e) {}
+			document = null;
+		}
+	}
+
+	/**
+	 * @return true if there are regions pending to be repaired
+	 */
+	private boolean hasPending() {
+		try { return document!=null&&document.getPositions(category).length!=0; }
+		catch(BadPositionCategoryException e) { return false; }
+	}
+
+	/**
+	 * captures a snapshot of the document and splits the pending regions into chunks. Must be called on the UI thread
+	 * @return the snapshot to repair in the background or null if there is nothing to repair
+	 */
+	private Snapshot capture() {
+		if(document==null||viewer==null||!(document instanceof IDocumentExtension4))
+			return null;
+		try {
+			Position[] positions = document.getPositions(category);
+			if(positions.length==0)
+				return null;
+			document.removePositionCategory(category);
+			document.addPositionCategory(category);
+
+			//merge the pending regions and split them into chunks, which end on a line end. If only the visible regions are repaired, all other regions stay pending
+			final int top = viewer.getTopIndexStartOffset(), bottom = viewer.getBottomIndexEndOffset(), length = document.getLength(),
+				windowStart = viewportOnly?Math.max(top-CHUNK_SIZE,0):0, windowEnd = viewportOnly?Math.min(bottom+CHUNK_SIZE,length):length;
+			Arrays.sort(positions,new Comparator<Position>() {
+				@Override public int compare(Position position_a,Position position_b) { return position_a.getOffset()-position_b.getOffset(); }
+			});
+			List<Position> chunks = new ArrayList<Position>();
+			List<IRegion> longLines = new ArrayList<IRegion>();
+			for(int index=0;index<positions.length;) {
+				int start = Math.min(positions[index].getOffset(),length), end = Math.min(start+positions[index++].getLength(),length);
+				while(index<positions.length&&positions[index].getOffset()<=end)
+					end = Math.max(end,Math.min(positions[index].getOffset()+positions[index++].getLength(),length));
+				if(start<windowStart) {
+					document.addPosition(category,new Position(start,Math.min(end,windowStart)-start));
+					start = Math.min(end,windowStart);
+				}
+				if(end>windowEnd) {
+					document.addPosition(category,new Position(Math.max(start,windowEnd),end-Math.max(start,windowEnd)));
+					end = Math.max(start,windowEnd);
+				}
+				while(start<end) {
+					IRegion line = document.getLineInformationOfOffset(start);
+					if(isLongLine(line)) { //long lines are repaired on the UI thread
+						int lineEnd = Math.min(line.getOffset()+document.getLineLength(document.getLineOfOffset(start)),end);
+						longLines.add(new Region(start,lineEnd-start));
+						start = lineEnd;
+						continue;
+					}
+					int chunkEnd = Math.min(start+CHUNK_SIZE,end);
+					if(chunkEnd<end) {
+						line = document.getLineInformationOfOffset(chunkEnd);
+						if(isLongLine(line)&&line.getOffset()>start)
+							 chunkEnd = line.getOffset();
+						else chunkEnd = Math.min(line.getOffset()+document.getLineLength(document.getLineOfOffset(chunkEnd)),end);
+					}
+					Position chunk = new Position(start,chunkEnd-start);
+					document.addPosition(category,chunk);
+					chunks.add(chunk);
+					start = chunkEnd;
+				}
+			}
+			for(IRegion longLine:longLines) {
+				TextPresentation presentation = super.createPresentation(longLine,document);
+				if(presentation!=null)
+					viewer.changeTextPresentation(presentation,false);
+			}
+			if(chunks.isEmpty())
+				return null;
+
+			//repair the visible chunks first, followed by the chunks nearest to the visible region
+			Collections.sort(chunks,new Comparator<Position>() {
+				@Override public int compare(Position chunk_a,Position chunk_b) { return distance(chunk_a)-distance(chunk_b); }
+				private int distance(Position chunk) {
+					if(chunk.getOffset()>=bottom)
+						return chunk.getOffset()-bottom;
+					else return Math.max(top-(chunk.getOffset()+chunk.getLength()),0);
+				}
+			});
+
+			//only the chunks are partitioned, not the regions in between
+			List<Position> sorted = new ArrayList<Position>(chunks);
+			Collections.sort(sorted,new Comparator<Position>() {
+				@Override public int compare(Position chunk_a,Position chunk_b) { return chunk_a.getOffset()-chunk_b.getOffset(); }
+			});
+			List<ITypedRegion> partitions = new ArrayList<ITypedRegion>();
+			for(Position chunk:sorted)
+				partitions.addAll(Arrays.asList(TextUtilities.computePartitioning(document,getDocumentPartitioning(),chunk.getOffset(),chunk.getLength(),false)));
+			
+			//a WordfileDocument is snapshot without copying its content, of other documents the lines containing the chunks are copied
+			IDocument snapshot; int offset = 0;
+			if(!(document instanceof WordfileDocument)) {
+				Position last = sorted.get(sorted.size()-1);
+				offset = document.getLineOffset(document.getLineOfOffset(sorted.get(0).getOffset()));
+				snapshot = new Document(document.get(offset,last.getOffset()+last.getLength()-offset));
+			} else snapshot = ((WordfileDocument)document).getSnapshot();
+			return new Snapshot(((IDocumentExtension4)document).getModificationStamp(),snapshot,offset,
+				partitions.toArray(new ITypedRegion[partitions.size()]),chunks,top,bottom);
+		} catch(BadLocationException e) {
+			return null;
+		} catch(BadPositionCategoryException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param line the line to check
+	 * @return true if the line is repaired on the UI thread
+	 */
+	private boolean isLongLine(IRegion line) { return longLineLength>0&&line.getLength()>=longLineLength; }
+
+	/**
+	 * applies a batch of repaired chunks, if the document was not changed since the snapshot was taken. Must be called on the UI thread
+	 * @param stamp the modification stamp of the snapshot
+	 * @param chunks the repaired chunks
+	 * @param presentations the presentations of the chunks
+	 */
+	private void apply(long stamp,List<Position> chunks,List<TextPresentation> presentations) {
+		if(document==null||viewer==null||viewer.getTextWidget()==null||viewer.getTextWidget().isDisposed()||((IDocumentExtension4)document).getModificationStamp()!=stamp)
+			return; //the chunks stay pending and are repaired again using a new snapshot
+		for(int index=0;index<chunks.size();index++) {
+			viewer.changeTextPresentation(presentations.get(index),false);
+			try { document.removePosition(category,chunks.get(index)); }
+			catch(BadPositionCategoryException e) {}
+		}
+	}
+
+	/**
+	 * a snapshot of the document to repair in the background, the snapshot may contain only a part of the document
+	 * beginning at an offset. The partitions and chunks refer to the document
+	 * @author Kristian Kraljic
+	 */
+	private static class Snapshot {
+		private final long stamp;
+		private final IDocument document;
+		private final int offset;
+		private final ITypedRegion[] partitions;
+		private final List<Position> chunks;
+		private final int top,bottom;
+		public Snapshot(long stamp,IDocument document,int offset,ITypedRegion[] partitions,List<Position> chunks,int top,int bottom) {
+			this.stamp = stamp;
+			this.document = document;
+			this.offset = offset;
+			this.partitions = partitions;
+			this.chunks = chunks;
+			this.top = top;
+			this.bottom = bottom;
+		}
+	}
+
+	/**
+	 * the job repairing the pending regions in the background
+	 * @author Kristian Kraljic
+	 */
+	private class PresentationJob extends Job {
+		public PresentationJob() {
+			super("Highlighting");
+			setSystem(true);
+		}
+
+		@Override protected IStatus run(IProgressMonitor monitor) {
+			final Display display = AsyncPresentationReconciler.this.display;
+			if(display==null||display.isDisposed())
+				return Status.CANCEL_STATUS;
+
+			final Snapshot[] snapshot = new Snapshot[1];
+			final List<Map<String,IPresentationRepairer>> repairers = new ArrayList<Map<String,IPresentationRepairer>>(1);
+			display.syncExec(new Runnable() {
+				@Override public void run() {
+					snapshot[0] = capture();
+					//the repairers may have been reset since the job was scheduled
+					if(AsyncPresentationReconciler.this.repairers==null)
+						AsyncPresentationReconciler.this.repairers = createRepairers();
+					repairers.add(AsyncPresentationReconciler.this.repairers);
+				}
+			});
+			if(snapshot[0]==null||repairers.get(0)==null)
+				return Status.OK_STATUS;
+
+			final long stamp = snapshot[0].stamp;
+			final int offset = snapshot[0].offset;
+			ITypedRegion[] partitions = snapshot[0].partitions;
+			for(IPresentationRepairer repairer:repairers.get(0).values())
+				repairer.setDocument(snapshot[0].document);
+
+			List<Position> chunks = new ArrayList<Position>();
+			List<TextPresentation> presentations = new ArrayList<TextPresentation>();
+			long batch = System.currentTimeMillis();
+			for(Position chunk:snapshot[0].chunks) {
+				if(monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+
+				int start = chunk.getOffset(), end = start+chunk.getLength();
+				TextPresentation presentation = new TextPresentation(new Region(start-offset,chunk.getLength()),1000);
+				for(int index=findPartition(partitions,start);index<partitions.length&&partitions[index].getOffset()<end;index++) {
+					ITypedRegion partition = partitions[index];
+					IPresentationRepairer repairer = repairers.get(0).get(partition.getType());
+					int partitionStart = Math.max(start,partition.getOffset()), partitionEnd = Math.min(end,partition.getOffset()+partition.getLength());
+					if(repairer!=null&&partitionStart<partitionEnd)
+						repairer.createPresentation(presentation,new TypedRegion(partitionStart-offset,partitionEnd-partitionStart,partition.getType()));
+				}
+				chunks.add(chunk);
+				presentations.add(shift(presentation,offset));
+
+				//hand the batch to the UI thread after an interval or as soon as the visible chunks are repaired
+				boolean visible = start<snapshot[0].bottom&&end>snapshot[0].top;
+				if(System.currentTimeMillis()-batch>=BATCH_INTERVAL||visible) {
+					post(display,stamp,chunks,presentations);
+					chunks = new ArrayList<Position>();
+					presentations = new ArrayList<TextPresentation>();
+					batch = System.currentTimeMillis();
+				}
+			}
+			post(display,stamp,chunks,presentations);
+			return Status.OK_STATUS;
+		}
+
+		/**
+		 * posts a batch of presentations to the UI thread
+		 */
+		private void post(Display display,final long stamp,final List<Position> chunks,final List<TextPresentation> presentations) {
+			if(chunks.isEmpty()||display.isDisposed())
+				return;
+			display.asyncExec(new Runnable() {
+				@Override public void run() { apply(stamp,chunks,presentations); }
+			});
+		}
+
+		/**
+		 * moves a presentation of a part of the document to the offset of the part in the document
+		 */
+		private TextPresentation shift(TextPresentation presentation,int offset) {
+			if(offset==0)
+				return presentation;
+			IRegion extent = presentation.getExtent();
+			TextPresentation shifted = new TextPresentation(new Region(extent.getOffset()+offset,extent.getLength()),presentation.getDenumerableRanges());
+			for(Iterator<StyleRange> ranges=presentation.getAllStyleRangeIterator();ranges.hasNext();) {
+				StyleRange range = (StyleRange)ranges.next().clone();
+				range.start += offset;
+				shifted.addStyleRange(range);
+			}
+			return shifted;
+		}
+		
+		/**
+		 * finds the index of the first partition ending after an offset
+		 */
+		private int findPartition(ITypedRegion[] partitions,int offset) {
+			int low = 0, high = partitions.length-1;
+			while(low<=high) {
+				int middle = (low+high)>>>1;
+				if(partitions[middle].getOffset()+partitions[middle].getLength()<=offset)
+					low = middle+1;
+				else high = middle-1;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * listens for input changes of the viewer and changes of the document, to cancel the stale background repairs,
+	 * as well as for viewport changes, to repair the regions scrolled into view
+	 * @author Kristian Kraljic
+	 */
+	private class Listener implements ITextInputListener,IDocumentListener,IViewportListener {
+		@Override public void inputDocumentAboutToBeChanged(IDocument oldInput,IDocument newInput) { disconnect(); }
+		@Override public void inputDocumentChanged(IDocument oldInput,IDocument newInput) { connect(newInput); }
+		@Override public void documentAboutToBeChanged(DocumentEvent event) {}
+		@Override public void documentChanged(DocumentEvent event) {
+			if(hasPending()) {
+				job.cancel();
+				job.schedule(RESCHEDULE_DELAY);
+			}
+		}
+		@Override public void viewportChanged(int verticalOffset) {
+			if(viewportOnly&&hasPending())
+				job.schedule(VIEWPORT_DELAY);
+		}
+	}
+}
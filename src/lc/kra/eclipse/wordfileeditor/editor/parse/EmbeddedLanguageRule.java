@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jface.text.rules.ICharacterScanner;
+import org.eclipse.jface.text.rules.IPredicateRule;
+import org.eclipse.jface.text.rules.IToken;
+import org.eclipse.jface.text.rules.Token;
+
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile.WordfileType;
+
+/**
+ * The EmbeddedLanguageRule partitions regions of a document written in another language (e.g. style sheets or scripts
+ * in HTML). All regions are detected in one pass, by looking up the candidates starting with the current character,
+ * instead of evaluating one rule per region. The content type of a region is the name of its wordfile type
+ * @author Kristian Kraljic
+ */
+public class EmbeddedLanguageRule implements IPredicateRule {
+	/**
+	 * the regions of embedded languages by the wordfile type of the language they are embedded in
+	 */
+	private static final Map<WordfileType,List<Region>> REGIONS = new EnumMap<WordfileType,List<Region>>(WordfileType.class);
+	static {
+		REGIONS.put(WordfileType.HTML_LANG,Collections.unmodifiableList(Arrays.asList(
+			new Region("<style","</style>",WordfileType.CSS_LANG),
+			new Region("<script","</script>",WordfileType.JSCRIPT_LANG),
+			new Region("<?","?>",WordfileType.PHP_LANG))));
+	}
+	
+	/**
+	 * the regions which can be detected by this rule, by the first character they start with (longest start first)
+	 */
+	private final Map<Character,List<Region>> candidates = new HashMap<Character,List<Region>>();
+	/**
+	 * the tokens of the regions
+	 */
+	private final Map<Region,IToken> tokens = new HashMap<Region,IToken>();
+	
+	/**
+	 * creates a new rule detecting the regions of all languages embedded in a wordfile type
+	 * @param regions the regions to detect
+	 */
+	public EmbeddedLanguageRule(List<Region> regions) {
+		for(Region region:regions) {
+			List<Region> candidates = this.candidates.get(region.start.charAt(0));
+			if(candidates==null)
+				this.candidates.put(region.start.charAt(0),candidates=new ArrayList<Region>());
+			int index = 0;
+			while(index<candidates.size()&&candidates.get(index).start.length()>=region.start.length())
+				index++;
+			candidates.add(index,region);
+			tokens.put(region,new Token(region.type.toString()));
+		}
+	}
+	
+	/**
+	 * returns the regions of languages embedded in a wordfile type
+	 * @param type the wordfile type of the language the regions are embedded in or null
+	 * @return a list of regions, empty if the language does not embed other languages
+	 */
+	public static List<Region> getRegions(WordfileType type) {
+		List<Region> regions = type!=null?REGIONS.get(type):null;
+		return regions!=null?regions:Collections.<Region>emptyList();
+	}
+	/**
+	 * returns the regions of languages embedded in a wordfile
+	 * @param wordfile the wordfile the regions are embedded in or null
+	 * @return a list of regions, empty if the language does not embed other languages
+	 */
+	public static List<Region> getRegions(Wordfile wordfile) { return getRegions(wordfile!=null?wordfile.getType():null); }
+	
+	/**
+	 * the rule detects multiple content types, so it can not resume a partition. A partition is always scanned again from its start
+	 * @return Token.UNDEFINED
+	 */
+	@Override public IToken getSuccessToken() { return Token.UNDEFINED; }
+	
+	@Override public IToken evaluate(ICharacterScanner scanner) { return evaluate(scanner,false); }
+	
+	@Override public IToken evaluate(ICharacterScanner scanner,boolean resume) {
+		int chr = scanner.read();
+		List<Region> candidates = chr!=ICharacterScanner.EOF?this.candidates.get((char)chr):null;
+		if(candidates!=null)
+			for(Region region:candidates)
+				if(detect(scanner,region.start,1)) {
+					if(detectEnd(scanner,region.end))
+						return tokens.get(region);
+					unread(scanner,region.start.length()-1);
+				}
+		scanner.unread();
+		return Token.UNDEFINED;
+	}
+	
+	/**
+	 * reads up to and including the end of a region
+	 * @param scanner the scanner to read from
+	 * @param end the sequence ending the region
+	 * @return true if the end was found, otherwise the characters read are unread again
+	 */
+	private static boolean detectEnd(ICharacterScanner scanner,String end) {
+		int read = 0, chr;
+		while((chr=scanner.read())!=ICharacterScanner.EOF) {
+			read++;
+			if(chr==end.charAt(0)&&detect(scanner,end,1))
+				return true;
+		}
+		unread(scanner,read+1);
+		return false;
+	}
+	
+	/**
+	 * reads the remaining characters of a sequence
+	 * @param scanner the scanner to read from
+	 * @param sequence the sequence to detect
+	 * @param offset the number of characters of the sequence already read
+	 * @return true if the sequence was detected, otherwise the characters read are unread again
+	 */
+	private static boolean detect(ICharacterScanner scanner,String sequence,int offset) {
+		for(int index=offset;index<sequence.length();index++)
+			if(scanner.read()!=sequence.charAt(index)) {
+				unread(scanner,index-offset+1);
+				return false;
+			}
+		return true;
+	}
+	
+	/**
+	 * unreads a number of characters
+	 */
+	private static void unread(ICharacterScanner scanner,int count) {
+		for(int index=0;index<count;index++)
+			scanner.unread();
+	}
+	
+	/**
+	 * a region of an embedded language, starting and ending with a specific sequence
+	 * @author Kristian Kraljic
+	 */
+	public static class Region {
+		/**
+		 * the sequences starting and ending the region
+		 */
+		public final String start,end;
+		/**
+		 * the wordfile type of the language embedded in the region
+		 */
+		public final WordfileType type;
+		
+		/**
+		 * creates a new region of an embedded language
+		 * @param start the sequence starting the region
+		 * @param end the sequence ending the region
+		 * @param type the wordfile type of the embedded language
+		 */
+		public Region(String start,String end,WordfileType type) {
+			this.start = start;
+			this.end = end;
+			this.type = type;
+		}
+	}
+}
@@ -53,6 +53,20 @@ public class NonRuleBasedDamagerRepairer implements IPresentationDamager, IPrese
 		fDefaultTextAttribute = defaultTextAttribute;
 	}
 
+	/**
+	 * @return the text attribute used for the whole region
+	 */
+	public TextAttribute getDefaultTextAttribute() { return fDefaultTextAttribute; }
+	/**
+	 * sets the text attribute used for the whole region
+	 * @param defaultTextAttribute the text attribute to use
+	 */
+	public void setDefaultTextAttribute(TextAttribute defaultTextAttribute) {
+		Assert.isNotNull(defaultTextAttribute);
+		
+		fDefaultTextAttribute = defaultTextAttribute;
+	}
+
 	/**
 	 * @see IPresentationRepairer#setDocument(IDocument)
 	 */
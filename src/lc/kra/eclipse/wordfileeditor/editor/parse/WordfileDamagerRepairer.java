@@ -0,0 +1,668 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor.parse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.ITextViewerExtension2;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.TextAttribute;
+import org.eclipse.jface.text.TextPresentation;
+import org.eclipse.jface.text.presentation.IPresentationDamager;
+import org.eclipse.jface.text.presentation.IPresentationRepairer;
+import org.eclipse.jface.text.rules.IToken;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.ScrollBar;
+
+/**
+ * The WordfileDamagerRepairer damages/repairs code using a WordfileScanner and remembers the tokens of every
+ * scanned line. A document change only invalidates the lines it touched, so repairing the presentation of
+ * lines which were not changed does not require to scan them again. Long lines (e.g. of minified files) are scanned
+ * in blocks, which end on token boundaries. A change to a long line only rescans the block it touched, until the scan
+ * ends at the start of a block scanned before, and only the tokens in the visible horizontal window are highlighted
+ * @author Kristian Kraljic
+ */
+public class WordfileDamagerRepairer implements IPresentationDamager,IPresentationRepairer,IDocumentListener {
+	/**
+	 * the default length of a line, from which on it is scanned in blocks
+	 */
+	public static final int DEFAULT_LONG_LINE_LENGTH = 5000;
+	
+	/**
+	 * the approximate size of a block of a long line (blocks always end on a token boundary)
+	 */
+	private static final int BLOCK_SIZE = 2048;
+	/**
+	 * the number of columns highlighted left and right of the visible horizontal window of long lines
+	 */
+	private static final int WINDOW_MARGIN = 1024;
+	/**
+	 * the characters the average width of a character is measured with
+	 */
+	private static final String WIDTH_SAMPLE = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+	
+	/**
+	 * the document this damager/repairer works on
+	 */
+	protected IDocument document;
+	/**
+	 * the scanner used to scan lines which are not cached
+	 */
+	protected WordfileScanner scanner;
+	/**
+	 * the text attribute used for tokens without any data (e.g. whitespaces and line delimiters)
+	 */
+	protected TextAttribute defaultTextAttribute;
+	/**
+	 * the length of a line, from which on it is scanned in blocks
+	 */
+	protected int longLineLength = DEFAULT_LONG_LINE_LENGTH;
+
+	/**
+	 * the token cache with one entry per document line, null if a line was not scanned yet or was changed
+	 */
+	private List<Line> lines = new ArrayList<Line>();
+	/**
+	 * the last document event applied to the cache (events are both received as document listener and by
+	 * the presentation reconciler, but must only be applied once)
+	 */
+	private DocumentEvent event;
+	/**
+	 * the text removed by the last document event about to be applied or null if it was not recorded
+	 */
+	private String removedText;
+	/**
+	 * the last document event about to be applied
+	 */
+	private DocumentEvent removing;
+	/**
+	 * the viewer this repairer is installed on or null
+	 */
+	private ITextViewer viewer;
+	/**
+	 * the columns of long lines highlighted by the last presentation or null
+	 */
+	private IRegion window;
+	/**
+	 * the listener for horizontal scrolling and resizing of the text widget
+	 */
+	private final Listener windowListener = new Listener() {
+		@Override public void handleEvent(Event event) { updateWindow(); }
+	};
+
+	/**
+	 * creates a new WordfileDamagerRepairer
+	 * @param scanner the scanner to scan the lines with
+	 */
+	public WordfileDamagerRepairer(WordfileScanner scanner) { this(scanner,new TextAttribute(null)); }
+	/**
+	 * creates a new WordfileDamagerRepairer with a specific default text attribute
+	 * @param scanner the scanner to scan the lines with
+	 * @param defaultTextAttribute the attribute to use for tokens without data
+	 */
+	public WordfileDamagerRepairer(WordfileScanner scanner,TextAttribute defaultTextAttribute) {
+		this.scanner = scanner;
+		this.defaultTextAttribute = defaultTextAttribute;
+	}
+
+	/**
+	 * @see IPresentationDamager#setDocument(IDocument)
+	 */
+	@Override public void setDocument(IDocument document) {
+		if(this.document==document)
+			return;
+		if(this.document!=null)
+			this.document.removeDocumentListener(this);
+		if((this.document=document)!=null)
+			document.addDocumentListener(this);
+		invalidate();
+	}
+
+	/**
+	 * installs the repairer on a viewer, so only the visible horizontal window of long lines is highlighted
+	 * @param viewer the viewer to install the repairer on
+	 */
+	public void install(ITextViewer viewer) {
+		uninstall();
+		StyledText text = (this.viewer=viewer).getTextWidget();
+		if(text!=null) {
+			text.addListener(SWT.Resize,windowListener);
+			if(text.getHorizontalBar()!=null)
+				text.getHorizontalBar().addListener(SWT.Selection,windowListener);
+		}
+	}
+	/**
+	 * uninstalls the repairer from the viewer
+	 */
+	public void uninstall() {
+		if(viewer==null)
+			return;
+		StyledText text = viewer.getTextWidget();
+		if(text!=null&&!text.isDisposed()) {
+			text.removeListener(SWT.Resize,windowListener);
+			ScrollBar bar = text.getHorizontalBar();
+			if(bar!=null&&!bar.isDisposed())
+				bar.removeListener(SWT.Selection,windowListener);
+		}
+		viewer = null; window = null;
+	}
+
+	/**
+	 * sets the length of a line, from which on it is scanned in blocks
+	 * @param longLineLength the length in characters
+	 */
+	public void setLongLineLength(int longLineLength) { this.longLineLength = longLineLength; }
+	/**
+	 * @return the length of a line, from which on it is scanned in blocks
+	 */
+	public int getLongLineLength() { return longLineLength; }
+
+	/**
+	 * drops all cached lines, e.g. if the tokens returned by the scanner changed
+	 */
+	public void invalidate() {
+		lines.clear(); event = null;
+		if(document!=null)
+			lines.addAll(Collections.<Line>nCopies(document.getNumberOfLines(),null));
+	}
+
+	/**
+	 * records the text removed by small changes, to check if the change of a long line is local
+	 */
+	@Override public void documentAboutToBeChanged(DocumentEvent event) {
+		removing = event; removedText = null;
+		if(event.getLength()<=BLOCK_SIZE)
+			try { removedText = document.get(event.getOffset(),event.getLength()); }
+			catch(BadLocationException e) {}
+	}
+	/**
+	 * invalidates the lines touched by the change
+	 */
+	@Override public void documentChanged(DocumentEvent event) { update(event); }
+
+	/**
+	 * @see IPresentationDamager#getDamageRegion(ITypedRegion, DocumentEvent, boolean)
+	 */
+	@Override public IRegion getDamageRegion(ITypedRegion partition,DocumentEvent event,boolean documentPartitioningChanged) {
+		update(event);
+		if(!documentPartitioningChanged) {
+			try {
+				int start = event.getOffset(), end = Math.min(start+(event.getText()==null?event.getLength():event.getText().length()),document.getLength()),
+					partitionEnd = partition.getOffset()+partition.getLength(), line = document.getLineOfOffset(start), last = document.getLineOfOffset(end);
+				start = Math.max(partition.getOffset(),document.getLineOffset(line));
+
+				//a change within a long line only damages the blocks it touched
+				IRegion longLine = line==last?getLongLineDamage(line,partition,end):null;
+				if(longLine!=null)
+					return longLine;
+
+				//scan the changed lines and continue with the next lines, as long as the scanner ends in a different state than the next line was scanned with
+				while(true) {
+					IRegion info = document.getLineInformation(line);
+					end = Math.min(partitionEnd,info.getOffset()+info.getLength());
+					int state = getSegment(line,info.getOffset(),Math.max(start,info.getOffset()),Math.max(end-Math.max(start,info.getOffset()),0)).state;
+					if(line>=last) {
+						Line next = line+1<lines.size()?lines.get(line+1):null;
+						if(next==null||next.state==state||info.getOffset()+document.getLineLength(line)>=partitionEnd)
+							break;
+						lines.set(last=line+1,null);
+					}
+					line++;
+				}
+				return new Region(start,Math.max(end-start,0));
+			} catch(BadLocationException e) {}
+		}
+		return partition;
+	}
+
+	/**
+	 * @see IPresentationRepairer#createPresentation(TextPresentation, ITypedRegion)
+	 */
+	@Override public void createPresentation(TextPresentation presentation,ITypedRegion region) {
+		if(lines.size()!=document.getNumberOfLines())
+			invalidate(); //document changes were not reported to the cache
+
+		int start = region.getOffset(), end = start+region.getLength();
+		StyleCollector collector = new StyleCollector(presentation,start);
+		IRegion window = null;
+		try {
+			for(int line=document.getLineOfOffset(start),last=document.getLineOfOffset(end);line<=last;line++) {
+				IRegion info = document.getLineInformation(line);
+				int lineOffset = info.getOffset(), lineEnd = lineOffset+info.getLength(), segmentStart = Math.max(start,lineOffset), segmentEnd = Math.min(end,lineEnd);
+				if(segmentStart<segmentEnd) {
+					ITypedRegion partition = info.getLength()>=longLineLength?document.getPartition(segmentStart):null;
+					int rangeStart = partition!=null?Math.max(partition.getOffset(),lineOffset):segmentStart, rangeEnd = partition!=null?Math.min(partition.getOffset()+partition.getLength(),lineEnd):segmentEnd;
+					if(rangeEnd-rangeStart>=longLineLength) {
+						//long lines are scanned in blocks and only highlighted in the visible horizontal window
+						if(window==null&&(window=this.window=getWindow())==null)
+							window = new Region(0,Integer.MAX_VALUE);
+						int from = Math.max(segmentStart,lineOffset+window.getOffset()), to = (int)Math.min(segmentEnd,(long)lineOffset+window.getOffset()+window.getLength());
+						if(from<to)
+							for(Segment block:getBlocks(line,lineOffset,rangeStart-lineOffset,rangeEnd-lineOffset,from-lineOffset,to-lineOffset))
+								addTokens(collector,lineOffset,block,from,to);
+					} else addTokens(collector,lineOffset,getSegment(line,lineOffset,segmentStart,segmentEnd-segmentStart),segmentStart,segmentEnd);
+				}
+				//line delimiters are not cached and always highlighted using the default text attribute (as whitespaces)
+				int delimiterStart = Math.max(start,lineEnd), delimiterEnd = Math.min(end,lineOffset+document.getLineLength(line));
+				if(delimiterStart<delimiterEnd)
+					collector.add(delimiterStart,delimiterEnd-delimiterStart,defaultTextAttribute);
+			}
+		} catch(BadLocationException e) {}
+		collector.flush();
+	}
+
+	/**
+	 * returns the text attribute for a token
+	 * @param token the token to return the attribute for
+	 * @return the text attribute of the token or the default text attribute, if the token has no text attribute
+	 */
+	protected TextAttribute getTokenTextAttribute(IToken token) {
+		Object data = token.getData();
+		return data instanceof TextAttribute?(TextAttribute)data:defaultTextAttribute;
+	}
+
+	/**
+	 * adds the tokens of a segment to the style collector
+	 * @param collector the collector to add the tokens to
+	 * @param lineOffset the offset of the line of the segment
+	 * @param segment the segment to add the tokens of
+	 * @param from the offset from which on tokens are added
+	 * @param to the offset up to which tokens are added
+	 */
+	private void addTokens(StyleCollector collector,int lineOffset,Segment segment,int from,int to) {
+		int segmentOffset = lineOffset+segment.offset;
+		for(int token=0;token<segment.count;token++) {
+			int start = Math.max(segmentOffset+segment.offsets[token],from), end = Math.min(segmentOffset+segment.offsets[token]+segment.lengths[token],to);
+			if(start<end)
+				collector.add(start,end-start,getTokenTextAttribute(segment.tokens[token]));
+		}
+	}
+
+	/**
+	 * applies a document change to the cache. All lines the change replaced are dropped, while the remaining lines
+	 * are moved to their new line numbers
+	 * @param event the document event to apply
+	 */
+	private void update(DocumentEvent event) {
+		if(event==null||event==this.event||event.getDocument()!=document)
+			return;
+		this.event = event;
+		try {
+			int line = document.getLineOfOffset(event.getOffset()),
+				inserted = event.getText()!=null?document.computeNumberOfLines(event.getText()):0,
+				removed = inserted-(document.getNumberOfLines()-lines.size());
+			if(removed<0||line+removed>=lines.size())
+				throw new BadLocationException();
+			if(removed==0&&inserted==0) {
+				//a long line is kept, only the blocks touched by the change are dropped
+				Line entry = lines.get(line);
+				IRegion info = document.getLineInformation(line);
+				int offset = event.getOffset(), end = offset+(event.getText()!=null?event.getText().length():0);
+				if(entry!=null&&info.getLength()>=longLineLength&&removing==event&&removedText!=null&&scanner.isLocalChange(removedText)&&scanner.isLocalChange(event.getText())
+				&&scanner.isLocalChange(document.get(Math.max(offset-1,info.getOffset()),offset-Math.max(offset-1,info.getOffset()))+document.get(end,Math.min(end+1,info.getOffset()+info.getLength())-end))) {
+					entry.shift(offset-info.getOffset(),event.getLength(),end-offset);
+					return;
+				}
+			}
+			List<Line> replaced = lines.subList(line,line+removed+1);
+			replaced.clear();
+			replaced.addAll(Collections.<Line>nCopies(inserted+1,null));
+		} catch(BadLocationException e) {
+			invalidate(); this.event = event;
+		}
+	}
+
+	/**
+	 * returns the damage of a change within a long line. All blocks from the first block the change touched are scanned
+	 * again, until the scan ends at the start of a block scanned before the change
+	 * @param line the changed line
+	 * @param partition the partition of the change
+	 * @param end the end offset of the change
+	 * @return the damaged region or null if the line is not a long line
+	 */
+	private IRegion getLongLineDamage(int line,ITypedRegion partition,int end) throws BadLocationException {
+		Line entry = lines.get(line);
+		IRegion info = document.getLineInformation(line);
+		if(entry==null||info.getLength()<longLineLength)
+			return null;
+		int lineOffset = info.getOffset(), rangeStart = Math.max(partition.getOffset(),lineOffset)-lineOffset,
+			rangeEnd = Math.min(partition.getOffset()+partition.getLength(),lineOffset+info.getLength())-lineOffset;
+		if(rangeEnd-rangeStart<longLineLength)
+			return null;
+
+		int damageStart = -1, position = rangeStart;
+		end -= lineOffset;
+		while(position<rangeEnd) {
+			Segment block = entry.find(position,rangeEnd);
+			if(block==null) {
+				if(position>=end&&!entry.hasSegmentsAfter(position))
+					break; //the rest of the line was never scanned (and thus never highlighted)
+				entry.put(block=scan(lineOffset,lineOffset+position,rangeEnd-position,BLOCK_SIZE));
+				if(damageStart<0)
+					damageStart = position;
+			} else if(position>=end)
+				break; //the scan reached a block, which was not changed
+			position = block.offset+block.length;
+		}
+
+		Line next = line+1<lines.size()?lines.get(line+1):null;
+		if(next!=null&&next.state!=entry.getEndState())
+			return null; //the state of the next line changed
+		if(damageStart<0)
+			damageStart = position = Math.min(end,rangeEnd);
+		return new Region(lineOffset+damageStart,position-damageStart);
+	}
+
+	/**
+	 * returns the cached line or creates a new line entry, if the line is not cached yet
+	 * @param line the line to return
+	 * @return the line entry
+	 */
+	private Line getLine(int line) {
+		Line entry = lines.get(line);
+		if(entry==null) {
+			Line previous = line>0?lines.get(line-1):null;
+			lines.set(line,entry=new Line(previous!=null?previous.getEndState():WordfileScanner.INITIAL_STATE));
+		}
+		return entry;
+	}
+
+	/**
+	 * returns the cached segment of a line or scans and caches it, if it is not cached yet
+	 * @param line the line of the segment
+	 * @param lineOffset the offset of the line
+	 * @param offset the offset of the segment
+	 * @param length the length of the segment
+	 * @return the segment
+	 */
+	private Segment getSegment(int line,int lineOffset,int offset,int length) {
+		Line entry = getLine(line);
+		Segment segment = entry.find(offset-lineOffset,offset-lineOffset+length);
+		if(segment==null||!segment.terminal)
+			entry.put(segment=scan(lineOffset,offset,length,Integer.MAX_VALUE));
+		return segment;
+	}
+
+	/**
+	 * returns the blocks of a range of a long line, the blocks are scanned from the start of the range on
+	 * @param line the line of the range
+	 * @param lineOffset the offset of the line
+	 * @param start the start of the range relative to the line
+	 * @param end the end of the range relative to the line
+	 * @param from the start of the requested blocks relative to the line
+	 * @param to the end of the requested blocks relative to the line
+	 * @return all blocks of the range overlapping the requested blocks
+	 */
+	private List<Segment> getBlocks(int line,int lineOffset,int start,int end,int from,int to) {
+		Line entry = getLine(line);
+		List<Segment> blocks = new ArrayList<Segment>();
+		for(int position=start;position<end&&position<to;) {
+			Segment block = entry.find(position,end);
+			if(block==null)
+				entry.put(block=scan(lineOffset,lineOffset+position,end-position,BLOCK_SIZE));
+			if((position=block.offset+block.length)>from)
+				blocks.add(block);
+		}
+		return blocks;
+	}
+
+	/**
+	 * scans a segment of a line
+	 * @param lineOffset the offset of the line
+	 * @param offset the offset of the segment
+	 * @param length the length of the segment
+	 * @param limit the number of characters after which the scan stops at the next token boundary
+	 * @return the scanned segment
+	 */
+	private Segment scan(int lineOffset,int offset,int length,int limit) {
+		int count = 0, end = length; int[] offsets = new int[8], lengths = new int[8]; IToken[] tokens = new IToken[8];
+
+		scanner.setRange(document,offset,length);
+		IToken token;
+		while(!(token=scanner.nextToken()).isEOF()) {
+			int tokenOffset = scanner.getTokenOffset()-offset, tokenLength = scanner.getTokenLength();
+			if(count!=0&&tokens[count-1]==token&&offsets[count-1]+lengths[count-1]==tokenOffset)
+				lengths[count-1] += tokenLength; //merge subsequent equal tokens
+			else {
+				if(count==tokens.length) {
+					offsets = Arrays.copyOf(offsets,count*2);
+					lengths = Arrays.copyOf(lengths,count*2);
+					tokens = Arrays.copyOf(tokens,count*2);
+				}
+				offsets[count] = tokenOffset;
+				lengths[count] = tokenLength;
+				tokens[count++] = token;
+			}
+			if(tokenOffset+tokenLength>=limit&&tokenOffset+tokenLength<length) {
+				end = tokenOffset+tokenLength; //stop at the token boundary, the next block is scanned from here
+				break;
+			}
+		}
+
+		return new Segment(offset-lineOffset,end,Arrays.copyOf(offsets,count),Arrays.copyOf(lengths,count),Arrays.copyOf(tokens,count),count,scanner.getState(),end==length);
+	}
+
+	/**
+	 * returns the visible columns of the viewer, the average width of a character is measured with a sample of characters
+	 * (instead of the deprecated average character width of the font metrics, its replacement is not available in older versions)
+	 * @return the visible columns or null if the repairer is not installed on a viewer
+	 */
+	private IRegion getVisibleColumns() {
+		StyledText text = viewer!=null?viewer.getTextWidget():null;
+		if(text==null||text.isDisposed())
+			return null;
+		GC graphics = new GC(text);
+		double width = Math.max((double)graphics.stringExtent(WIDTH_SAMPLE).x/WIDTH_SAMPLE.length(),1);
+		graphics.dispose();
+		return new Region(text.getHorizontalIndex(),(int)(text.getClientArea().width/width)+1);
+	}
+
+	/**
+	 * returns the columns of long lines to highlight, which are the visible columns of the viewer and a margin
+	 * @return the columns to highlight or null if the repairer is not installed on a viewer
+	 */
+	private IRegion getWindow() {
+		IRegion visible = getVisibleColumns();
+		if(visible==null)
+			return null;
+		int start = Math.max(visible.getOffset()-WINDOW_MARGIN,0);
+		return new Region(start,visible.getOffset()+visible.getLength()+WINDOW_MARGIN-start);
+	}
+
+	/**
+	 * highlights the visible long lines again, if the visible columns left the highlighted columns
+	 */
+	private void updateWindow() {
+		IRegion window = this.window, visible = getVisibleColumns();
+		if(window==null||visible==null||document==null||!(viewer instanceof ITextViewerExtension2))
+			return;
+		if(visible.getOffset()>=window.getOffset()&&visible.getOffset()+visible.getLength()<=window.getOffset()+window.getLength())
+			return; //the visible columns are highlighted already
+		this.window = window = getWindow();
+		try {
+			for(int line=document.getLineOfOffset(viewer.getTopIndexStartOffset()),last=document.getLineOfOffset(viewer.getBottomIndexEndOffset());line<=last;line++) {
+				IRegion info = document.getLineInformation(line);
+				if(info.getLength()>=longLineLength&&window.getOffset()<info.getLength())
+					((ITextViewerExtension2)viewer).invalidateTextPresentation(info.getOffset()+window.getOffset(),Math.min(window.getLength(),info.getLength()-window.getOffset()));
+			}
+		} catch(BadLocationException e) {}
+	}
+
+	/**
+	 * a cached line
+	 * @author Kristian Kraljic
+	 */
+	private static class Line {
+		/**
+		 * the state of the scanner at the beginning of the line
+		 */
+		private final int state;
+		/**
+		 * the scanned segments of the line sorted by their offset (usually one, more if the line is split into multiple partitions or blocks)
+		 */
+		private final List<Segment> segments = new ArrayList<Segment>(1);
+		public Line(int state) { this.state = state; }
+		/**
+		 * @return the state of the scanner at the end of the line
+		 */
+		public int getEndState() { return !segments.isEmpty()?segments.get(segments.size()-1).state:state; }
+		/**
+		 * finds a segment scanned from an offset, which is valid for a range ending at another offset
+		 * @param offset the offset the segment was scanned from
+		 * @param end the end of the range
+		 * @return the segment or null
+		 */
+		public Segment find(int offset,int end) {
+			for(int index=indexOf(offset);index<segments.size()&&segments.get(index).offset==offset;index++) {
+				Segment segment = segments.get(index);
+				//a segment reaching the end of its range is only valid for the same range end
+				if(segment.terminal?segment.offset+segment.length==end:segment.offset+segment.length<end)
+					return segment;
+			}
+			return null;
+		}
+		/**
+		 * @return true if there are segments starting at or after an offset
+		 */
+		public boolean hasSegmentsAfter(int offset) { return !segments.isEmpty()&&segments.get(segments.size()-1).offset>=offset; }
+		/**
+		 * adds a segment, all segments overlapping the segment (e.g. scanned for other partition layouts) are dropped
+		 * @param segment the segment to add
+		 */
+		public void put(Segment segment) {
+			int index = indexOf(segment.offset);
+			while(index>0&&segment.overlaps(segments.get(index-1)))
+				segments.remove(--index);
+			for(int next=index;next<segments.size()&&segments.get(next).offset<=segment.offset+segment.length;)
+				if(segment.overlaps(segments.get(next)))
+					 segments.remove(next);
+				else next++;
+			segments.add(indexOf(segment.offset),segment);
+		}
+		/**
+		 * applies a change within the line. All segments touched by the change are dropped, the following segments are moved
+		 * @param offset the offset of the change relative to the line
+		 * @param removed the number of characters removed
+		 * @param inserted the number of characters inserted
+		 */
+		public void shift(int offset,int removed,int inserted) {
+			//a segment ending right at the change may have read the first changed character (to find the end of its last token)
+			for(int index=segments.size()-1;index>=0;index--) {
+				Segment segment = segments.get(index);
+				if(segment.offset>=offset+removed)
+					segment.offset += inserted-removed;
+				else if(segment.offset+segment.length>=offset)
+					segments.remove(index);
+			}
+		}
+		/**
+		 * returns the index of the first segment starting at or after an offset
+		 */
+		private int indexOf(int offset) {
+			int low = 0, high = segments.size()-1;
+			while(low<=high) {
+				int middle = (low+high)>>>1;
+				if(segments.get(middle).offset<offset)
+					low = middle+1;
+				else high = middle-1;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * a scanned segment of a line, the segment offset is relative to the line offset and the token offsets are relative
+	 * to the segment offset. A segment is either terminal, if it was scanned up to the end of its range, or a block of a
+	 * long line, which ends on a token boundary
+	 * @author Kristian Kraljic
+	 */
+	private static class Segment {
+		private int offset;
+		private final int length,count,state;
+		private final int[] offsets,lengths;
+		private final IToken[] tokens;
+		private final boolean terminal;
+		public Segment(int offset,int length,int[] offsets,int[] lengths,IToken[] tokens,int count,int state,boolean terminal) {
+			this.terminal = terminal;
+			this.offset = offset;
+			this.length = length;
+			this.offsets = offsets;
+			this.lengths = lengths;
+			this.tokens = tokens;
+			this.count = count;
+			this.state = state;
+		}
+		public boolean overlaps(Segment other) {
+			return other.offset<offset+length&&offset<other.offset+other.length||other.length==0&&other.offset==offset;
+		}
+	}
+
+	/**
+	 * collects the style ranges of a presentation, subsequent ranges with equal text attributes are merged
+	 * @author Kristian Kraljic
+	 */
+	private static class StyleCollector {
+		private final TextPresentation presentation;
+		private int start,length;
+		private TextAttribute attribute;
+		public StyleCollector(TextPresentation presentation,int start) {
+			this.presentation = presentation;
+			this.start = start;
+		}
+		public void add(int offset,int length,TextAttribute attribute) {
+			if(this.attribute!=null&&this.attribute.equals(attribute)&&start+this.length==offset)
+				this.length += length;
+			else {
+				flush();
+				this.start = offset;
+				this.length = length;
+				this.attribute = attribute;
+			}
+		}
+		public void flush() {
+			if(attribute==null||length==0)
+				return;
+			int style = attribute.getStyle();
+			StyleRange range = new StyleRange(start,length,attribute.getForeground(),attribute.getBackground(),style&(SWT.ITALIC|SWT.BOLD|SWT.NORMAL));
+			range.strikeout = (style&TextAttribute.STRIKETHROUGH)!=0;
+			range.underline = (style&TextAttribute.UNDERLINE)!=0;
+			range.font = attribute.getFont();
+			presentation.addStyleRange(range);
+			attribute = null;
+		}
+	}
+}
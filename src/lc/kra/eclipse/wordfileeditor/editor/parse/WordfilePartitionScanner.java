@@ -24,6 +24,8 @@ package lc.kra.eclipse.wordfileeditor.editor.parse;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.rules.ICharacterScanner;
 import org.eclipse.jface.text.rules.IPredicateRule;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.MultiLineRule;
@@ -43,9 +45,17 @@ public class WordfilePartitionScanner extends RuleBasedPartitionScanner {
 	 */
 	public static final String CONTENT_TYPE_SINGLE_LINE_COMMENT = "SINGLE_LINE_COMMENT";
 	/**
-	 * The block for multi line comments
+	 * The block for multi line (block) comments
 	 */
-	public static final String CONTENT_TYPE_MULTI_LINE_COMMENT = "SINGLE_LINE_COMMENT";
+	public static final String CONTENT_TYPE_MULTI_LINE_COMMENT = "MULTI_LINE_COMMENT";
+	/**
+	 * The block for alternate multi line (block) comments
+	 */
+	public static final String CONTENT_TYPE_ALTERNATE_BLOCK_COMMENT = "ALTERNATE_BLOCK_COMMENT";
+	/**
+	 * The block for strings spanning multiple lines (if enabled by the wordfile)
+	 */
+	public static final String CONTENT_TYPE_MULTI_LINE_STRING = "MULTI_LINE_STRING";
 	
 	/**
 	 * creates a new partition scanner to be used in a WordfileEditor
@@ -67,6 +77,11 @@ public class WordfilePartitionScanner extends RuleBasedPartitionScanner {
 			if(wordfile.getBlockCommentOn()!=null&&wordfile.getBlockCommentOff()!=null)
 				rules.add(new MultiLineRule(wordfile.getBlockCommentOn(),wordfile.getBlockCommentOff(),tokenCommentMultiLine));
 			
+			//the alternate multi line comment
+			IToken tokenCommentAlternateBlock = new Token(CONTENT_TYPE_ALTERNATE_BLOCK_COMMENT);
+			if(wordfile.getBlockCommentOnAlt()!=null&&wordfile.getBlockCommentOffAlt()!=null)
+				rules.add(new MultiLineRule(wordfile.getBlockCommentOnAlt(),wordfile.getBlockCommentOffAlt(),tokenCommentAlternateBlock));
+			
 			//the single line comment
 			IToken tokenCommentSingleLine = new Token(CONTENT_TYPE_SINGLE_LINE_COMMENT);
 			if(wordfile.getLineComment()!=null)
@@ -74,14 +89,47 @@ public class WordfilePartitionScanner extends RuleBasedPartitionScanner {
 			if(wordfile.getLineCommentAlt()!=null)
 				rules.add(new SingleLineRule(wordfile.getLineCommentAlt(),"\n",tokenCommentSingleLine));
 			
-			//for html further sections are needed to highlight CSS, JavaScript and PHP
-			if(wordfile.getType().equals(Wordfile.WordfileType.HTML_LANG)) {
-				rules.add(new MultiLineRule("<style","</style>",new Token(Wordfile.WordfileType.CSS_LANG.toString())));
-				rules.add(new MultiLineRule("<script","</script>",new Token(Wordfile.WordfileType.JSCRIPT_LANG.toString())));
-				rules.add(new MultiLineRule("<?","?>",new Token(Wordfile.WordfileType.PHP_LANG.toString())));
-			}
+			//the multi line strings (strings ending in the line they start in are still highlighted by the WordfileScanner)
+			IToken tokenStringMultiLine = new Token(CONTENT_TYPE_MULTI_LINE_STRING);
+			if(wordfile.isEnableMLS()&&!wordfile.isNoquote()&&wordfile.getStringChars()!=null)
+				for(char chr:wordfile.getStringChars().toCharArray())
+					rules.add(new MultiLineStringRule(Character.toString(chr),tokenStringMultiLine,wordfile.getEscapeChar()!=null?wordfile.getEscapeChar().charAt(0):0));
+			
+			//further sections are needed to highlight embedded languages (e.g. CSS, JavaScript and PHP in HTML)
+			List<EmbeddedLanguageRule.Region> regions = EmbeddedLanguageRule.getRegions(wordfile);
+			if(!regions.isEmpty())
+				rules.add(new EmbeddedLanguageRule(regions));
 		}
 		
 		setPredicateRules(rules.toArray(new IPredicateRule[0]));
 	}
+	
+	/**
+	 * the rule of strings spanning more than one line. Strings ending in the line they start in are no partitions of their own,
+	 * so most strings stay in the partition around them and are highlighted by the WordfileScanner, like if multi line strings
+	 * are disabled
+	 * @author Kristian Kraljic
+	 */
+	private class MultiLineStringRule extends MultiLineRule {
+		public MultiLineStringRule(String quote,IToken token,char escapeCharacter) { super(quote,quote,token,escapeCharacter); }
+		
+		/**
+		 * detects a string like the MultiLineRule, but only returns its token if the string contains a line delimiter. If the
+		 * scanner resumes inside a string, the string is checked from its start
+		 */
+		@Override public IToken evaluate(ICharacterScanner scanner,boolean resume) {
+			int offset = fOffset;
+			IToken token = super.evaluate(scanner,resume);
+			if(token.isUndefined()||scanner!=WordfilePartitionScanner.this)
+				return token;
+			try {
+				for(int index=getTokenOffset();index<fOffset;index++)
+					if(fDocument.getChar(index)=='\n'||fDocument.getChar(index)=='\r')
+						return token;
+			} catch(BadLocationException e) { return token; }
+			while(fOffset>offset)
+				scanner.unread();
+			return Token.UNDEFINED;
+		}
+	}
 }
@@ -21,7 +21,10 @@
  */
 package lc.kra.eclipse.wordfileeditor.editor.parse;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -31,10 +34,7 @@ import org.eclipse.jface.text.rules.IRule;
 import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.IWordDetector;
 import org.eclipse.jface.text.rules.Token;
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.widgets.Display;
-
-import lc.kra.eclipse.wordfileeditor.editor.WordfileConfiguration;
+import lc.kra.eclipse.wordfileeditor.utilities.ResourceManager;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
 
 /**
@@ -46,6 +46,10 @@ public class WordfileRule implements IRule {
 	 * the end tag of HTML language(s)
 	 */
 	private final char TAG_END = '>';
+	/**
+	 * the texts put in front of and behind a candidate of a tag based language, in the order they are evaluated
+	 */
+	private static final String[][] TAG_FORMS = new String[][]{{"",""},{"/",""},{"<",""},{"</",""},{"",">"},{"<",">"},{"</",">"}};
 	
 	/** The word detector used by this rule. */
 	protected IWordDetector fDetector;
@@ -55,6 +59,8 @@ public class WordfileRule implements IRule {
 	protected Map<String,IToken> fPrefixes = new HashMap<String,IToken>();
 	/** The set of single character tokens */
 	protected Map<Character,IToken> fCharacters = new HashMap<Character,IToken>();
+	/** The tokens of the code formats */
+	protected Map<Wordfile.CodeFormat,Token> fFormatTokens = new HashMap<Wordfile.CodeFormat,Token>();
 	
 	/** Buffer used for pattern detection. */
 	protected StringBuffer fBuffer= new StringBuffer();
@@ -66,7 +72,7 @@ public class WordfileRule implements IRule {
 	/**
 	 * the default token to return if no token was recognized
 	 */
-	private IToken fDefaultToken;
+	private Token fDefaultToken;
 	/**
 	 * is set to true if this language is tag based (so < and > will be ignored)
 	 */
@@ -80,11 +86,12 @@ public class WordfileRule implements IRule {
 	/**
 	 * creates a new wordfile rule for a specific wordfile
 	 * @param wordfile the wordfile to create the wordfile rul efor
+	 * @param resources the resource manager to allocate the colors with
 	 */
-	public WordfileRule(Wordfile wordfile) {
+	public WordfileRule(Wordfile wordfile,ResourceManager resources) {
 		fWordfile = wordfile;
 		Wordfile.WordfileType type = wordfile.getType();
-		fDefaultToken = new Token(new Color(Display.getCurrent(),wordfile.getColors()[Wordfile.COLOR_NORMAL_TEXT]));
+		fDefaultToken = new Token(new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_NORMAL_TEXT])));
 		fIsTagBased = type.equals(Wordfile.WordfileType.HTML_LANG)
 		            ||type.equals(Wordfile.WordfileType.XML_LANG);
 		
@@ -96,7 +103,8 @@ public class WordfileRule implements IRule {
 		};
 		//initialize the rule for all code formats
 		for(Wordfile.CodeFormat codeFormat:wordfile.getCodeFormats()) {
-			IToken tokenType = new Token(new TextAttribute(WordfileConfiguration.convertColor(codeFormat.getColors()),WordfileConfiguration.convertColor(codeFormat.getColorsBack()),codeFormat.getFontStyle()));
+			Token tokenType = new Token(getTextAttribute(codeFormat,resources));
+			fFormatTokens.put(codeFormat,tokenType);
 			Set<String> keywords = codeFormat.getKeywords();
 			for(String keyword:keywords)
 				if(!keyword.trim().isEmpty())
@@ -108,6 +116,145 @@ public class WordfileRule implements IRule {
 				if(keywords.contains(Character.toString(delimiter)))
 					fCharacters.put(fWordfile.isNocase()?Character.toLowerCase(delimiter):delimiter,tokenType);
 		}
+		if(fIsTagBased)
+			addTagForms();
+	}
+	
+	/**
+	 * creates a copy of a wordfile rule, sharing the keyword tables and tokens of the rule
+	 * @param rule the rule to copy
+	 */
+	public WordfileRule(WordfileRule rule) {
+		fWordfile = rule.fWordfile;
+		fDefaultToken = rule.fDefaultToken;
+		fIsTagBased = rule.fIsTagBased;
+		fDetector = rule.fDetector;
+		fWords = rule.fWords;
+		fPrefixes = rule.fPrefixes;
+		fCharacters = rule.fCharacters;
+		fFormatTokens = rule.fFormatTokens;
+	}
+	
+	/**
+	 * updates the rule to another version of its wordfile. If the keywords, prefixes and delimiters of the wordfile did
+	 * not change, the text attributes of the tokens are updated in place
+	 * @param wordfile the new version of the wordfile
+	 * @param resources the resource manager to allocate the colors with
+	 * @param changed a map to put the changed tokens with their previous text attribute to
+	 * @return true if the rule was updated, false if the rule has to be created again for the new wordfile
+	 */
+	public boolean update(Wordfile wordfile,ResourceManager resources,Map<IToken,TextAttribute> changed) {
+		if(wordfile.isNocase()!=fWordfile.isNocase()||!wordfile.getType().equals(fWordfile.getType())
+		 ||!String.valueOf(wordfile.getDelimiters()).equals(String.valueOf(fWordfile.getDelimiters()))||!String.valueOf(wordfile.getStringChars()).equals(String.valueOf(fWordfile.getStringChars()))
+		 ||wordfile.getCodeFormats().size()!=fFormatTokens.size())
+			return false;
+		Map<Wordfile.CodeFormat,Wordfile.CodeFormat> codeFormats = new HashMap<Wordfile.CodeFormat,Wordfile.CodeFormat>();
+		for(Wordfile.CodeFormat codeFormat:fWordfile.getCodeFormats())
+			codeFormats.put(codeFormat,codeFormat);
+		for(Wordfile.CodeFormat codeFormat:wordfile.getCodeFormats()) {
+			Wordfile.CodeFormat previous = codeFormats.get(codeFormat);
+			if(previous==null||!previous.getKeywords().equals(codeFormat.getKeywords())||!previous.getPrefixes().equals(codeFormat.getPrefixes()))
+				return false;
+		}
+		
+		update(fDefaultToken,new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_NORMAL_TEXT])),changed);
+		Map<Wordfile.CodeFormat,Token> formatTokens = new HashMap<Wordfile.CodeFormat,Token>();
+		for(Wordfile.CodeFormat codeFormat:wordfile.getCodeFormats()) {
+			Token token = fFormatTokens.get(codeFormat);
+			update(token,getTextAttribute(codeFormat,resources),changed);
+			formatTokens.put(codeFormat,token);
+		}
+		fFormatTokens = formatTokens;
+		fWordfile = wordfile;
+		return true;
+	}
+	
+	/**
+	 * @return the tokens of this rule
+	 */
+	public List<IToken> getTokens() {
+		List<IToken> tokens = new ArrayList<IToken>(fFormatTokens.values());
+		tokens.add(fDefaultToken);
+		return tokens;
+	}
+	
+	/**
+	 * sets a new text attribute to a token, if it differs from its current one
+	 * @param token the token to update
+	 * @param attribute the new text attribute
+	 * @param changed a map to put the token with its previous text attribute to, if it changed
+	 */
+	static void update(Token token,TextAttribute attribute,Map<IToken,TextAttribute> changed) {
+		if(attribute.equals(token.getData()))
+			return;
+		if(!changed.containsKey(token))
+			changed.put(token,(TextAttribute)token.getData());
+		token.setData(attribute);
+	}
+	
+	/**
+	 * returns the text attribute of a code format
+	 * @param codeFormat the code format
+	 * @param resources the resource manager to allocate the colors with
+	 * @return the text attribute
+	 */
+	private static TextAttribute getTextAttribute(Wordfile.CodeFormat codeFormat,ResourceManager resources) {
+		return new TextAttribute(resources.getColor(codeFormat.getColors()),resources.getColor(codeFormat.getColorsBack()),codeFormat.getFontStyle());
+	}
+	
+	/**
+	 * adds the candidates to the table of words, which match a keyword if their missing <, / or > are added, so that
+	 * a candidate of a tag based language is found with a single lookup. If multiple keywords match the same candidate,
+	 * the keyword of the form evaluated first is used (@see #getTagForms(String))
+	 */
+	private void addTagForms() {
+		List<Map<String,IToken>> levels = new ArrayList<Map<String,IToken>>();
+		for(Map.Entry<String,IToken> word:fWords.entrySet()) {
+			String keyword = word.getKey();
+			for(String[] stripped:TAG_FORMS) {
+				if(!keyword.startsWith(stripped[0])||!keyword.endsWith(stripped[1])||keyword.length()<=stripped[0].length()+stripped[1].length())
+					continue;
+				String candidate = keyword.substring(stripped[0].length(),keyword.length()-stripped[1].length());
+				List<String[]> forms = getTagForms(candidate);
+				for(int level=1;level<forms.size();level++)
+					if(forms.get(level)[0].equals(stripped[0])&&forms.get(level)[1].equals(stripped[1])) {
+						while(levels.size()<level)
+							levels.add(new HashMap<String,IToken>());
+						if(!levels.get(level-1).containsKey(candidate))
+							levels.get(level-1).put(candidate,word.getValue());
+						break;
+					}
+			}
+		}
+		for(Map<String,IToken> level:levels)
+			for(Map.Entry<String,IToken> word:level.entrySet())
+				if(!fWords.containsKey(word.getKey()))
+					fWords.put(word.getKey(),word.getValue());
+	}
+	
+	/**
+	 * returns the forms a candidate of a tag based language is evaluated in: first the candidate itself, then with
+	 * the missing / and < in front of it and finally with a missing > at its end
+	 * @param candidate the candidate
+	 * @return a list of the texts to put in front of and behind the candidate
+	 */
+	private static List<String[]> getTagForms(String candidate) {
+		List<String[]> forms = new ArrayList<String[]>(4);
+		forms.add(TAG_FORMS[0]);
+		if(candidate.startsWith("<")) {
+			if(!candidate.endsWith(">"))
+				forms.add(TAG_FORMS[4]);
+		} else if(candidate.startsWith("/")) {
+			forms.add(TAG_FORMS[2]);
+			if(!candidate.endsWith(">"))
+				forms.add(TAG_FORMS[5]);
+		} else {
+			forms.add(TAG_FORMS[1]);
+			forms.add(TAG_FORMS[3]);
+			if(!candidate.endsWith(">"))
+				forms.add(TAG_FORMS[6]);
+		}
+		return forms;
 	}
 		
 	/**
@@ -158,39 +305,48 @@ public class WordfileRule implements IRule {
 	}
 	
 	/**
-	 * this method evaluates a single token, if it is tag based the candiate is evaluated and < or > are stripped
+	 * this method evaluates a single token, if it is tag based the candiate is also evaluated with missing <, / or >
 	 * @param candidate the candidate to be evaluated
 	 * @return an IToken or Token.UNDEFINED
 	 */
 	protected IToken evaluateCandidate(String candidate) {		
 		IToken token;
 		
-		//if there is an explicit match return the explicit match
+		//if there is an explicit match return the explicit match (the table contains the tag forms of the keywords as well)
 		if((token=fWords.get(candidate))!=null)
 			return token;
 		
-		
-		//if a prefix matches return the prefix
-		for(String prefix:fPrefixes.keySet())
-			if(candidate.startsWith(prefix))
-				return fPrefixes.get(prefix);
-		
-		//if the language is tag based, try ot remove <, >, and />
-		if(fIsTagBased) {
-			if(!candidate.startsWith("<")) {
-				if(candidate.startsWith("/"))
-					 candidate = "<"+candidate;
-				else candidate = "/"+candidate;
-				return evaluateCandidate(candidate);
-			}
-			if(!candidate.endsWith(">"))
-				return evaluateCandidate(candidate+">");
-		}
+		//if a prefix matches return the prefix (for tag based languages check the tag forms of the candidate, without building them)
+		if(!fPrefixes.isEmpty())
+			for(String[] form:fIsTagBased?getTagForms(candidate):Collections.singletonList(TAG_FORMS[0]))
+				for(Map.Entry<String,IToken> prefix:fPrefixes.entrySet())
+					if(startsWith(form[0],candidate,form[1],prefix.getKey()))
+						return prefix.getValue();
 		
 		fTokenUnrecognized++;
 		
 		return Token.UNDEFINED;
 	}
+	
+	/**
+	 * checks if the concatenation of three texts starts with a prefix
+	 * @param head the first text
+	 * @param candidate the second text
+	 * @param tail the third text
+	 * @param prefix the prefix to check
+	 * @return true if the concatenated texts start with the prefix
+	 */
+	private static boolean startsWith(String head,String candidate,String tail,String prefix) {
+		if(prefix.length()>head.length()+candidate.length()+tail.length())
+			return false;
+		for(int index=0;index<prefix.length();index++) {
+			int offset = index;
+			char chr = offset<head.length()?head.charAt(offset):(offset-=head.length())<candidate.length()?candidate.charAt(offset):tail.charAt(offset-candidate.length());
+			if(chr!=prefix.charAt(index))
+				return false;
+		}
+		return true;
+	}
 
 
 	/**
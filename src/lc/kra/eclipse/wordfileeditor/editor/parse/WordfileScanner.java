@@ -22,21 +22,25 @@
 package lc.kra.eclipse.wordfileeditor.editor.parse;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.TextAttribute;
 import org.eclipse.jface.text.rules.IRule;
+import org.eclipse.jface.text.rules.IToken;
 import org.eclipse.jface.text.rules.IWhitespaceDetector;
 import org.eclipse.jface.text.rules.NumberRule;
 import org.eclipse.jface.text.rules.RuleBasedScanner;
 import org.eclipse.jface.text.rules.SingleLineRule;
 import org.eclipse.jface.text.rules.Token;
 import org.eclipse.jface.text.rules.WhitespaceRule;
-import org.eclipse.swt.graphics.Color;
-import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.graphics.RGB;
 
-import lc.kra.eclipse.wordfileeditor.editor.WordfileConfiguration;
+import lc.kra.eclipse.wordfileeditor.utilities.ResourceManager;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
 
 /**
@@ -44,6 +48,11 @@ import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
  * @author Kristian Kraljic
  */
 public class WordfileScanner extends RuleBasedScanner {
+	/**
+	 * the state of the scanner at the beginning of a document
+	 */
+	public static final int INITIAL_STATE = 0;
+	
 	/**
 	 * the WordfileRule used to highlight single partitions
 	 */
@@ -52,59 +61,132 @@ public class WordfileScanner extends RuleBasedScanner {
 	 * all rules used to highlight the document with
 	 */
 	private IRule[] rules;
+	/**
+	 * the resource manager used to allocate the colors of the tokens
+	 */
+	private ResourceManager resources;
+	/**
+	 * the characters starting and ending strings, as well as the escape characters of strings
+	 */
+	private String stringChars;
+	/**
+	 * the wordfile of the scanner or null
+	 */
+	private Wordfile wordfile;
+	/**
+	 * the tokens of strings and numbers
+	 */
+	private Token stringToken,numberToken;
 	
 	/**
 	 * creates a new WordfileScanner and sets the rules to it
 	 * @param wordfile
+	 * @param resources the resource manager to allocate the colors with
 	 */
-	public WordfileScanner(Wordfile wordfile) { setWordfile(wordfile); }
+	public WordfileScanner(Wordfile wordfile,ResourceManager resources) {
+		this.resources = resources;
+		setWordfile(wordfile);
+	}
+	
+	/**
+	 * creates a copy of a WordfileScanner, sharing its keyword tables and tokens. All rules are created again, as the rules keep
+	 * state while scanning (the WordfileRule the scanned word, the string rules the line delimiters of the scanned document)
+	 * @param scanner the scanner to copy
+	 */
+	public WordfileScanner(WordfileScanner scanner) {
+		resources = scanner.resources;
+		wordfile = scanner.wordfile;
+		stringChars = scanner.stringChars;
+		stringToken = scanner.stringToken;
+		numberToken = scanner.numberToken;
+		setDefaultReturnToken(scanner.fDefaultReturnToken);
+		if(scanner.rule!=null)
+			rule = new WordfileRule(scanner.rule);
+		setRules(this.rules=createRules());
+	}
 	
 	/**
 	 * sets a new wordfile to the scanner
 	 * @param wordfile the wordfile to set
 	 */
 	public void setWordfile(Wordfile wordfile) {
+		this.wordfile = wordfile;
 		if(wordfile!=null) { //if a wordfile is specified, scan the document based on this wordfile
-			setDefaultReturnToken(new Token(new TextAttribute(WordfileConfiguration.convertColor(wordfile.getColors()[Wordfile.COLOR_NORMAL_TEXT]))));
-			
-			List<IRule> rules = new ArrayList<IRule>();
+			setDefaultReturnToken(new Token(new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_NORMAL_TEXT]))));
+			stringChars = !wordfile.isNoquote()&&wordfile.getStringChars()!=null?wordfile.getStringChars()+(wordfile.getEscapeChar()!=null?wordfile.getEscapeChar():new String()):new String();
+			stringToken = new Token(new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_STRING])));
+			numberToken = new Token(new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_NUMBER])));
+			rule = new WordfileRule(wordfile,resources);
+		} else {
+			setDefaultReturnToken(new Token(new TextAttribute(resources.getColor(new RGB(0,0,0)),resources.getColor(new RGB(255,255,255)),0)));
+			stringChars = "\"";
+			stringToken = new Token(new TextAttribute(resources.getColor(new RGB(128,128,128))));
+			numberToken = new Token(new TextAttribute(resources.getColor(new RGB(255,0,0)))); //default red
+		}
+		setRules(this.rules=createRules());
+	}
+	
+	/**
+	 * creates the rules of the scanner for its wordfile, using the tokens and the WordfileRule of the scanner
+	 * @return the rules
+	 */
+	private IRule[] createRules() {
+		List<IRule> rules = new ArrayList<IRule>();
+		if(wordfile!=null) {
 			//add a rule for each string char in the wordfile
 			if(!wordfile.isNoquote()&&wordfile.getStringChars()!=null)
 				for(char chr:wordfile.getStringChars().toCharArray())
 					if(wordfile.getEscapeChar()!=null)
-						 rules.add(new SingleLineRule(Character.toString(chr),Character.toString(chr),new Token(new TextAttribute(WordfileConfiguration.convertColor(wordfile.getColors()[Wordfile.COLOR_STRING]))),wordfile.getEscapeChar().charAt(0)));
-					else rules.add(new SingleLineRule(Character.toString(chr),Character.toString(chr),new Token(new TextAttribute(WordfileConfiguration.convertColor(wordfile.getColors()[Wordfile.COLOR_STRING])))));
-			//add a number rule
-			rules.add(new NumberRule(new Token((new TextAttribute(WordfileConfiguration.convertColor(wordfile.getColors()[Wordfile.COLOR_NUMBER]))))));
-			//add the wordfile rule
-			rules.add(rule=new WordfileRule(wordfile));
-			//add rules which apply to whitespaces
-			rules.add(new WhitespaceRule(new IWhitespaceDetector() {
-	            @Override public boolean isWhitespace(char c) {
-	            	return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
-	            }
-	        }));
-			
-			setRules(this.rules=rules.toArray(new IRule[0]));
-		} else {
-			setDefaultReturnToken(new Token(new TextAttribute(new Color(Display.getCurrent(),0,0,0),new Color(Display.getCurrent(),255,255,255),0)));
-			
-			List<IRule> rules = new ArrayList<IRule>();
-			//add the default string rule
-			rules.add(new SingleLineRule("\"","\"",new Token(new TextAttribute(new Color(Display.getCurrent(),128,128,128)))));
-			//add a number rule (default red)
-			rules.add(new NumberRule(new Token((new TextAttribute(new Color(Display.getCurrent(),255,0,0))))));
-			//add rules which apply to whitespaces
-			rules.add(new WhitespaceRule(new IWhitespaceDetector() {
-	            @Override public boolean isWhitespace(char c) {
-	            	return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
-	            }
-	        }));
-			
-			setRules(this.rules=rules.toArray(new IRule[0]));
+						 rules.add(new SingleLineRule(Character.toString(chr),Character.toString(chr),stringToken,wordfile.getEscapeChar().charAt(0)));
+					else rules.add(new SingleLineRule(Character.toString(chr),Character.toString(chr),stringToken));
+		} else rules.add(new SingleLineRule("\"","\"",stringToken)); //add the default string rule
+		//add a number rule
+		rules.add(new NumberRule(numberToken));
+		//add the wordfile rule
+		if(wordfile!=null)
+			rules.add(rule);
+		//add rules which apply to whitespaces
+		rules.add(new WhitespaceRule(new IWhitespaceDetector() {
+            @Override public boolean isWhitespace(char c) {
+            	return (c == ' ' || c == '\t' || c == '\n' || c == '\r');
+            }
+        }));
+		return rules.toArray(new IRule[0]);
+	}
+
+	/**
+	 * updates the scanner to another version of its wordfile. If the rules of the wordfile did not change, the text attributes
+	 * of the tokens are updated in place, so the tokens scanned before stay valid and only need to be repainted. Otherwise the
+	 * rules are set up again for the new wordfile
+	 * @param wordfile the new version of the wordfile
+	 * @return the changed tokens with their previous text attribute or null if the rules changed and the text has to be scanned again
+	 */
+	public Map<IToken,TextAttribute> update(Wordfile wordfile) {
+		Map<IToken,TextAttribute> changed = new HashMap<IToken,TextAttribute>();
+		if(this.wordfile==null||wordfile==null||this.wordfile.isNoquote()!=wordfile.isNoquote()||!String.valueOf(this.wordfile.getEscapeChar()).equals(String.valueOf(wordfile.getEscapeChar()))
+		 ||!(fDefaultReturnToken instanceof Token)||!rule.update(wordfile,resources,changed)) {
+			setWordfile(wordfile);
+			return null;
 		}
+		WordfileRule.update((Token)fDefaultReturnToken,new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_NORMAL_TEXT])),changed);
+		WordfileRule.update(stringToken,new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_STRING])),changed);
+		WordfileRule.update(numberToken,new TextAttribute(resources.getColor(wordfile.getColors()[Wordfile.COLOR_NUMBER])),changed);
+		this.wordfile = wordfile;
+		return changed;
+	}
+	/**
+	 * @return all tokens with text attributes the scanner returns
+	 */
+	public List<IToken> getTokens() {
+		List<IToken> tokens = new ArrayList<IToken>(rule!=null?rule.getTokens():Collections.<IToken>emptyList());
+		tokens.addAll(Arrays.asList(fDefaultReturnToken,stringToken,numberToken));
+		return tokens;
 	}
 
+	/**
+	 * @return the wordfile of this scanner or null
+	 */
+	public Wordfile getWordfile() { return wordfile; }
 	/**
 	 * @return returns the document for this scanner
 	 */
@@ -118,6 +200,26 @@ public class WordfileScanner extends RuleBasedScanner {
 	 * @return an arrry of rules
 	 */
 	public IRule[] getRules() { return rules; }
+	/**
+	 * returns the state of the scanner after the last token was read. None of the rules of the WordfileScanner
+	 * reaches beyond the end of a line, so the scanner always returns to its initial state at a line delimiter
+	 * @return the state of the scanner
+	 */
+	public int getState() { return INITIAL_STATE; }
+	/**
+	 * checks if changing a text in a line can only change the tokens from the change on. This is the case unless the
+	 * removed or inserted text (or the characters next to the change) contain a string or escape character, which may
+	 * terminate a string started earlier in the line (the rules read unterminated strings up to the line end, before they drop them)
+	 * @param text the removed or inserted text
+	 * @return true if the tokens before the change stay the same
+	 */
+	public boolean isLocalChange(String text) {
+		if(text!=null)
+			for(int index=0;index<stringChars.length();index++)
+				if(text.indexOf(stringChars.charAt(index))!=-1)
+					return false;
+		return true;
+	}
 	
 	/*@Override public IToken nextToken() {
 		if(super.nextToken()!=Token.EOF) {
@@ -125,6 +227,6 @@ public class WordfileScanner extends RuleBasedScanner {
 		} else return Token.EOF;
 	} private Color randomColor() {
 		Random random = new Random();
-		return WordfileConfiguration.convertColor(new RGB(random.nextInt(256),random.nextInt(256),random.nextInt(256)));
+		return resources.getColor(new RGB(random.nextInt(256),random.nextInt(256),random.nextInt(256)));
 	} */
 }
@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor.parse;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lc.kra.eclipse.wordfileeditor.utilities.ResourceManager;
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
+
+/**
+ * The WordfileScannerCache holds one compiled WordfileScanner per wordfile, which is shared between all editors. As
+ * scanners and their rules are not thread-safe, each user gets an own copy of the cached scanner with own rules, which shares
+ * the keyword tables and tokens with the cached scanner. The tokens of cached scanners must thus not be changed
+ * @author Kristian Kraljic
+ */
+public class WordfileScannerCache {
+	/**
+	 * the compiled scanners by wordfile (a wordfile read again replaces the scanner of the previous one)
+	 */
+	private static final Map<Wordfile,WordfileScanner> scanners = new HashMap<Wordfile,WordfileScanner>();
+	/**
+	 * the resource manager allocating the colors of all cached scanners, the colors are kept until the cache is cleared
+	 */
+	private static ResourceManager resources;
+	
+	private WordfileScannerCache() {}
+	
+	/**
+	 * returns a copy of the cached scanner for a wordfile and compiles the scanner, if it is not cached yet
+	 * @param wordfile the wordfile to return the scanner for or null for general highlighting
+	 * @return a new scanner sharing the compiled keyword tables of the cached scanner
+	 */
+	public static synchronized WordfileScanner getScanner(Wordfile wordfile) {
+		WordfileScanner scanner = scanners.get(wordfile);
+		if(scanner==null||scanner.getWordfile()!=wordfile) {
+			if(resources==null)
+				resources = new ResourceManager();
+			scanners.put(wordfile,scanner=new WordfileScanner(wordfile,resources));
+		}
+		return new WordfileScanner(scanner);
+	}
+	
+	/**
+	 * clears the cache and releases the colors of all cached scanners
+	 */
+	public static synchronized void clear() {
+		scanners.clear();
+		if(resources!=null) {
+			resources.dispose();
+			resources = null;
+		}
+	}
+}
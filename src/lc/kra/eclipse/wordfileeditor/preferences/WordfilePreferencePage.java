@@ -24,6 +24,9 @@ package lc.kra.eclipse.wordfileeditor.preferences;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.AUTOMATIC_WORDFILE_PROPERTY;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.CUSTOM_WORDFILES_PREFERENCE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.DEFAULT_WORDFILE_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LARGE_FILE_LINES_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LARGE_FILE_SIZE_PREFERENCE;
+import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.LONG_LINE_LENGTH_PREFERENCE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.UNDEFINED_WORDFILE;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.getPreference;
 import static lc.kra.eclipse.wordfileeditor.utilities.SettingsUtilities.setPreference;
@@ -36,6 +39,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.preference.PreferencePage;
 import org.eclipse.jface.resource.ImageRegistry;
 import org.eclipse.swt.SWT;
@@ -52,12 +56,15 @@ import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableColumn;
 import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
 
 import lc.kra.eclipse.wordfileeditor.WordfileEditorActivator;
 import lc.kra.eclipse.wordfileeditor.decorator.WordfileDecorator;
+import lc.kra.eclipse.wordfileeditor.editor.WordfileEditor;
 import lc.kra.eclipse.wordfileeditor.utilities.Guitilities;
+import lc.kra.eclipse.wordfileeditor.utilities.Utilities;
 import lc.kra.eclipse.wordfileeditor.wordfile.CustomWordfile;
 import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile;
 
@@ -103,6 +110,11 @@ public class WordfilePreferencePage extends PreferencePage implements IWorkbench
      */
     private Button automaticCheck;
     
+    /**
+     * the size in megabytes and the number of lines from which on a file is opened in the large file mode
+     */
+    private Text largeFileSizeText,largeFileLinesText,longLineLengthText;
+    
     /**
      * Constructor for WordfilePreferencePage.
      */
@@ -201,6 +213,39 @@ public class WordfilePreferencePage extends PreferencePage implements IWorkbench
 		return topComposite;
     }
     
+    /**
+     * the second section contains the thresholds of the large file mode
+     * @param parent
+     */
+    private Composite addSecondSection(Composite parent) { //large files
+    	Composite topComposite = Guitilities.createComposite(parent,3,1,GridData.FILL_HORIZONTAL);
+    	
+    	Guitilities.createWrapLabel(topComposite,"Large files are opened without code folding, content assist and only the visible lines are highlighted:",3,300);
+    	Guitilities.createLabel(topComposite,"Files larger than",1);
+    	largeFileSizeText = Guitilities.createText(topComposite,getPreference(LARGE_FILE_SIZE_PREFERENCE),1,60);
+    	Guitilities.createLabel(topComposite,"megabytes",1);
+    	Guitilities.createLabel(topComposite,"Files with more than",1);
+    	largeFileLinesText = Guitilities.createText(topComposite,getPreference(LARGE_FILE_LINES_PREFERENCE),1,60);
+    	Guitilities.createLabel(topComposite,"lines",1);
+    	Guitilities.createLabel(topComposite,"Lines longer than",1);
+    	longLineLengthText = Guitilities.createText(topComposite,getPreference(LONG_LINE_LENGTH_PREFERENCE),1,60);
+    	Guitilities.createLabel(topComposite,"characters are highlighted in blocks",1);
+    	
+    	Listener validator = new Listener() {
+			@Override public void handleEvent(Event event) {
+				boolean valid = Utilities.isNumeric(largeFileSizeText.getText().trim())&&Utilities.isNumeric(largeFileLinesText.getText().trim())&&Utilities.isNumeric(longLineLengthText.getText().trim());
+				setErrorMessage(valid?null:"The thresholds of large files and long lines must be numeric.");
+				setValid(valid);
+			}
+		};
+		largeFileSizeText.addListener(SWT.Modify,validator);
+		largeFileLinesText.addListener(SWT.Modify,validator);
+		longLineLengthText.addListener(SWT.Modify,validator);
+    	
+    	applyDialogFont(topComposite);
+    	return topComposite;
+    }
+    
     private void createTable(Composite topComposite) {
        	wordfileTable = new Table(topComposite,SWT.SINGLE|SWT.VIRTUAL|SWT.BORDER|SWT.FULL_SELECTION);
         wordfileTable.setLinesVisible(true);
@@ -299,6 +344,7 @@ public class WordfilePreferencePage extends PreferencePage implements IWorkbench
         gridData.grabExcessHorizontalSpace = true;
         composite.setLayoutData(gridData);
         addFirstSection(composite);
+        addSecondSection(composite);
         
         return composite;
     }
@@ -315,6 +361,10 @@ public class WordfilePreferencePage extends PreferencePage implements IWorkbench
         wordfileTable.getItem(0).setText(1,"Yes");
         customWordfiles.clear();
         automaticCheck.setSelection(true);
+        IPreferenceStore store = WordfileEditorActivator.getDefault().getPreferenceStore();
+        largeFileSizeText.setText(store.getDefaultString(LARGE_FILE_SIZE_PREFERENCE));
+        largeFileLinesText.setText(store.getDefaultString(LARGE_FILE_LINES_PREFERENCE));
+        longLineLengthText.setText(store.getDefaultString(LONG_LINE_LENGTH_PREFERENCE));
     }
 
     /**
@@ -340,6 +390,10 @@ public class WordfilePreferencePage extends PreferencePage implements IWorkbench
         }
         setPreference(CUSTOM_WORDFILES_PREFERENCE,customLanguages.toString());
         setPreference(AUTOMATIC_WORDFILE_PROPERTY,Boolean.toString(automaticCheck.getSelection()));
+        setPreference(LARGE_FILE_SIZE_PREFERENCE,largeFileSizeText.getText().trim());
+        setPreference(LARGE_FILE_LINES_PREFERENCE,largeFileLinesText.getText().trim());
+        setPreference(LONG_LINE_LENGTH_PREFERENCE,longLineLengthText.getText().trim());
+        WordfileEditor.doRefresh();
         WordfileDecorator.doRefresh();
         
         return true;
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.utilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the AhoCorasickMatcher finds the occurrences of multiple patterns in a text in a single pass. The text is fed to the
+ * matcher character by character, each state of the matcher knows the patterns ending at the current character
+ * @author Kristian Kraljic
+ */
+public class AhoCorasickMatcher {
+	/**
+	 * the state of the matcher before any character was read
+	 */
+	public static final int INITIAL_STATE = 0;
+	
+	/**
+	 * the patterns to match
+	 */
+	private final String[] patterns;
+	/**
+	 * the transitions of the trie of all patterns by state
+	 */
+	private final List<Map<Character,Integer>> transitions = new ArrayList<Map<Character,Integer>>();
+	/**
+	 * the failure transitions by state (the state of the longest proper suffix which is also in the trie)
+	 */
+	private int[] failures;
+	/**
+	 * the indices of the patterns ending in a state (including the patterns of its failure states)
+	 */
+	private int[][] matches;
+	/**
+	 * the length of the longest pattern
+	 */
+	private int maximumLength;
+	
+	/**
+	 * creates a new matcher for a set of patterns, empty or null patterns are never matched
+	 * @param patterns the patterns to match
+	 */
+	public AhoCorasickMatcher(String... patterns) {
+		this.patterns = patterns.clone();
+		transitions.add(new HashMap<Character,Integer>());
+		List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+		outputs.add(new ArrayList<Integer>());
+		
+		//build the trie of all patterns
+		for(int pattern=0;pattern<patterns.length;pattern++) {
+			if(patterns[pattern]==null||patterns[pattern].isEmpty())
+				continue;
+			int state = INITIAL_STATE;
+			for(char chr:patterns[pattern].toCharArray()) {
+				Integer next = transitions.get(state).get(chr);
+				if(next==null) {
+					transitions.get(state).put(chr,next=transitions.size());
+					transitions.add(new HashMap<Character,Integer>());
+					outputs.add(new ArrayList<Integer>());
+				}
+				state = next;
+			}
+			outputs.get(state).add(pattern);
+			maximumLength = Math.max(maximumLength,patterns[pattern].length());
+		}
+		
+		//determine the failure transitions breadth first, so the failure states are complete when they are used
+		failures = new int[transitions.size()];
+		LinkedList<Integer> queue = new LinkedList<Integer>(transitions.get(INITIAL_STATE).values());
+		while(!queue.isEmpty()) {
+			int state = queue.removeFirst();
+			for(Map.Entry<Character,Integer> transition:transitions.get(state).entrySet()) {
+				int next = transition.getValue(), failure = failures[state];
+				while(failure!=INITIAL_STATE&&!transitions.get(failure).containsKey(transition.getKey()))
+					failure = failures[failure];
+				Integer target = state!=INITIAL_STATE?transitions.get(failure).get(transition.getKey()):null;
+				failures[next] = target!=null&&target!=next?target:INITIAL_STATE;
+				outputs.get(next).addAll(outputs.get(failures[next]));
+				queue.addLast(next);
+			}
+		}
+		
+		matches = new int[outputs.size()][];
+		for(int state=0;state<matches.length;state++) {
+			matches[state] = new int[outputs.get(state).size()];
+			for(int index=0;index<matches[state].length;index++)
+				matches[state][index] = outputs.get(state).get(index);
+		}
+	}
+	
+	/**
+	 * returns the state of the matcher after reading the next character of the text
+	 * @param state the current state
+	 * @param chr the next character
+	 * @return the next state
+	 */
+	public int next(int state,char chr) {
+		Integer next;
+		while((next=transitions.get(state).get(chr))==null&&state!=INITIAL_STATE)
+			state = failures[state];
+		return next!=null?next:INITIAL_STATE;
+	}
+	
+	/**
+	 * returns the patterns ending with the last character read
+	 * @param state the current state
+	 * @return the indices of the patterns ending at the current character
+	 */
+	public int[] getMatches(int state) { return matches[state]; }
+	
+	/**
+	 * @param pattern the index of a pattern
+	 * @return the length of the pattern
+	 */
+	public int getLength(int pattern) { return patterns[pattern]!=null?patterns[pattern].length():0; }
+	/**
+	 * @return the length of the longest pattern
+	 */
+	public int getMaximumLength() { return maximumLength; }
+}
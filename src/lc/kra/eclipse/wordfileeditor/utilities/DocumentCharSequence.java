@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.utilities;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+
+/**
+ * the DocumentCharSequence provides read access to the characters of a document, without copying its content. The length
+ * of the sequence is fixed when it is created, reading a document changed in the meantime may fail with an IndexOutOfBoundsException
+ * @author Kristian Kraljic
+ */
+public class DocumentCharSequence implements CharSequence {
+	/**
+	 * the document to read the characters of
+	 */
+	private final IDocument document;
+	/**
+	 * the offset and length of the sequence in the document
+	 */
+	private final int offset,length;
+	
+	/**
+	 * creates a new sequence of all characters of a document
+	 * @param document the document to read the characters of
+	 */
+	public DocumentCharSequence(IDocument document) { this(document,0,document.getLength()); }
+	/**
+	 * creates a new sequence of a range of characters of a document
+	 * @param document the document to read the characters of
+	 * @param offset the offset of the range
+	 * @param length the length of the range
+	 */
+	public DocumentCharSequence(IDocument document,int offset,int length) {
+		this.document = document;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	@Override public int length() { return length; }
+	@Override public char charAt(int index) {
+		if(index<0||index>=length)
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		try { return document.getChar(offset+index); }
+		catch(BadLocationException e) { throw new IndexOutOfBoundsException(e.getMessage()); }
+	}
+	@Override public CharSequence subSequence(int start,int end) {
+		if(start<0||end>length||start>end)
+			throw new IndexOutOfBoundsException(start+","+end);
+		return new DocumentCharSequence(document,offset+start,end-start);
+	}
+	@Override public String toString() {
+		try { return document.get(offset,length); }
+		catch(BadLocationException e) { throw new IndexOutOfBoundsException(e.getMessage()); }
+	}
+}
@@ -34,6 +34,7 @@ import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Layout;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.PlatformUI;
 
@@ -233,6 +234,28 @@ public class Guitilities {
 		label.setLayoutData(gridData);
 	}
 	
+	/**
+	 * creates a single line text field
+	 * @param parent the parent to create the text field in
+	 * @param text the initial text of the text field or null
+	 * @param horizontalSpan the horizontalSpan in the grid layout
+	 * @param widthHint the preferred width of the text field
+	 * @return the text field
+	 */
+	public static Text createText(Composite parent,String text,int horizontalSpan,int widthHint) {
+		Text field = new Text(parent,SWT.SINGLE|SWT.BORDER);
+		field.setFont(parent.getFont());
+		if(text!=null)
+			field.setText(text);
+		
+		GridData gridData = new GridData();
+		gridData.horizontalSpan = horizontalSpan;
+		gridData.widthHint = widthHint;
+		field.setLayoutData(gridData);
+		
+		return field;
+	}
+	
 	/**
 	 * creates a combo box with given items and style
 	 * @param parent the parent to create the combo box in
@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.utilities;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.RGB;
+import org.eclipse.swt.graphics.Resource;
+import org.eclipse.swt.widgets.Display;
+
+import lc.kra.eclipse.wordfileeditor.WordfileEditorActivator;
+
+/**
+ * the ResourceManager hands out colors and hue shifted images, which are shared between all editors. Each user
+ * (e.g. a WordfileConfiguration) holds an own ResourceManager and disposes it when it is closed, as soon as the
+ * last user of a color or image disposed its manager, the operating system resource is released
+ * @author Kristian Kraljic
+ */
+public class ResourceManager {
+	/**
+	 * the shared resources (colors by RGB value, images by path and hue)
+	 */
+	private static final Map<Object,Resource> resources = new HashMap<Object,Resource>();
+	/**
+	 * the number of ResourceManager instances referencing a shared resource
+	 */
+	private static final Map<Object,Integer> references = new HashMap<Object,Integer>();
+
+	/**
+	 * the keys of all resources referenced by this manager
+	 */
+	private final Set<Object> keys = new HashSet<Object>();
+	/**
+	 * true if this manager was disposed
+	 */
+	private boolean disposed;
+
+	/**
+	 * returns a shared color for a RGB value, the color must not be disposed by the caller
+	 * @param rgb the RGB value
+	 * @return a color for this RGB value
+	 */
+	public Color getColor(RGB rgb) {
+		synchronized(resources) {
+			Color color = (Color)resources.get(rgb);
+			if(color==null||color.isDisposed())
+				resources.put(rgb,color=new Color(getDisplay(),rgb));
+			reference(rgb);
+			return color;
+		}
+	}
+
+	/**
+	 * returns a shared copy of an image in the plugin image registry with a changed hue, the image must not be disposed by the caller
+	 * @param path the path of the image in the image registry of the plugin
+	 * @param hue the hue to set the image hue to
+	 * @return the hue shifted image or null if the image is not in the registry
+	 */
+	public Image getImage(String path,float hue) {
+		synchronized(resources) {
+			ImageKey key = new ImageKey(path,hue);
+			Image image = (Image)resources.get(key);
+			if(image==null||image.isDisposed()) {
+				Image source = WordfileEditorActivator.getDefault().getImageRegistry().get(path);
+				if(source==null)
+					return null;
+				resources.put(key,image=Utilities.changeHue(source,hue));
+			}
+			reference(key);
+			return image;
+		}
+	}
+
+	/**
+	 * releases all resources referenced by this manager. Resources not referenced by any other manager are disposed.
+	 * The manager must not be used after it was disposed
+	 */
+	public void dispose() {
+		synchronized(resources) {
+			if(disposed)
+				return;
+			disposed = true;
+			for(Object key:keys) {
+				int count = references.get(key)-1;
+				if(count<=0) {
+					references.remove(key);
+					Resource resource = resources.remove(key);
+					if(resource!=null&&!resource.isDisposed())
+						resource.dispose();
+				} else references.put(key,count);
+			}
+			keys.clear();
+		}
+	}
+
+	/**
+	 * @return returns true if the manager was already disposed
+	 */
+	public boolean isDisposed() { return disposed; }
+
+	/**
+	 * adds a reference of this manager to a shared resource (each manager references a resource once)
+	 * @param key the key of the resource
+	 */
+	private void reference(Object key) {
+		if(disposed)
+			throw new IllegalStateException("resource manager already disposed");
+		if(keys.add(key)) {
+			Integer count = references.get(key);
+			references.put(key,count!=null?count+1:1);
+		}
+	}
+
+	/**
+	 * @return the display to allocate resources on
+	 */
+	private static Display getDisplay() {
+		Display display = Display.getCurrent();
+		return display!=null?display:Display.getDefault();
+	}
+
+	/**
+	 * the key of a hue shifted image
+	 * @author Kristian Kraljic
+	 */
+	private static class ImageKey {
+		private final String path;
+		private final float hue;
+		public ImageKey(String path,float hue) {
+			this.path = path;
+			this.hue = hue;
+		}
+		@Override public int hashCode() { return path.hashCode()*31+Float.floatToIntBits(hue); }
+		@Override public boolean equals(Object object) {
+			if(!(object instanceof ImageKey)) return false;
+			ImageKey key = (ImageKey)object;
+			return path.equals(key.path)&&Float.floatToIntBits(hue)==Float.floatToIntBits(key.hue);
+		}
+	}
+}
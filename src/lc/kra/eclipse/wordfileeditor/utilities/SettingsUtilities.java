@@ -59,6 +59,27 @@ public class SettingsUtilities {
 	 */
 	public static final String AUTOMATIC_WORDFILE_PROPERTY = "AUTOMATIC_WORDFILE";
 	
+	/**
+	 * the LARGE_FILE_SIZE_PREFERENCE property contains the size in megabytes, from which on a file is opened in the large file mode
+	 */
+	public static final String LARGE_FILE_SIZE_PREFERENCE = "LARGE_FILE_SIZE";
+	
+	/**
+	 * the LARGE_FILE_LINES_PREFERENCE property contains the number of lines, from which on a file is opened in the large file mode
+	 */
+	public static final String LARGE_FILE_LINES_PREFERENCE = "LARGE_FILE_LINES";
+	
+	/**
+	 * the LONG_LINE_LENGTH_PREFERENCE property contains the number of characters, from which on a line is highlighted in blocks
+	 */
+	public static final String LONG_LINE_LENGTH_PREFERENCE = "LONG_LINE_LENGTH";
+	
+	/**
+	 * the MATCHING_BRACKETS_PREFERENCE property contains true if the brace string matching the one at the caret is highlighted,
+	 * the MATCHING_BRACKETS_COLOR_PREFERENCE property contains the color of the highlight
+	 */
+	public static final String MATCHING_BRACKETS_PREFERENCE = "MATCHING_BRACKETS", MATCHING_BRACKETS_COLOR_PREFERENCE = "MATCHING_BRACKETS_COLOR";
+	
 	/**
 	 * these constants are used to define the default wordfiles
 	 */
@@ -79,6 +100,18 @@ public class SettingsUtilities {
     	return value;
     }
     
+    /**
+     * returns a numeric preference
+     * @param preference the preference to read
+     * @param default_value the value if the preference is not set or not numeric
+     * @return the value of the preference or default_value
+     */
+    public static long getNumericPreference(String preference,long default_value) {
+    	String value = getPreference(preference);
+    	try { return value!=null?Long.parseLong(value.trim()):default_value; }
+    	catch(NumberFormatException e) { return default_value; }
+    }
+    
     public static void setPreference(String preference,Object value) {
     	WordfileEditorActivator activator = WordfileEditorActivator.getDefault();
     	if(activator==null)
@@ -182,7 +182,7 @@ public class Utilities {
 	 * @param file the file to get the size for
 	 * @return returns the size in bytes
 	 */
-	public static long getFileSize(IFile file) { return file.getLocation().toFile().length(); }
+	public static long getFileSize(IFile file) { return file.getLocation()!=null?file.getLocation().toFile().length():0; }
 	
 	/**
 	 * reads the contents of an stream into a string and closes it afterwards
@@ -33,10 +33,12 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
@@ -71,11 +73,16 @@ public class Wordfile {
 	 * a set of all loaded wordfiles
 	 */
 	protected static Set<Wordfile> wordfiles;
+	/**
+	 * all loaded wordfiles indexed by their type (in the order they were loaded)
+	 */
+	protected static Map<WordfileType,List<Wordfile>> typedWordfiles;
 	/**
 	 * try to read all wordfiles (build-in) in the wordfiles folder
 	 */
 	static { //load default wordfiles
 		wordfiles = new HashSet<Wordfile>();
+		typedWordfiles = new EnumMap<WordfileType,List<Wordfile>>(WordfileType.class);
 		Object resource = null;
 		Enumeration<?> enumerator = null;
 		//if this thing is run in a plugin use the Activator methods otherwise use normal File-methods
@@ -205,7 +212,7 @@ public class Wordfile {
 	public Wordfile(InputStream stream,boolean strict) throws IOException,ParseException {
 		int position = 0; String source = readStream(stream);
 		while(true)
-			try { parse(source,position); wordfiles.add(this); break; }
+			try { parse(source,position); register(this); break; }
 			catch(ParseException parent) {
 				int offset = parent.getErrorOffset();
 				ParseException extend = new ParseException(parent.getMessage()+" at character "+offset,offset);
@@ -309,7 +316,7 @@ public class Wordfile {
 			if(nextCommand().equals("Brace"))
 				if(nextCommand().equals("Strings"))
 					if(nextCommand().equals(ASSIGN)) {
-						openBraceStrings = new HashSet<String>();
+						openBraceStrings = new LinkedHashSet<String>(); //the order pairs the open and close brace strings
 						while(!(string=nextString(true)).equals(LINE_FEED))
 							openBraceStrings.add(string);
 					} else throw new ParseException("literal '=' expected after /Open Brace Strings command",tokens.getCurrentPosition());
@@ -337,7 +344,7 @@ public class Wordfile {
 			if(nextCommand().equals("Brace"))
 				if(nextCommand().equals("Strings"))
 					if(nextCommand().equals(ASSIGN)) {
-						closeBraceStrings = new HashSet<String>();
+						closeBraceStrings = new LinkedHashSet<String>(); //the order pairs the open and close brace strings
 						while(!(string=nextString(true)).equals(LINE_FEED))
 							closeBraceStrings.add(string);
 					} else throw new ParseException("literal '=' expected after /Close Brace Strings",tokens.getCurrentPosition());
@@ -863,20 +870,31 @@ public class Wordfile {
 	 * @return the (first) wordfile with a specific type
 	 */
 	public static Wordfile getWordfile(WordfileType type) {
-		for(Wordfile wordfile:wordfiles)
-			if(wordfile.getType().equals(type))
-				return wordfile;
-		return null;
+		List<Wordfile> wordfiles = typedWordfiles.get(type);
+		return wordfiles!=null&&!wordfiles.isEmpty()?wordfiles.get(0):null;
 	}
 	/**
 	 * @return the wordfiles with a specific type
 	 */
 	public static Wordfile[] getWordfiles(WordfileType type) {
-		List<Wordfile> wordfiles = new ArrayList<Wordfile>();
-		for(Wordfile wordfile:Wordfile.wordfiles)
-			if(wordfile.getType().equals(type))
-				wordfiles.add(wordfile);
-		return wordfiles.toArray(new Wordfile[0]);
+		List<Wordfile> wordfiles = typedWordfiles.get(type);
+		return wordfiles!=null?wordfiles.toArray(new Wordfile[0]):new Wordfile[0];
+	}
+	
+	/**
+	 * adds a wordfile to the loaded wordfiles, a wordfile read again replaces the previous one
+	 * @param wordfile the wordfile to add
+	 */
+	private static void register(Wordfile wordfile) {
+		wordfiles.remove(wordfile);
+		wordfiles.add(wordfile);
+		List<Wordfile> typed = typedWordfiles.get(wordfile.getType());
+		if(typed==null)
+			typedWordfiles.put(wordfile.getType(),typed=new ArrayList<Wordfile>());
+		int index = typed.indexOf(wordfile);
+		if(index!=-1)
+			 typed.set(index,wordfile);
+		else typed.add(wordfile);
 	}
 
 	/**
@@ -971,6 +989,20 @@ public class Wordfile {
 		return blockCommentOff;
 	}
 
+	/**
+	 * @return the blockCommentOnAlt
+	 */
+	public String getBlockCommentOnAlt() {
+		return blockCommentOnAlt;
+	}
+
+	/**
+	 * @return the blockCommentOffAlt
+	 */
+	public String getBlockCommentOffAlt() {
+		return blockCommentOffAlt;
+	}
+
 	/**
 	 * @return the lineComment
 	 */
@@ -1024,6 +1056,13 @@ public class Wordfile {
 		return identStrings;
 	}
 
+	/**
+	 * @return the identStringsSOL
+	 */
+	public Set<String> getIdentStringsSOL() {
+		return identStringsSOL;
+	}
+
 	/**
 	 * @return the unidentStrings
 	 */
@@ -1059,6 +1098,34 @@ public class Wordfile {
 		return closeFoldStrings;
 	}
 
+	/**
+	 * @return the openCommentFoldStrings
+	 */
+	public Set<String> getOpenCommentFoldStrings() {
+		return openCommentFoldStrings;
+	}
+
+	/**
+	 * @return the closeCommentFoldStrings
+	 */
+	public Set<String> getCloseCommentFoldStrings() {
+		return closeCommentFoldStrings;
+	}
+
+	/**
+	 * @return the ignoreFoldStrings
+	 */
+	public Set<String> getIgnoreFoldStrings() {
+		return ignoreFoldStrings;
+	}
+
+	/**
+	 * @return the markerCharacters
+	 */
+	public Set<String> getMarkerCharacters() {
+		return markerCharacters;
+	}
+
 	/**
 	 * @return the functionString
 	 */
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentPartitioner;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.rules.EndOfLineRule;
+import org.eclipse.jface.text.rules.FastPartitioner;
+import org.eclipse.jface.text.rules.IPredicateRule;
+import org.eclipse.jface.text.rules.MultiLineRule;
+import org.eclipse.jface.text.rules.RuleBasedPartitionScanner;
+import org.eclipse.jface.text.rules.Token;
+import org.junit.Test;
+
+import lc.kra.eclipse.wordfileeditor.editor.parse.WordfilePartitionScanner;
+import lc.kra.eclipse.wordfileeditor.utilities.DocumentCharSequence;
+
+/**
+ * tests the partitioning of a document for a {@link FoldTree}: fold strings in comments, strings and ignore fold strings
+ * @author Kristian Kraljic
+ */
+public class DocumentPartitioningTest {
+	private static final String STRING_CHARS = "\"'";
+	private static final int ESCAPE_CHAR = '\\';
+	
+	@Test public void testRegions() {
+		IDocument document = createDocument("a \"b{\" c // d\n/* e\n*/ f 'g\\'h' \"i\n");
+		WordfileFoldTreeAnnotationProvider.DocumentPartitioning partitioning = new WordfileFoldTreeAnnotationProvider.DocumentPartitioning(document,STRING_CHARS,ESCAPE_CHAR);
+		assertRegion(0,2,FoldTree.CODE,partitioning.getRegion(0));
+		assertRegion(2,4,FoldTree.IGNORED,partitioning.getRegion(4));
+		assertRegion(6,3,FoldTree.CODE,partitioning.getRegion(7));
+		assertRegion(9,5,FoldTree.COMMENT,partitioning.getRegion(10));
+		assertRegion(14,7,FoldTree.COMMENT,partitioning.getRegion(16));
+		assertRegion(21,3,FoldTree.CODE,partitioning.getRegion(22));
+		assertRegion(24,6,FoldTree.IGNORED,partitioning.getRegion(27)); //an escaped quote does not end a string
+		assertRegion(30,4,FoldTree.CODE,partitioning.getRegion(31)); //an unterminated string is no string
+		assertRegion(2,4,FoldTree.IGNORED,partitioning.getRegion(2)); //regions requested in descending order
+	}
+	
+	@Test public void testMultiLineString() {
+		IDocument document = createDocument("a '''b\n{''' c");
+		WordfileFoldTreeAnnotationProvider.DocumentPartitioning partitioning = new WordfileFoldTreeAnnotationProvider.DocumentPartitioning(document,"",-1);
+		assertRegion(0,2,FoldTree.CODE,partitioning.getRegion(1));
+		assertRegion(2,9,FoldTree.IGNORED,partitioning.getRegion(7));
+		assertRegion(11,2,FoldTree.CODE,partitioning.getRegion(12));
+	}
+	
+	@Test public void testNoStrings() {
+		IDocument document = createDocument("a \"b\" c");
+		WordfileFoldTreeAnnotationProvider.DocumentPartitioning partitioning = new WordfileFoldTreeAnnotationProvider.DocumentPartitioning(document,"",-1);
+		assertRegion(0,7,FoldTree.CODE,partitioning.getRegion(3));
+	}
+	
+	@Test public void testFolds() throws BadLocationException {
+		IDocument document = createDocument("a {\n \"}\" '{'\n // {\n /* } */\n}\n");
+		FoldTree tree = scan(document,new String[0],new String[0],new String[0]);
+		assertEquals("[2, 27]",toString(tree,document));
+	}
+	
+	@Test public void testCommentFolds() throws BadLocationException {
+		IDocument document = createDocument("a {\n // [[ b {\n c\n // ]]\n}\n[[\n]]\n");
+		FoldTree tree = scan(document,new String[]{"[["},new String[]{"]]"},new String[0]);
+		assertEquals("[2, 24][8, 16]",toString(tree,document));
+		assertEquals(new Position(22,2),tree.getPartner(8));
+		assertNull(tree.getPartner(27)); //comment fold strings in code do not fold
+	}
+	
+	@Test public void testIgnoreStrings() throws BadLocationException {
+		IDocument document = createDocument("a {\n b #{ c\n}\n");
+		FoldTree tree = scan(document,new String[0],new String[0],new String[]{"#{"});
+		assertEquals("[2, 11]",toString(tree,document));
+		assertNull(tree.getPartner(7));
+		assertNull(tree.getPartner(8));
+		assertEquals(new Position(12,1),tree.getPartner(2));
+	}
+	
+	/**
+	 * creates a document partitioned into comments (// and /* *&#47;) and multi line strings (''')
+	 */
+	private static IDocument createDocument(String content) {
+		RuleBasedPartitionScanner scanner = new RuleBasedPartitionScanner();
+		scanner.setPredicateRules(new IPredicateRule[]{
+			new MultiLineRule("/*","*/",new Token(WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_COMMENT)),
+			new EndOfLineRule("//",new Token(WordfilePartitionScanner.CONTENT_TYPE_SINGLE_LINE_COMMENT)),
+			new MultiLineRule("'''","'''",new Token(WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_STRING))});
+		IDocumentPartitioner partitioner = new FastPartitioner(scanner,new String[]{WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_COMMENT,
+			WordfilePartitionScanner.CONTENT_TYPE_SINGLE_LINE_COMMENT,WordfilePartitionScanner.CONTENT_TYPE_MULTI_LINE_STRING});
+		IDocument document = new Document(content);
+		partitioner.connect(document);
+		document.setDocumentPartitioner(partitioner);
+		return document;
+	}
+	private static FoldTree scan(IDocument document,String[] commentFoldStrings,String[] commentUnfoldStrings,String[] ignoreStrings) {
+		FoldTree tree = new FoldTree(new String[]{"{"},new String[]{"}"},commentFoldStrings,commentUnfoldStrings,ignoreStrings);
+		assertTrue(tree.scan(new DocumentCharSequence(document),new WordfileFoldTreeAnnotationProvider.DocumentPartitioning(document,STRING_CHARS,ESCAPE_CHAR),
+			new NullProgressMonitor(),WordfileAnnotationDocumentListener.getModificationStamp(document)));
+		return tree;
+	}
+	private static void assertRegion(int offset,int length,String type,ITypedRegion region) {
+		assertEquals(offset+":"+length+":"+type,region.getOffset()+":"+region.getLength()+":"+region.getType());
+	}
+	private static String toString(FoldTree tree,IDocument document) throws BadLocationException {
+		StringBuilder builder = new StringBuilder();
+		for(Position fold:tree.getFolds(document))
+			builder.append('[').append(fold.getOffset()).append(", ").append(fold.getLength()).append(']');
+		return builder.toString();
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.Position;
+import org.junit.Test;
+
+/**
+ * tests the folds of a {@link FoldTree}, especially that the events spliced after a document change match a fresh scan
+ * @author Kristian Kraljic
+ */
+public class FoldTreeTest {
+	private static final String[] FOLD_STRINGS = { "{","(","begin" }, UNFOLD_STRINGS = { "}",")","end" };
+	
+	@Test public void testFolds() throws BadLocationException {
+		IDocument document = new Document("a {\n b (\n c\n )\n}\nd { e }\n");
+		FoldTree tree = scan(document.get());
+		assertTrue(tree.isClosed());
+		assertEquals("[2, 14][7, 7]",toString(tree,document));
+		assertEquals(new Position(15,1),tree.getPartner(2));
+		assertEquals(new Position(2,1),tree.getPartner(15));
+		assertEquals(new Position(23,1),tree.getPartner(19));
+		assertNull(tree.getPartner(0));
+		assertEquals(new Position(7,7),tree.getEnclosingFold(10,1));
+		assertEquals(new Position(2,14),tree.getEnclosingFold(5,1));
+		assertNull(tree.getEnclosingFold(17,1));
+	}
+	
+	@Test public void testLongFoldStrings() throws BadLocationException {
+		IDocument document = new Document("begin\n x\nend\nbegin(\n)end\n");
+		FoldTree tree = scan(document.get());
+		assertTrue(tree.isClosed());
+		assertEquals("[0, 12][13, 11][18, 3]",toString(tree,document));
+		assertEquals(new Position(9,3),tree.getPartner(2));
+		assertEquals(new Position(0,5),tree.getPartner(10));
+	}
+	
+	@Test public void testUnbalancedOpen() throws BadLocationException {
+		IDocument document = new Document("{\n (\n )\n{\n");
+		FoldTree tree = scan(document.get());
+		assertFalse(tree.isClosed());
+		assertEquals("[3, 4]",toString(tree,document));
+		assertNull(tree.getPartner(0));
+		assertNull(tree.getPartner(8));
+	}
+	
+	@Test public void testUnbalancedClose() throws BadLocationException {
+		IDocument document = new Document("}\n)\n{\n}\n)\n");
+		FoldTree tree = scan(document.get());
+		assertTrue(tree.isClosed());
+		assertEquals("[4, 3]",toString(tree,document));
+		assertNull(tree.getPartner(0));
+		assertNull(tree.getPartner(2));
+		assertNull(tree.getPartner(8));
+	}
+	
+	@Test public void testMismatched() throws BadLocationException {
+		IDocument document = new Document("{\n(\n}\n)\n");
+		FoldTree tree = scan(document.get());
+		assertFalse(tree.isClosed());
+		assertEquals("[2, 5]",toString(tree,document));
+		assertNull(tree.getPartner(4));
+	}
+	
+	@Test public void testSpliceAfterInsert() throws BadLocationException {
+		IDocument document = new Document("a {\n b {\n c\n }\n}\n");
+		FoldTree tree = scan(document.get());
+		assertSplice(tree,document,9,0,"{\n");
+		assertSplice(tree,document,0,0,"}\n");
+		assertSplice(tree,document,document.getLength(),0,"{\n x\n}\n");
+		assertSplice(tree,document,5,0,"(\n)");
+	}
+	
+	@Test public void testSpliceAfterDelete() throws BadLocationException {
+		IDocument document = new Document("a {\n b {\n c\n }\n}\nd {\n}\n");
+		FoldTree tree = scan(document.get());
+		assertSplice(tree,document,7,1,"");
+		assertSplice(tree,document,0,4,"");
+		assertSplice(tree,document,document.getLength()-2,2,"");
+		assertSplice(tree,document,0,document.getLength(),"");
+	}
+	
+	@Test public void testSpliceWithinFoldString() throws BadLocationException {
+		IDocument document = new Document("begin\n x\nend\n");
+		FoldTree tree = scan(document.get());
+		assertSplice(tree,document,2,1,"");
+		assertSplice(tree,document,2,0,"g");
+		assertSplice(tree,document,10,0,"d\nen");
+	}
+	
+	@Test public void testModificationStamps() throws BadLocationException {
+		Document document = new Document("a {\n b (\n c\n )\n}\n");
+		FoldTree tree = scan(document.get());
+		long stamp = document.getModificationStamp();
+		document.replace(2,1,"");
+		tree.update(2,1,0,document.getModificationStamp());
+		document.replace(document.getLength(),0,"{\n");
+		tree.update(document.getLength()-2,0,2,document.getModificationStamp());
+		assertFalse(tree.isCurrent(document.getModificationStamp()));
+		assertFalse(tree.scan(document.get(),null,null,stamp));
+		assertTrue(tree.scan(document.get(),null,null,document.getModificationStamp()));
+		assertTrue(tree.isCurrent(document.getModificationStamp()));
+		assertFalse(tree.isCurrent(stamp));
+		assertEquals(toString(scan(document.get()),document),toString(tree,document));
+	}
+	
+	@Test public void testRandomSplices() throws BadLocationException {
+		Random random = new Random(42);
+		String[] texts = { "{","}","(",")","begin","end","\n","x"," " };
+		IDocument document = new Document();
+		FoldTree tree = scan(document.get());
+		for(int change=0;change<2000;change++) {
+			int offset = random.nextInt(document.getLength()+1), length = random.nextInt(Math.min(6,document.getLength()-offset)+1);
+			StringBuilder text = new StringBuilder();
+			for(int count=random.nextInt(4);count>0;count--)
+				text.append(texts[random.nextInt(texts.length)]);
+			assertSplice(tree,document,offset,length,text.toString());
+		}
+	}
+	
+	@Test public void testRandomBatches() throws BadLocationException {
+		Random random = new Random(42);
+		String[] texts = { "{","}","(",")","begin","end","\n","x"," " };
+		IDocument document = new Document();
+		FoldTree tree = scan(document.get());
+		for(int batch=0;batch<500;batch++) {
+			int caret = random.nextInt(document.getLength()+1);
+			for(int change=random.nextInt(80);change>=0;change--) { //type and delete at a caret and change other regions in between
+				int offset = random.nextInt(4)!=0?Math.min(caret,document.getLength()):random.nextInt(document.getLength()+1),
+					length = random.nextInt(3)==0?random.nextInt(Math.min(3,document.getLength()-offset)+1):0;
+				String text = random.nextInt(4)!=0?texts[random.nextInt(texts.length)]:"";
+				if(random.nextBoolean()&&offset>0&&text.isEmpty()&&length==0) {
+					offset--; //backspace
+					length = 1;
+				}
+				update(tree,document,offset,length,text);
+				caret = offset+text.length();
+				if(random.nextInt(10)==0)
+					tree.rescan(0,Math.min(caret,document.getLength()));
+			}
+			assertTrue(tree.scan(document.get()));
+			assertEquals(document.get(),toString(scan(document.get()),document),toString(tree,document));
+		}
+	}
+	
+	@Test public void testQueriesBeforeScan() throws BadLocationException {
+		IDocument document = new Document("a {\n b\n}\n");
+		FoldTree tree = scan(document.get());
+		update(tree,document,0,0,"xx\n");
+		assertEquals(new Position(10,1),tree.getPartner(5));
+		assertEquals(new Position(5,6),tree.getEnclosingFold(8,1));
+		assertEquals("[5, 6]",toString(tree,document));
+	}
+	
+	/**
+	 * changes the document, scans the changed region of the tree and asserts that the result matches a fresh scan of the document
+	 * @param tree the tree of the document
+	 * @param document the document
+	 * @param offset the offset of the change
+	 * @param length the length of the change
+	 * @param text the text inserted
+	 */
+	private static void assertSplice(FoldTree tree,IDocument document,int offset,int length,String text) throws BadLocationException {
+		update(tree,document,offset,length,text);
+		assertTrue(tree.scan(document.get()));
+		FoldTree expected = scan(document.get());
+		String message = document.get();
+		assertEquals(message,toString(expected,document),toString(tree,document));
+		assertEquals(message,expected.isClosed(),tree.isClosed());
+		for(int index=0;index<document.getLength();index++)
+			assertEquals(message+"@"+index,expected.getPartner(index),tree.getPartner(index));
+	}
+	
+	/**
+	 * changes the document and updates the tree
+	 * @param tree the tree of the document
+	 * @param document the document
+	 * @param offset the offset of the change
+	 * @param length the length of the change
+	 * @param text the text inserted
+	 */
+	private static void update(FoldTree tree,IDocument document,int offset,int length,String text) throws BadLocationException {
+		tree.invalidate();
+		document.replace(offset,length,text);
+		tree.update(offset,length,text.length());
+	}
+	
+	/**
+	 * @param content the content of a document
+	 * @return a new tree scanned for the content
+	 */
+	private static FoldTree scan(String content) {
+		FoldTree tree = new FoldTree(FOLD_STRINGS,UNFOLD_STRINGS);
+		assertTrue(tree.scan(content));
+		return tree;
+	}
+	
+	/**
+	 * @param tree a tree
+	 * @param document the document of the tree
+	 * @return the folds of the tree as a string
+	 */
+	private static String toString(FoldTree tree,IDocument document) throws BadLocationException {
+		StringBuilder builder = new StringBuilder();
+		for(Position fold:tree.getFolds(document))
+			builder.append('[').append(fold.getOffset()).append(", ").append(fold.getLength()).append(']');
+		return builder.toString();
+	}
+}
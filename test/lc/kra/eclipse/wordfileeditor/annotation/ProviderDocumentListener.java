@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+
+/**
+ * passes the changes of a document to annotation providers like the {@link WordfileAnnotationDocumentListener} does, including
+ * the lines replaced by each change
+ * @author Kristian Kraljic
+ */
+class ProviderDocumentListener implements IDocumentListener {
+	private final WordfileAnnotationProvider[] providers;
+	private int firstLine,lastLine,oldLineCount;
+	private ProviderDocumentListener(WordfileAnnotationProvider... providers) { this.providers = providers; }
+	
+	/**
+	 * passes all following changes of a document to annotation providers
+	 * @param document the document
+	 * @param providers the providers
+	 */
+	public static void install(IDocument document,WordfileAnnotationProvider... providers) {
+		document.addDocumentListener(new ProviderDocumentListener(providers));
+	}
+	
+	@Override public void documentAboutToBeChanged(DocumentEvent event) {
+		try {
+			IDocument document = event.getDocument();
+			firstLine = document.getLineOfOffset(event.getOffset());
+			lastLine = document.getLineOfOffset(event.getOffset()+event.getLength());
+			oldLineCount = document.getNumberOfLines();
+		} catch(BadLocationException e) { throw new IllegalStateException(e); }
+		for(WordfileAnnotationProvider provider:providers)
+			provider.documentAboutToBeChanged(event);
+	}
+	@Override public void documentChanged(DocumentEvent event) {
+		int changed = lastLine-firstLine+1+event.getDocument().getNumberOfLines()-oldLineCount;
+		for(WordfileAnnotationProvider provider:providers) {
+			provider.linesChanged(event,firstLine,lastLine,changed);
+			provider.documentChanged(event);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotation;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
+import org.junit.Test;
+
+/**
+ * tests that the {@link WordfileAnnotationDocumentListener} keeps the annotations of a provider, which start at the same offset in
+ * the same group, so they keep their state (like a collapsed fold)
+ * @author Kristian Kraljic
+ */
+public class WordfileAnnotationDocumentListenerTest {
+	@Test public void testKeepAnnotations() throws BadLocationException {
+		Document document = new Document("a {\n b\n}\nc {\n}\n");
+		ProjectionAnnotationModel model = new ProjectionAnnotationModel();
+		model.connect(document);
+		WordfileAnnotationDocumentListener listener = new WordfileAnnotationDocumentListener(null);
+		WordfileAnnotationProvider provider = createProvider(model);
+		listener.addAnnotationProvider(provider);
+		
+		assertTrue(listener.updateAnnotations(provider,document,document.getModificationStamp(),groups(ProjectionAnnotation.TYPE,new Position(2,7),new Position(11,3))));
+		ProjectionAnnotation first = getAnnotation(model,2), second = getAnnotation(model,11);
+		first.markCollapsed();
+		
+		document.replace(0,0,"x");
+		assertTrue(listener.updateAnnotations(provider,document,document.getModificationStamp(),groups(ProjectionAnnotation.TYPE,new Position(3,7),new Position(12,3))));
+		assertSame(first,getAnnotation(model,3));
+		assertSame(second,getAnnotation(model,12));
+		assertTrue(first.isCollapsed());
+		assertEquals(2,count(model));
+	}
+	
+	@Test public void testResizeAnnotations() throws BadLocationException {
+		Document document = new Document("a {\n b\n}\n");
+		ProjectionAnnotationModel model = new ProjectionAnnotationModel();
+		model.connect(document);
+		WordfileAnnotationDocumentListener listener = new WordfileAnnotationDocumentListener(null);
+		WordfileAnnotationProvider provider = createProvider(model);
+		listener.addAnnotationProvider(provider);
+		
+		listener.updateAnnotations(provider,document,document.getModificationStamp(),groups(ProjectionAnnotation.TYPE,new Position(2,7)));
+		ProjectionAnnotation annotation = getAnnotation(model,2);
+		annotation.markCollapsed();
+		document.replace(9,0,"c\n");
+		listener.updateAnnotations(provider,document,document.getModificationStamp(),groups(ProjectionAnnotation.TYPE,new Position(2,9)));
+		assertSame(annotation,getAnnotation(model,2));
+		assertEquals(new Position(2,9),model.getPosition(annotation));
+		assertTrue(annotation.isCollapsed());
+	}
+	
+	@Test public void testReplaceAnnotations() throws BadLocationException {
+		Document document = new Document("a {\n b\n}\nc {\n}\n");
+		ProjectionAnnotationModel model = new ProjectionAnnotationModel();
+		model.connect(document);
+		WordfileAnnotationDocumentListener listener = new WordfileAnnotationDocumentListener(null);
+		WordfileAnnotationProvider provider = createProvider(model);
+		listener.addAnnotationProvider(provider);
+		
+		listener.updateAnnotations(provider,document,document.getModificationStamp(),groups(ProjectionAnnotation.TYPE,new Position(2,7),new Position(11,3)));
+		ProjectionAnnotation first = getAnnotation(model,2), second = getAnnotation(model,11);
+		listener.updateAnnotations(provider,document,document.getModificationStamp(),groups("other",new Position(2,7)));
+		assertEquals(1,count(model));
+		assertNotSame(first,getAnnotation(model,2));
+		assertNull(model.getPosition(second));
+	}
+	
+	@Test public void testIgnoreStaleAnnotations() throws BadLocationException {
+		Document document = new Document("a {\n}\n");
+		ProjectionAnnotationModel model = new ProjectionAnnotationModel();
+		model.connect(document);
+		WordfileAnnotationDocumentListener listener = new WordfileAnnotationDocumentListener(null);
+		WordfileAnnotationProvider provider = createProvider(model);
+		long stamp = document.getModificationStamp();
+		assertFalse(listener.updateAnnotations(provider,document,stamp,groups(ProjectionAnnotation.TYPE,new Position(2,3))));
+		listener.addAnnotationProvider(provider);
+		document.replace(0,0,"x");
+		assertFalse(listener.updateAnnotations(provider,document,stamp,groups(ProjectionAnnotation.TYPE,new Position(2,3))));
+		assertEquals(0,count(model));
+	}
+	
+	/**
+	 * creates a provider, which creates projection annotations, the annotation groups are passed to the listener by the tests
+	 */
+	private static WordfileAnnotationProvider createProvider(ProjectionAnnotationModel model) {
+		return new WordfileAnnotationProvider(model) {
+			@Override public Annotation createAnnotation(Object object) { return new ProjectionAnnotation(); }
+			@Override public Map<Object,List<Position>> getAnnotationGroups(IDocument document,IProgressMonitor monitor) { return null; }
+		};
+	}
+	private static Map<Object,List<Position>> groups(Object group,Position... positions) {
+		Map<Object,List<Position>> groups = new HashMap<Object,List<Position>>();
+		groups.put(group,new ArrayList<Position>(Arrays.asList(positions)));
+		return groups;
+	}
+	private static ProjectionAnnotation getAnnotation(ProjectionAnnotationModel model,int offset) {
+		ProjectionAnnotation found = null;
+		for(Iterator<Annotation> iterator=model.getAnnotationIterator();iterator.hasNext();) {
+			Annotation annotation = iterator.next();
+			if(model.getPosition(annotation).getOffset()==offset) {
+				assertNull(found);
+				found = (ProjectionAnnotation)annotation;
+			}
+		}
+		return found;
+	}
+	private static int count(ProjectionAnnotationModel model) {
+		int count = 0;
+		for(Iterator<Annotation> iterator=model.getAnnotationIterator();iterator.hasNext();iterator.next())
+			count++;
+		return count;
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.source.AnnotationModel;
+import org.eclipse.jface.text.source.ICharacterPairMatcher;
+import org.junit.Test;
+
+/**
+ * tests the regions and anchors of the {@link WordfileBracketMatcher}, using the brace strings of a {@link WordfileBracketAnnotationProvider}
+ * @author Kristian Kraljic
+ */
+public class WordfileBracketMatcherTest {
+	@Test public void testMatch() {
+		IDocument document = new Document("a(b[c])d");
+		WordfileBracketMatcher matcher = createMatcher(document);
+		assertEquals(new Region(1,6),matcher.match(document,2));
+		assertEquals(ICharacterPairMatcher.LEFT,matcher.getAnchor());
+		assertEquals(new Region(1,6),matcher.match(document,7));
+		assertEquals(ICharacterPairMatcher.RIGHT,matcher.getAnchor());
+		assertEquals(new Region(1,6),matcher.match(document,1));
+		assertEquals(ICharacterPairMatcher.LEFT,matcher.getAnchor());
+		assertEquals(new Region(3,3),matcher.match(document,4));
+		assertEquals(ICharacterPairMatcher.LEFT,matcher.getAnchor());
+		assertEquals(new Region(3,3),matcher.match(document,6));
+		assertEquals(ICharacterPairMatcher.RIGHT,matcher.getAnchor());
+		matcher.clear();
+		assertEquals(ICharacterPairMatcher.LEFT,matcher.getAnchor());
+	}
+	
+	@Test public void testNoMatch() {
+		IDocument document = new Document("a(b\nc]");
+		WordfileBracketMatcher matcher = createMatcher(document);
+		assertNull(matcher.match(document,0));
+		assertNull(matcher.match(document,3));
+		assertNull(matcher.match(document,2));
+		assertNull(matcher.match(document,6));
+		assertNull(matcher.match(document,7));
+		assertNull(matcher.match(null,0));
+	}
+	
+	@Test public void testLongBraceStrings() {
+		IDocument document = new Document("begin x end");
+		WordfileBracketMatcher matcher = createMatcher(document);
+		assertEquals(new Region(0,11),matcher.match(document,5));
+		assertEquals(ICharacterPairMatcher.LEFT,matcher.getAnchor());
+		assertEquals(new Region(0,11),matcher.match(document,11));
+		assertEquals(ICharacterPairMatcher.RIGHT,matcher.getAnchor());
+		assertEquals(new Region(0,11),matcher.match(document,8));
+		assertEquals(ICharacterPairMatcher.RIGHT,matcher.getAnchor());
+	}
+	
+	@Test public void testOutdated() throws BadLocationException {
+		IDocument document = new Document("(a)");
+		WordfileBracketAnnotationProvider provider = createProvider(document);
+		WordfileBracketMatcher matcher = new WordfileBracketMatcher();
+		matcher.setProvider(provider);
+		document.replace(0,0,"[");
+		assertNull(matcher.match(document,1));
+		provider.getAnnotationGroups(document,new NullProgressMonitor());
+		assertEquals(new Region(1,3),matcher.match(document,1));
+		assertEquals(new Region(1,3),matcher.match(document,4));
+	}
+	
+	@Test public void testDispose() {
+		IDocument document = new Document("(a)");
+		WordfileBracketMatcher matcher = createMatcher(document);
+		matcher.dispose();
+		assertNull(matcher.match(document,1));
+	}
+	
+	private static WordfileBracketMatcher createMatcher(IDocument document) {
+		WordfileBracketMatcher matcher = new WordfileBracketMatcher();
+		matcher.setProvider(createProvider(document));
+		return matcher;
+	}
+	/**
+	 * creates a provider for the brace strings (), [] and begin end, which has scanned a document and is passed its changes
+	 */
+	private static WordfileBracketAnnotationProvider createProvider(IDocument document) {
+		WordfileBracketAnnotationProvider provider = new WordfileBracketAnnotationProvider(new AnnotationModel(),null,
+			new String[]{"(","[","begin"},new String[]{")","]","end"});
+		ProviderDocumentListener.install(document,provider);
+		provider.getAnnotationGroups(document,new NullProgressMonitor());
+		return provider;
+	}
+}
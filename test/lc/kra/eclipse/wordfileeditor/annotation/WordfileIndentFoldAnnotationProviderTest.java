@@ -0,0 +1,129 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotation;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
+import org.junit.Test;
+
+/**
+ * tests the folds of the {@link WordfileIndentFoldAnnotationProvider}, especially that the table of indents updated with the
+ * document changes matches the table of a new provider
+ * @author Kristian Kraljic
+ */
+public class WordfileIndentFoldAnnotationProviderTest {
+	private static final Set<String> COLON = Collections.singleton(":");
+	
+	@Test public void testFolds() {
+		IDocument document = new Document("if a:\n  b\n\n  c\nd:\n  e:\n    f\n  g\n");
+		assertEquals("[0, 15][15, 18][18, 11]",folds(document,COLON,null,false,4));
+	}
+	
+	@Test public void testHeaders() {
+		assertEquals("[0, 9]",folds(new Document("x do\n  y\ndone\n  z\n"),Collections.singleton("do"),null,false,4));
+		assertEquals("[0, 11]",folds(new Document("ELSE x\n  y\nz\n"),null,Collections.singleton("else"),true,4));
+		assertEquals("",folds(new Document("x else\n  y\n"),null,Collections.singleton("else"),false,4));
+		assertEquals("[0, 9][2, 7]",folds(new Document("a\n b\n  c\n"),null,null,false,4)); //any line starts a fold
+	}
+	
+	@Test public void testTabWidth() {
+		IDocument document = new Document("x:\n\ty:\n     z\n");
+		assertEquals("[0, 14][3, 11]",folds(document,COLON,null,false,4));
+		assertEquals("[0, 14]",folds(document,COLON,null,false,8));
+	}
+	
+	@Test public void testUpdateTable() throws BadLocationException {
+		IDocument document = new Document("a:\n  b\nc\n");
+		WordfileIndentFoldAnnotationProvider provider = createProvider(document,COLON,null,false,4);
+		assertEquals("[0, 7]",folds(provider,document));
+		document.replace(7,0,"  ");
+		assertEquals("[0, 11]",folds(provider,document));
+		document.replace(0,0,"d:\n");
+		assertEquals("[3, 11]",folds(provider,document));
+		document.replace(3,0,"  ");
+		assertEquals("[0, 16]",folds(provider,document));
+		document.replace(0,3,"");
+		assertEquals("",folds(provider,document));
+		assertEquals(folds(document,COLON,null,false,4),folds(provider,document));
+	}
+	
+	@Test public void testIgnoreStaleTable() throws BadLocationException {
+		Document document = new Document("a:\n  b\n");
+		WordfileIndentFoldAnnotationProvider provider = createProvider(document,COLON,null,false,4);
+		folds(provider,document);
+		Document snapshot = new Document();
+		snapshot.set(document.get(),document.getModificationStamp());
+		document.replace(0,0,"x");
+		assertNull(provider.getAnnotationGroups(snapshot,new NullProgressMonitor()));
+	}
+	
+	@Test public void testRandomChanges() throws BadLocationException {
+		Random random = new Random(42);
+		String[] texts = { "a:", "  b", "    c:", "\td", "", " ", "\n", "\r\n", "e:\n  f", "\n\n" };
+		IDocument document = new Document("a:\n  b\n  c:\n    d\ne\n");
+		WordfileIndentFoldAnnotationProvider provider = createProvider(document,COLON,null,false,4);
+		for(int index=0;index<500;index++) {
+			int offset = random.nextInt(document.getLength()+1), length = random.nextInt(Math.min(6,document.getLength()-offset)+1);
+			document.replace(offset,length,random.nextInt(4)==0?"":texts[random.nextInt(texts.length)]);
+			if(random.nextInt(3)==0)
+				assertEquals(folds(document,COLON,null,false,4),folds(provider,document));
+		}
+	}
+	
+	/**
+	 * creates a provider, which is passed the changes of a document
+	 */
+	private static WordfileIndentFoldAnnotationProvider createProvider(IDocument document,Set<String> indentStrings,Set<String> indentStringsSOL,boolean nocase,int tabWidth) {
+		WordfileIndentFoldAnnotationProvider provider = new WordfileIndentFoldAnnotationProvider(new ProjectionAnnotationModel(),indentStrings,indentStringsSOL,nocase,tabWidth);
+		ProviderDocumentListener.install(document,provider);
+		return provider;
+	}
+	private static String folds(IDocument document,Set<String> indentStrings,Set<String> indentStringsSOL,boolean nocase,int tabWidth) {
+		return folds(createProvider(document,indentStrings,indentStringsSOL,nocase,tabWidth),document);
+	}
+	private static String folds(WordfileIndentFoldAnnotationProvider provider,IDocument document) {
+		Map<Object,List<Position>> groups = provider.getAnnotationGroups(document,new NullProgressMonitor());
+		List<Position> folds = groups.get(ProjectionAnnotation.TYPE);
+		Collections.sort(folds,new Comparator<Position>() {
+			@Override public int compare(Position position,Position other) { return position.getOffset()-other.getOffset(); }
+		});
+		StringBuilder builder = new StringBuilder();
+		for(Position fold:folds)
+			builder.append('[').append(fold.getOffset()).append(", ").append(fold.getLength()).append(']');
+		return builder.toString();
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.AnnotationModel;
+import org.junit.Test;
+
+/**
+ * tests that the index of the {@link WordfileOccurrencesAnnotationProvider} is shifted with the document changes and dropped
+ * if it does not match the document
+ * @author Kristian Kraljic
+ */
+public class WordfileOccurrencesAnnotationProviderTest {
+	@Test public void testOccurrences() throws BadLocationException {
+		IDocument document = new Document("a b\nc a,ab\n");
+		WordfileOccurrencesAnnotationProvider provider = createProvider(document,new Listener(),false);
+		visit(provider,document,0,Integer.MAX_VALUE);
+		provider.word = "a";
+		assertEquals("{a=[0, 1][6, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+		provider.word = "ab";
+		assertEquals("{ab=[8, 2]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+	}
+	
+	@Test public void testNocase() throws BadLocationException {
+		IDocument document = new Document("A b\nc a\n");
+		WordfileOccurrencesAnnotationProvider provider = createProvider(document,new Listener(),true);
+		visit(provider,document,0,Integer.MAX_VALUE);
+		provider.word = "a";
+		assertEquals("{a=[0, 1][6, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+	}
+	
+	@Test public void testShiftIndex() throws BadLocationException {
+		IDocument document = new Document("a b\nc a\nd\na\n");
+		WordfileOccurrencesAnnotationProvider provider = createProvider(document,new Listener(),false);
+		visit(provider,document,0,Integer.MAX_VALUE);
+		provider.word = "a";
+		document.replace(0,0,"x\n");
+		assertEquals("{a=[8, 1][12, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+		visit(provider,document,0,1);
+		assertEquals("{a=[2, 1][8, 1][12, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+		document.replace(1,7,"");
+		assertEquals("{a=[5, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+		visit(provider,document,0,0);
+		assertEquals("{a=[5, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+		document.replace(6,0,"\na a");
+		visit(provider,document,2,3);
+		assertEquals("{a=[5, 1][7, 1][9, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+	}
+	
+	@Test public void testIgnoreStaleVisit() throws BadLocationException {
+		IDocument document = new Document("a\nb\n");
+		WordfileOccurrencesAnnotationProvider provider = createProvider(document,new Listener(),false);
+		visit(provider,document,0,Integer.MAX_VALUE);
+		provider.word = "a";
+		provider.beginVisit(document,0,0);
+		provider.visitLine(0,0,"",null);
+		document.replace(4,0,"c");
+		provider.endVisit();
+		assertEquals("{a=[0, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+	}
+	
+	@Test public void testInvalidateLines() throws BadLocationException {
+		IDocument document = new Document("a\nb\nc\n");
+		Listener listener = new Listener();
+		WordfileOccurrencesAnnotationProvider provider = createProvider(new Document("a"),listener,false);
+		visit(provider,new Document("a"),0,Integer.MAX_VALUE);
+		ProviderDocumentListener.install(document,provider);
+		provider.word = "a";
+		document.replace(4,1,"a");
+		assertSame(document,listener.invalidated);
+		assertEquals("{}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+		visit(provider,document,0,Integer.MAX_VALUE);
+		assertEquals("{a=[0, 1][4, 1]}",toString(provider.getAnnotationGroups(document,new NullProgressMonitor())));
+	}
+	
+	/**
+	 * a listener remembering the document whose lines were invalidated
+	 */
+	private static class Listener extends WordfileAnnotationDocumentListener {
+		private IDocument invalidated;
+		public Listener() { super(null); }
+		@Override public void invalidateLines(IDocument document) { invalidated = document; }
+	}
+	
+	private static WordfileOccurrencesAnnotationProvider createProvider(IDocument document,WordfileAnnotationDocumentListener listener,boolean nocase) {
+		WordfileOccurrencesAnnotationProvider provider = new WordfileOccurrencesAnnotationProvider(new AnnotationModel(),document,listener,",",nocase);
+		ProviderDocumentListener.install(document,provider);
+		return provider;
+	}
+	/**
+	 * indexes lines of a document like the annotation document listener
+	 */
+	private static void visit(WordfileOccurrencesAnnotationProvider provider,IDocument document,int firstLine,int lastLine) throws BadLocationException {
+		lastLine = Math.min(lastLine,document.getNumberOfLines()-1);
+		provider.beginVisit(document,firstLine,lastLine);
+		for(int line=firstLine;line<=lastLine;line++) {
+			IRegion region = document.getLineInformation(line);
+			provider.visitLine(line,region.getOffset(),document.get(region.getOffset(),region.getLength()),null);
+		}
+		provider.endVisit();
+	}
+	private static String toString(Map<Object,List<Position>> groups) {
+		assertNull(groups.get(null));
+		StringBuilder builder = new StringBuilder("{");
+		for(Map.Entry<Object,List<Position>> group:groups.entrySet()) {
+			builder.append(group.getKey()).append('=');
+			for(Position position:group.getValue())
+				builder.append('[').append(position.getOffset()).append(", ").append(position.getLength()).append(']');
+		}
+		return builder.append('}').toString();
+	}
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.annotation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.ITypedRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.TypedRegion;
+import org.eclipse.jface.text.source.AnnotationModel;
+import org.junit.Test;
+
+import lc.kra.eclipse.wordfileeditor.editor.parse.WordfilePartitionScanner;
+
+/**
+ * tests that the {@link WordfileTaskAnnotationProvider} keeps the markers of the lines not changed by a document change
+ * @author Kristian Kraljic
+ */
+public class WordfileTaskAnnotationProviderTest {
+	@Test public void testMarkers() throws BadLocationException {
+		IDocument document = new Document("a\n// [x] b\nc // TODO d\n");
+		WordfileTaskAnnotationProvider provider = createProvider(document);
+		visit(provider,document,0,Integer.MAX_VALUE);
+		assertEquals("{TODO d=[16, 6], x=[5, 3]}",toString(provider.getAnnotationGroups(document,null)));
+	}
+	
+	@Test public void testShiftMarkers() throws BadLocationException {
+		IDocument document = new Document("a\n// [x] b\nc // TODO d\n");
+		WordfileTaskAnnotationProvider provider = createProvider(document);
+		visit(provider,document,0,Integer.MAX_VALUE);
+		document.replace(0,0,"e\nf\n");
+		assertEquals("{TODO d=[20, 6], x=[9, 3]}",toString(provider.getAnnotationGroups(document,null)));
+		document.replace(0,4,"");
+		assertEquals("{TODO d=[16, 6], x=[5, 3]}",toString(provider.getAnnotationGroups(document,null)));
+		document.replace(7,0,"  ");
+		assertEquals("{TODO d=[18, 6]}",toString(provider.getAnnotationGroups(document,null)));
+	}
+	
+	@Test public void testRemoveChangedLines() throws BadLocationException {
+		IDocument document = new Document("a\n// [x] b\nc // TODO d\n// [y]\n");
+		WordfileTaskAnnotationProvider provider = createProvider(document);
+		visit(provider,document,0,Integer.MAX_VALUE);
+		document.replace(9,4,"\n\n");
+		assertEquals("{y=[24, 3]}",toString(provider.getAnnotationGroups(document,null)));
+		visit(provider,document,1,3);
+		assertEquals("{TODO d=[14, 6], x=[5, 3], y=[24, 3]}",toString(provider.getAnnotationGroups(document,null)));
+	}
+	
+	@Test public void testIgnoreStaleVisit() throws BadLocationException {
+		IDocument document = new Document("// [x]\n");
+		WordfileTaskAnnotationProvider provider = createProvider(document);
+		visit(provider,document,0,Integer.MAX_VALUE);
+		provider.beginVisit(document,0,0);
+		document.replace(7,0,"\n");
+		provider.endVisit();
+		assertEquals("{x=[3, 3]}",toString(provider.getAnnotationGroups(document,null)));
+	}
+	
+	/**
+	 * creates a provider with the marker characters [] and passes all changes of a document to it
+	 */
+	private static WordfileTaskAnnotationProvider createProvider(IDocument document) {
+		WordfileTaskAnnotationProvider provider = new WordfileTaskAnnotationProvider(new AnnotationModel(),Collections.singleton("[]"));
+		ProviderDocumentListener.install(document,provider);
+		return provider;
+	}
+	/**
+	 * visits lines of a document like the annotation document listener, the text behind // is a comment
+	 */
+	private static void visit(WordfileTaskAnnotationProvider provider,IDocument document,int firstLine,int lastLine) throws BadLocationException {
+		lastLine = Math.min(lastLine,document.getNumberOfLines()-1);
+		provider.beginVisit(document,firstLine,lastLine);
+		for(int line=firstLine;line<=lastLine;line++) {
+			IRegion region = document.getLineInformation(line);
+			String text = document.get(region.getOffset(),region.getLength());
+			int comment = text.indexOf("//");
+			provider.visitLine(line,region.getOffset(),text,comment==-1?new ITypedRegion[0]:new ITypedRegion[]{new TypedRegion(
+				region.getOffset()+comment,text.length()-comment,WordfilePartitionScanner.CONTENT_TYPE_SINGLE_LINE_COMMENT)});
+		}
+		provider.endVisit();
+	}
+	private static String toString(Map<Object,List<Position>> groups) {
+		Map<String,List<String>> sorted = new TreeMap<String,List<String>>();
+		for(Map.Entry<Object,List<Position>> group:groups.entrySet()) {
+			List<String> positions = new ArrayList<String>();
+			for(Position position:group.getValue())
+				positions.add("["+position.getOffset()+", "+position.getLength()+"]");
+			sorted.put(String.valueOf(group.getKey()),positions);
+		}
+		return sorted.toString().replace("[[","[").replace("]]","]");
+	}
+}
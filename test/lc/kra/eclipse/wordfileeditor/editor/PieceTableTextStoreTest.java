@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * tests the {@link PieceTableTextStore} against a string builder receiving the same changes
+ * @author Kristian Kraljic
+ */
+public class PieceTableTextStoreTest {
+	@Test public void testInsert() {
+		PieceTableTextStore store = new PieceTableTextStore("hello world");
+		store.replace(5,0,",");
+		store.replace(0,0,">");
+		store.replace(store.getLength(),0,"!");
+		assertContent(">hello, world!",store);
+	}
+	
+	@Test public void testDelete() {
+		PieceTableTextStore store = new PieceTableTextStore("hello world");
+		store.replace(0,1,"");
+		store.replace(4,1,"");
+		store.replace(store.getLength()-1,1,"");
+		assertContent("elloworl",store);
+		store.replace(0,store.getLength(),"");
+		assertContent("",store);
+	}
+	
+	@Test public void testReplaceAcrossPieces() {
+		PieceTableTextStore store = new PieceTableTextStore("abcdef");
+		store.replace(2,0,"XY");
+		store.replace(6,0,"Z");
+		store.replace(1,6,"-");
+		assertContent("a-ef",store);
+		assertEquals("-e",store.get(1,2));
+		assertEquals('f',store.get(3));
+		assertEquals("-e",store.subSequence(1,3).toString());
+	}
+	
+	@Test public void testSet() {
+		PieceTableTextStore store = new PieceTableTextStore("abc");
+		store.replace(1,1,"xyz");
+		store.set("new");
+		assertContent("new",store);
+		store.replace(3,0,"er");
+		assertContent("newer",store);
+	}
+	
+	@Test public void testSnapshot() {
+		PieceTableTextStore store = new PieceTableTextStore("abc");
+		store.replace(3,0,"def");
+		PieceTableTextStore snapshot = store.snapshot();
+		store.replace(3,0,"123");
+		store.replace(0,1,"");
+		snapshot.replace(6,0,"ghi");
+		assertContent("bc123def",store);
+		assertContent("abcdefghi",snapshot);
+	}
+	
+	@Test public void testRandomChanges() {
+		Random random = new Random(42);
+		StringBuilder expected = new StringBuilder("the quick brown fox\njumps over the lazy dog\n");
+		PieceTableTextStore store = new PieceTableTextStore(expected.toString());
+		for(int change=0;change<2000;change++) {
+			int offset = random.nextInt(expected.length()+1), length = random.nextInt(Math.min(8,expected.length()-offset)+1);
+			StringBuilder text = new StringBuilder();
+			for(int count=random.nextInt(5);count>0;count--)
+				text.append((char)('a'+random.nextInt(26)));
+			expected.replace(offset,offset+length,text.toString());
+			store.replace(offset,length,text.toString());
+			if(change%100==0) {
+				PieceTableTextStore snapshot = store.snapshot();
+				store.replace(0,0,"#");
+				store.replace(0,1,"");
+				assertContent(expected.toString(),snapshot);
+			}
+		}
+		assertContent(expected.toString(),store);
+	}
+	
+	@Test public void testOpenAscii() throws IOException {
+		assertOpen("plain ascii\r\nwith two lines\n".getBytes("US-ASCII"),"UTF-8");
+	}
+	
+	@Test public void testOpenSingleByte() throws IOException {
+		assertOpen("gr\u00FC\u00DFe \u00E0 tous\n".getBytes("ISO-8859-1"),"ISO-8859-1");
+	}
+	
+	@Test public void testOpenUtf8() throws IOException {
+		Random random = new Random(42);
+		String[] texts = { "a","\u00FC","\u20AC","\uD83D\uDE00","\n","xyz" };
+		StringBuilder text = new StringBuilder();
+		while(text.length()<20000) //several blocks, characters of all lengths cross the block boundaries
+			text.append(texts[random.nextInt(texts.length)]);
+		assertOpen(text.toString().getBytes("UTF-8"),"UTF-8");
+	}
+	
+	@Test public void testOpenUtf8ByteOrderMark() throws IOException {
+		byte[] bytes = "\uFEFFfirst \u00FC line\n".getBytes("UTF-8");
+		PieceTableTextStore store = open(bytes,"UTF-8");
+		assertContent("first \u00FC line\n",store);
+	}
+	
+	@Test public void testOpenMalformedUtf8() throws IOException {
+		byte[] bytes = new byte[9000];
+		Random random = new Random(42);
+		random.nextBytes(bytes);
+		assertOpen(bytes,"UTF-8");
+	}
+	
+	@Test public void testEditOpened() throws IOException {
+		PieceTableTextStore store = open("\u00E4\u00F6\u00FC\n\u20AC".getBytes("UTF-8"),"UTF-8");
+		store.replace(1,1,"o");
+		store.replace(store.getLength(),0,"!");
+		assertContent("\u00E4o\u00FC\n\u20AC!",store);
+		assertEquals("\u00F6\u00FC",store.getOriginal(1,2));
+	}
+	
+	/**
+	 * asserts that an opened file holds the content decoded by the charset
+	 * @param bytes the content of the file
+	 * @param encoding the encoding of the file
+	 */
+	private static void assertOpen(byte[] bytes,String encoding) throws IOException {
+		String expected = new String(bytes,Charset.forName(encoding));
+		PieceTableTextStore store = open(bytes,encoding);
+		assertContent(expected,store);
+		Random random = new Random(42);
+		for(int count=0;count<200&&expected.length()!=0;count++) {
+			int offset = random.nextInt(expected.length()), length = random.nextInt(Math.min(10000,expected.length()-offset)+1);
+			assertEquals(expected.substring(offset,offset+length),store.get(offset,length));
+		}
+	}
+	
+	/**
+	 * opens the content of a temporary file
+	 * @param bytes the content of the file
+	 * @param encoding the encoding of the file
+	 * @return the store opened
+	 */
+	private static PieceTableTextStore open(byte[] bytes,String encoding) throws IOException {
+		File file = File.createTempFile("test",null);
+		try {
+			OutputStream stream = new FileOutputStream(file);
+			try { stream.write(bytes); }
+			finally { stream.close(); }
+			return PieceTableTextStore.open(file,encoding);
+		} finally { file.delete(); }
+	}
+	
+	/**
+	 * asserts that a store holds a text, read as a whole and character by character
+	 * @param expected the expected text
+	 * @param store the store to check
+	 */
+	private static void assertContent(String expected,PieceTableTextStore store) {
+		assertEquals(expected.length(),store.getLength());
+		assertEquals(expected,store.toString());
+		for(int index=0;index<expected.length();index++)
+			assertEquals(expected.charAt(index),store.charAt(index));
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import org.junit.Test;
+
+import lc.kra.eclipse.wordfileeditor.editor.WordfileAssistProcessor.Keywords;
+import lc.kra.eclipse.wordfileeditor.wordfile.Wordfile.CodeFormat;
+
+/**
+ * tests the range of keywords found by {@link Keywords#indexOf(String, boolean)} for a prefix
+ * @author Kristian Kraljic
+ */
+public class WordfileAssistProcessorTest {
+	private final Keywords keywords = new Keywords(null,new LinkedHashSet<CodeFormat>(Arrays.asList(
+		createCodeFormat(1,"foo","bar","Bar","baz"),createCodeFormat(2,"qux","foobar"))));
+	
+	@Test public void testOrder() {
+		assertArrayEquals(new String[] { "bar","bar","baz","foo","foobar","qux" },keywords.keys);
+		assertArrayEquals(new String[] { "Bar","bar","baz","foo","foobar","qux" },keywords.keywords);
+	}
+	
+	@Test public void testPrefixRange() {
+		assertRange(0,6,"");
+		assertRange(0,3,"ba");
+		assertRange(0,2,"bar");
+		assertRange(3,5,"foo");
+		assertRange(4,5,"foobar");
+		assertRange(5,6,"q");
+	}
+	
+	@Test public void testEmptyRange() {
+		assertRange(0,0,"a");
+		assertRange(2,2,"bara");
+		assertRange(3,3,"c");
+		assertRange(5,5,"foobarx");
+		assertRange(6,6,"z");
+		assertRange(6,6,"quxx");
+	}
+	
+	@Test public void testNoKeywords() {
+		Keywords keywords = new Keywords(null,Arrays.asList(createCodeFormat(1)));
+		assertEquals(0,keywords.indexOf("",false));
+		assertEquals(0,keywords.indexOf("",true));
+		assertEquals(0,keywords.indexOf("a",false));
+		assertEquals(0,keywords.indexOf("a",true));
+	}
+	
+	@Test public void testAllPrefixes() {
+		String[] prefixes = { "","b","ba","bar","barr","baz","f","fo","foo","foob","foobar","g","q","qu","qux","r" };
+		for(String prefix:prefixes) {
+			int start = 0, end;
+			while(start<keywords.keys.length&&keywords.keys[start].compareTo(prefix)<0&&!keywords.keys[start].startsWith(prefix))
+				start++;
+			for(end=start;end<keywords.keys.length&&keywords.keys[end].startsWith(prefix);end++);
+			assertRange(start,end,prefix);
+		}
+	}
+	
+	/**
+	 * asserts the range of keys starting with a prefix
+	 * @param start the expected first index of the range
+	 * @param end the expected index behind the range
+	 * @param prefix the prefix
+	 */
+	private void assertRange(int start,int end,String prefix) {
+		assertEquals("start of "+prefix,start,keywords.indexOf(prefix,false));
+		assertEquals("end of "+prefix,end,keywords.indexOf(prefix,true));
+	}
+	
+	/**
+	 * creates a code format with a set of keywords
+	 * @param formatNumber the number of the code format
+	 * @param formatKeywords the keywords
+	 * @return the code format
+	 */
+	private static CodeFormat createCodeFormat(final int formatNumber,final String... formatKeywords) {
+		return new CodeFormat() {
+			{
+				number = formatNumber;
+				keywords.addAll(Arrays.asList(formatKeywords));
+			}
+		};
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.editor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.junit.Test;
+
+/**
+ * tests the lines of the snapshots of a {@link WordfileDocument} against a document with the same content
+ * @author Kristian Kraljic
+ */
+public class WordfileDocumentTest {
+	private static final String[] TEXTS = { "", "a", "\n", "\r\n", "\r", "a\nb", "a\r\nb\r\n", "\r\r\n\n", "ab\rcd\n\nef\r\n" };
+	
+	@Test public void testSnapshotLines() throws BadLocationException {
+		for(String text:TEXTS) {
+			WordfileDocument document = new WordfileDocument();
+			document.set(text);
+			assertLines(text,document.getSnapshot());
+		}
+	}
+	
+	@Test public void testSnapshotUntracked() throws BadLocationException {
+		WordfileDocument document = new WordfileDocument(new PieceTableTextStore("a\nb\r\nc"));
+		assertLines("a\nb\r\nc",document.getSnapshot());
+		assertLines("a\nb\r\nc",document);
+	}
+	
+	@Test public void testSnapshotOfSnapshot() throws BadLocationException {
+		WordfileDocument document = new WordfileDocument();
+		document.set("a\nb\r\nc");
+		IDocument snapshot = ((WordfileDocument)document.getSnapshot()).getSnapshot();
+		document.replace(0,0,"x\n");
+		assertLines("a\nb\r\nc",snapshot);
+		assertLines("x\na\nb\r\nc",document);
+	}
+	
+	@Test public void testChangeSnapshot() throws BadLocationException {
+		WordfileDocument document = new WordfileDocument();
+		document.set("a\nb\r\nc");
+		IDocument snapshot = document.getSnapshot();
+		snapshot.replace(1,1,"\r");
+		assertLines("a\rb\r\nc",snapshot);
+		snapshot = document.getSnapshot();
+		snapshot.set("d\n");
+		assertLines("d\n",snapshot);
+		assertLines("a\nb\r\nc",document);
+	}
+	
+	@Test public void testRandomChanges() throws BadLocationException {
+		Random random = new Random(42);
+		String[] inserts = { "a", "bc", "\n", "\r", "\r\n", "d\ne", "\n\r" };
+		WordfileDocument document = new WordfileDocument();
+		StringBuilder expected = new StringBuilder();
+		for(int index=0;index<200;index++) {
+			int offset = random.nextInt(expected.length()+1), length = random.nextInt(Math.min(3,expected.length()-offset)+1);
+			String text = random.nextInt(4)==0?"":inserts[random.nextInt(inserts.length)];
+			document.replace(offset,length,text);
+			expected.replace(offset,offset+length,text);
+			if(index%10==0) {
+				assertEquals(expected.toString(),document.get());
+				assertLines(document,document.getSnapshot());
+			}
+		}
+	}
+	
+	private static void assertLines(String text,IDocument actual) throws BadLocationException {
+		assertLines(new Document(text),actual);
+	}
+	private static void assertLines(IDocument expected,IDocument actual) throws BadLocationException {
+		String text = expected.get();
+		assertEquals(text,actual.get());
+		assertEquals(expected.getNumberOfLines(),actual.getNumberOfLines());
+		assertEquals(lineOffset(expected,-1),lineOffset(actual,-1));
+		assertEquals(lineOffset(expected,expected.getNumberOfLines()),lineOffset(actual,expected.getNumberOfLines()));
+		for(int line=0;line<expected.getNumberOfLines();line++) {
+			assertEquals(lineOffset(expected,line),lineOffset(actual,line));
+			assertEquals(lineLength(expected,line),lineLength(actual,line));
+			assertEquals(lineDelimiter(expected,line),lineDelimiter(actual,line));
+			assertEquals(lineInformation(expected,line),lineInformation(actual,line));
+		}
+		for(int offset=-1;offset<=text.length()+1;offset++) {
+			assertEquals(lineOfOffset(expected,offset),lineOfOffset(actual,offset));
+			assertEquals(lineInformationOfOffset(expected,offset),lineInformationOfOffset(actual,offset));
+			for(int length=0;offset>=0&&offset+length<=text.length();length++)
+				assertEquals(expected.getNumberOfLines(offset,length),actual.getNumberOfLines(offset,length));
+		}
+	}
+	
+	private static Object lineOffset(IDocument document,int line) {
+		try { return document.getLineOffset(line); }
+		catch(BadLocationException e) { return e.getClass(); }
+	}
+	private static Object lineLength(IDocument document,int line) {
+		try { return document.getLineLength(line); }
+		catch(BadLocationException e) { return e.getClass(); }
+	}
+	private static Object lineDelimiter(IDocument document,int line) {
+		try { return document.getLineDelimiter(line); }
+		catch(BadLocationException e) { return e.getClass(); }
+	}
+	private static Object lineInformation(IDocument document,int line) {
+		try { return region(document.getLineInformation(line)); }
+		catch(BadLocationException e) { return e.getClass(); }
+	}
+	private static Object lineOfOffset(IDocument document,int offset) {
+		try { return document.getLineOfOffset(offset); }
+		catch(BadLocationException e) { return e.getClass(); }
+	}
+	private static Object lineInformationOfOffset(IDocument document,int offset) {
+		try { return region(document.getLineInformationOfOffset(offset)); }
+		catch(BadLocationException e) { return e.getClass(); }
+	}
+	private static String region(IRegion region) { return region.getOffset()+":"+region.getLength(); }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2017 Kristian Kraljic
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package lc.kra.eclipse.wordfileeditor.utilities;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * tests the {@link AhoCorasickMatcher} against a naive search for each pattern
+ * @author Kristian Kraljic
+ */
+public class AhoCorasickMatcherTest {
+	@Test public void testOverlappingPatterns() {
+		assertMatches(new String[] { "he","she","his","hers" },"ushers ahishe");
+	}
+	
+	@Test public void testSuffixPatterns() {
+		assertMatches(new String[] { "a","aa","aaa","b","ab" },"aaaabaab");
+	}
+	
+	@Test public void testFoldStrings() {
+		assertMatches(new String[] { "{","(","/*","}",")","*/","\"","\\\"" },"if(a) { /* \"}\" */ b(\"\\\"\"); }");
+	}
+	
+	@Test public void testEmptyPatterns() {
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher("",null,"ab");
+		assertEquals(0,matcher.getLength(0));
+		assertEquals(0,matcher.getLength(1));
+		assertEquals(2,matcher.getLength(2));
+		assertEquals(2,matcher.getMaximumLength());
+		assertMatches(new String[] { "",null,"ab" },"aabab");
+	}
+	
+	@Test public void testNoPatterns() {
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher();
+		assertEquals(0,matcher.getMaximumLength());
+		assertEquals(AhoCorasickMatcher.INITIAL_STATE,matcher.next(AhoCorasickMatcher.INITIAL_STATE,'a'));
+		assertEquals(0,matcher.getMatches(AhoCorasickMatcher.INITIAL_STATE).length);
+	}
+	
+	/**
+	 * asserts that the matcher reports exactly the patterns ending at each character of a text
+	 * @param patterns the patterns to match
+	 * @param text the text to search
+	 */
+	private static void assertMatches(String[] patterns,String text) {
+		AhoCorasickMatcher matcher = new AhoCorasickMatcher(patterns);
+		int state = AhoCorasickMatcher.INITIAL_STATE;
+		for(int index=0;index<text.length();index++) {
+			state = matcher.next(state,text.charAt(index));
+			List<Integer> expected = new ArrayList<Integer>();
+			for(int pattern=0;pattern<patterns.length;pattern++)
+				if(patterns[pattern]!=null&&!patterns[pattern].isEmpty()&&text.startsWith(patterns[pattern],index+1-patterns[pattern].length()))
+					expected.add(pattern);
+			int[] matches = matcher.getMatches(state).clone();
+			Arrays.sort(matches);
+			int[] sorted = new int[expected.size()];
+			for(int match=0;match<sorted.length;match++)
+				sorted[match] = expected.get(match);
+			assertArrayEquals("matches at "+index,sorted,matches);
+		}
+	}
+}